@@ -16,20 +16,31 @@
  * limitations under the License.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 
 public abstract class Aspect {
   
   /**
-   * @param filename file being processed
-   * @param timestamp raw timestamp string
-   * @param dateTs timestamp in Date form or null if not available
-   * @param headLine the first line of a log entry
-   * @param entry the rest of a log entry
+   * The parts of the record are only decoded when asked for, and only valid until
+   * this returns, see {@link LogRecord}.
+   * 
    * @return true if aspect handled the entry and doesn't think another aspects needs to
    */
-  public abstract boolean process(String filename, String timestamp, Date dateTs, String headLine, String entry);
+  public abstract boolean process(LogRecord record);
+  
+  /**
+   * @return literal strings one of which has to be in the headline of an entry for
+   *         it to be passed to this aspect, or null if this aspect needs every entry
+   */
+  public String[] getTriggers() {
+    return null;
+  }
   
   /**
    * Prints a summary report for the Aspect to standard out.
@@ -40,6 +51,13 @@ public abstract class Aspect {
     return "";
   };
   
+  /**
+   * @return the series this aspect keeps over time, to be charted
+   */
+  public List<TimeSeries> getTimeSeries() {
+    return Collections.emptyList();
+  }
+  
   public void close() {}
   
   /**
@@ -47,4 +65,67 @@ public abstract class Aspect {
    */
   public void endOfFile() {}
   
+  /**
+   * Notification a partial is done with its chunk of a file. It gets no more
+   * entries until it is merged, which may be after the other chunks of the file
+   * have been read, so this is the time to let go of memory it can do without.
+   */
+  public void endOfChunk() {}
+  
+  /**
+   * Partials collect the results of a part of the logs, a chunk of a file, on their
+   * own. They share whatever this aspect writes to, but not what it has collected.
+   * A partial is only ever used by one thread at a time and needs no locking. An
+   * aspect that can't be split up is used by many threads at once instead.
+   * 
+   * @return a new partial of this aspect or null if the results of this aspect
+   *         can't be split up
+   */
+  public Aspect newPartial() {
+    return null;
+  }
+  
+  /**
+   * Adds what a partial from {@link #newPartial()} collected to this aspect, as if
+   * this aspect had processed its entries itself after its own.
+   */
+  public void merge(Aspect partial) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " can't be merged");
+  }
+  
+  /**
+   * Writes what this aspect has collected, to be read back by
+   * {@link #readState(DataInput)} of a new partial.
+   */
+  public void writeState(DataOutput out) throws IOException {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " can't be saved");
+  }
+  
+  public void readState(DataInput in) throws IOException {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " can't be loaded");
+  }
+  
+  /**
+   * Writes a string of any length, unlike {@link DataOutput#writeUTF(String)}, or null.
+   */
+  static void writeString(DataOutput out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+  
+  static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length == -1) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
 }
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps what the aspects collected from each log on disk, so logs that have not
+ * changed since the last run are not read again.
+ *
+ * A log is known by its path and name and the configuration it was read with.
+ * What was cached for it is used if the file still has the same size, modification
+ * time and first bytes. A plain log that has grown since, with the same first bytes
+ * and the same bytes before where the last run stopped, is read on from there. The
+ * last entry of a plain log is never cached, as it may get more lines, so a run
+ * always stops at the start of it.
+ */
+public class AspectCache {
+  private static final int MAGIC = 0x534c5243;
+  private static final int VERSION = 15;
+  private static final int HASHED_BYTES = 64 * 1024;
+  private static final int TAIL_HASHED_BYTES = 4 * 1024;
+
+  private final File dir;
+  private final String fingerprint;
+
+  /**
+   * @param fingerprint identifies the configuration the logs are read with, what
+   *        is cached with another one is not used
+   */
+  public AspectCache(File dir, String fingerprint) throws IOException {
+    this.dir = dir;
+    this.fingerprint = fingerprint;
+    Files.createDirectories(dir.toPath());
+  }
+
+  /**
+   * Loads what was cached for a log into new partials of its instance's aspects.
+   *
+   * @param resumable whether the log may have grown since it was cached
+   * @return where to read on from in the file, or -1 if nothing usable was cached
+   */
+  public long load(LogSource source, boolean resumable, List<Aspect> partials) {
+    File cacheFile = cacheFile(source);
+    if (!cacheFile.exists()) {
+      return -1;
+    }
+    File file = source.getFile();
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || !key(source).equals(Aspect.readString(in))) {
+          return -1;
+        }
+        long size = in.readLong();
+        long modified = in.readLong();
+        byte[] headHash = readHash(in);
+        long offset = in.readLong();
+        byte[] tailHash = readHash(in);
+
+        long length = file.length();
+        boolean unchanged = length == size && file.lastModified() == modified;
+        if (!unchanged && !(resumable && length >= size)) {
+          return -1;
+        }
+        if (!Arrays.equals(headHash, hash(file, 0, Math.min(size, HASHED_BYTES)))) {
+          return -1;
+        }
+        if (!unchanged) {
+          long tailStart = Math.max(0, offset - TAIL_HASHED_BYTES);
+          if (!Arrays.equals(tailHash, hash(file, tailStart, offset - tailStart))) {
+            return -1;
+          }
+        }
+
+        if (in.readInt() != partials.size()) {
+          return -1;
+        }
+        for (Aspect partial : partials) {
+          if (!partial.getClass().getName().equals(Aspect.readString(in))) {
+            return -1;
+          }
+          partial.readState(in);
+        }
+        return offset;
+      } finally {
+        in.close();
+      }
+    } catch (EOFException e) {
+      // written by a run that did not get to finish
+      return -1;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return -1;
+    }
+  }
+
+  /**
+   * Caches what the partials collected from a log, up to the given offset.
+   */
+  public void store(LogSource source, long offset, List<Aspect> partials) {
+    File file = source.getFile();
+    File cacheFile = cacheFile(source);
+    try {
+      File tmp = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+      try {
+        long size = file.length();
+        long modified = file.lastModified();
+        long tailStart = Math.max(0, offset - TAIL_HASHED_BYTES);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          Aspect.writeString(out, key(source));
+          out.writeLong(size);
+          out.writeLong(modified);
+          writeHash(out, hash(file, 0, Math.min(size, HASHED_BYTES)));
+          out.writeLong(offset);
+          writeHash(out, hash(file, tailStart, offset - tailStart));
+          out.writeInt(partials.size());
+          for (Aspect partial : partials) {
+            Aspect.writeString(out, partial.getClass().getName());
+            partial.writeState(out);
+          }
+        } finally {
+          out.close();
+        }
+        // readers never see half written entries
+        Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      System.err.println("Could not cache results of " + source.getName() + ": " + e);
+    }
+  }
+
+  private String key(LogSource source) throws IOException {
+    return source.getFile().getCanonicalPath() + "|" + source + "|" + source.getName() + "|" + fingerprint;
+  }
+
+  private File cacheFile(LogSource source) {
+    String key;
+    try {
+      key = key(source);
+    } catch (IOException e) {
+      key = source.getFile().getAbsolutePath() + "|" + source + "|" + source.getName() + "|" + fingerprint;
+    }
+    return new File(dir, hex(sha1().digest(key.getBytes(StandardCharsets.UTF_8))) + ".cache");
+  }
+
+  private static byte[] hash(File file, long offset, long length) throws IOException {
+    MessageDigest digest = sha1();
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.seek(offset);
+      byte[] buffer = new byte[8192];
+      while (length > 0) {
+        int n = raf.read(buffer, 0, (int) Math.min(buffer.length, length));
+        if (n == -1) {
+          break;
+        }
+        digest.update(buffer, 0, n);
+        length -= n;
+      }
+    } finally {
+      raf.close();
+    }
+    return digest.digest();
+  }
+
+  private static MessageDigest sha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // every JVM has SHA-1
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void writeHash(DataOutputStream out, byte[] hash) throws IOException {
+    out.writeInt(hash.length);
+    out.write(hash);
+  }
+
+  private static byte[] readHash(DataInputStream in) throws IOException {
+    byte[] hash = new byte[in.readInt()];
+    in.readFully(hash);
+    return hash;
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Hands log entries only to the aspects that can do something with them.
+ *
+ * The triggers of all aspects, see {@link Aspect#getTriggers()}, are compiled into
+ * a single Aho-Corasick automaton, so a headline is scanned once no matter how many
+ * aspects and triggers there are. It is scanned as raw bytes, so most entries, that
+ * trigger none of the aspects, are never decoded at all. Aspects without triggers
+ * get every entry.
+ */
+public class AspectDispatcher {
+  private static final int ALPHABET = 128;
+
+  private final List<Aspect> aspects;
+  // bit i is aspect i
+  private final long all;
+  private long catchAll;
+  // transitions of the automaton, complete so scanning never follows failure links
+  private int[][] next;
+  // the aspects triggered on reaching each state
+  private long[] triggered;
+
+  public AspectDispatcher(List<Aspect> aspects) {
+    this.aspects = aspects;
+    this.all = aspects.size() >= 64 ? -1L : (1L << aspects.size()) - 1;
+    build();
+  }
+
+  /**
+   * Passes an entry to each aspect triggered by its headline, in order, until one
+   * of them handles it.
+   */
+  public void process(LogRecord record) {
+    long matched = match(record.getHeadLineBytes());
+    if (matched == 0 && aspects.size() <= 64) {
+      return;
+    }
+    for (int i = 0; i < aspects.size(); i++) {
+      if (i < 64 && (matched & (1L << i)) == 0) {
+        continue;
+      }
+      if (aspects.get(i).process(record)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return the aspects triggered by the headline, bit i for aspect i
+   */
+  long match(CharSequence headLine) {
+    long matched = catchAll;
+    if (matched == all) {
+      return matched;
+    }
+    int[][] next = this.next;
+    long[] triggered = this.triggered;
+    int state = 0;
+    for (int i = 0, length = headLine.length(); i < length; i++) {
+      char c = headLine.charAt(i);
+      state = c < ALPHABET ? next[state][c] : 0;
+      matched |= triggered[state];
+      if (matched == all) {
+        break;
+      }
+    }
+    return matched;
+  }
+
+  private void build() {
+    List<int[]> trie = new ArrayList<int[]>();
+    List<Long> outputs = new ArrayList<Long>();
+    trie.add(new int[ALPHABET]);
+    outputs.add(0L);
+
+    for (int i = 0; i < aspects.size(); i++) {
+      String[] triggers = aspects.get(i).getTriggers();
+      if (i >= 64 || triggers == null || !isAscii(triggers)) {
+        catchAll |= i >= 64 ? 0 : 1L << i;
+        continue;
+      }
+      for (String trigger : triggers) {
+        if (trigger.isEmpty()) {
+          // found in every headline
+          catchAll |= 1L << i;
+          continue;
+        }
+        int state = 0;
+        for (int j = 0; j < trigger.length(); j++) {
+          char c = trigger.charAt(j);
+          if (trie.get(state)[c] == 0) {
+            trie.get(state)[c] = trie.size();
+            trie.add(new int[ALPHABET]);
+            outputs.add(0L);
+          }
+          state = trie.get(state)[c];
+        }
+        outputs.set(state, outputs.get(state) | 1L << i);
+      }
+    }
+
+    // breadth first, so the failure state of a state is always done before it
+    int[] fail = new int[trie.size()];
+    Queue<Integer> queue = new LinkedList<Integer>();
+    int[] root = trie.get(0);
+    for (int c = 0; c < ALPHABET; c++) {
+      if (root[c] != 0) {
+        queue.add(root[c]);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      int[] transitions = trie.get(state);
+      // a trigger that ends in the middle of a longer one counts too
+      outputs.set(state, outputs.get(state) | outputs.get(fail[state]));
+      for (int c = 0; c < ALPHABET; c++) {
+        int child = transitions[c];
+        if (child != 0) {
+          fail[child] = trie.get(fail[state])[c];
+          queue.add(child);
+        } else {
+          transitions[c] = trie.get(fail[state])[c];
+        }
+      }
+    }
+
+    next = trie.toArray(new int[trie.size()][]);
+    triggered = new long[outputs.size()];
+    for (int i = 0; i < triggered.length; i++) {
+      triggered[i] = outputs.get(i);
+    }
+  }
+
+  private static boolean isAscii(String[] triggers) {
+    for (String trigger : triggers) {
+      for (int i = 0; i < trigger.length(); i++) {
+        if (trigger.charAt(i) >= ALPHABET) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
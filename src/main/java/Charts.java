@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Paths.get;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Writes charts from chart_template.html: a timeline of events and a line chart of
+ * time series. The chart is written out as it is generated, the rows are never all
+ * in memory at once.
+ */
+public class Charts {
+  private static final String[] PLACEHOLDERS = {"SERIES_COLUMNS_REPLACE", "SERIES_REPLACE", "DATA_REPLACE",
+      "ABOUT_REPLACE", "DESC_REPLACE", "HEIGHT_REPLACE"};
+
+  /**
+   * The rows of a timeline.
+   */
+  public interface Timeline {
+    /**
+     * Writes the rows, each [type, start date, end date, html tooltip], separated by
+     * commas.
+     */
+    void writeRows(Appendable out) throws IOException;
+  }
+
+  public static final Timeline NO_TIMELINE = new Timeline() {
+    @Override
+    public void writeRows(Appendable out) {}
+  };
+
+  /**
+   * @param series the series for the line chart, all at the finest resolution that
+   *        has all of each of them
+   */
+  public static void write(String file, String description, String about, int height, Timeline timeline,
+      List<TimeSeries> series) throws IOException {
+    String template = new String(readAllBytes(get("chart_template.html")), "UTF-8");
+    ReportWriter out = new ReportWriter(file);
+    try {
+      int from = 0;
+      while (true) {
+        // what is written in place of a placeholder is not searched for more of them
+        int at = -1;
+        String placeholder = null;
+        for (String p : PLACEHOLDERS) {
+          int i = template.indexOf(p, from);
+          if (i != -1 && (at == -1 || i < at)) {
+            at = i;
+            placeholder = p;
+          }
+        }
+        if (at == -1) {
+          out.write(template.substring(from));
+          break;
+        }
+        out.write(template.substring(from, at));
+        switch (placeholder) {
+          case "SERIES_COLUMNS_REPLACE":
+          case "SERIES_REPLACE":
+            writeSeries(out, series, placeholder.equals("SERIES_COLUMNS_REPLACE"));
+            break;
+          case "DATA_REPLACE":
+            timeline.writeRows(out);
+            break;
+          case "ABOUT_REPLACE":
+            out.write(about);
+            break;
+          case "DESC_REPLACE":
+            out.write(description);
+            break;
+          default:
+            out.write(Integer.toString(height));
+        }
+        from = at + placeholder.length();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes the columns or the rows of the series.
+   */
+  private static void writeSeries(ReportWriter out, List<TimeSeries> series, boolean columns) {
+    List<TimeSeries> charted = new ArrayList<TimeSeries>();
+    int level = 0;
+    for (TimeSeries s : series) {
+      if (!s.isEmpty()) {
+        charted.add(s);
+        level = Math.max(level, s.getLevel());
+      }
+    }
+
+    if (columns) {
+      for (int i = 0; i < charted.size(); i++) {
+        TimeSeries s = charted.get(i);
+        String name = s.isGauge() ? s.getName() : s.getName() + " per " + TimeSeries.UNITS[level];
+        out.write((i > 0 ? "\n      " : "") + "series.addColumn('number', '" + name.replace("'", "\\'") + "');");
+      }
+      return;
+    }
+
+    // the values of all series by bucket, null where a series has none, there are
+    // only as many buckets as a resolution keeps
+    Map<Long,Double[]> rows = new TreeMap<Long,Double[]>();
+    for (int i = 0; i < charted.size(); i++) {
+      for (TimeSeries.Point point : charted.get(i).getPoints(level)) {
+        Double[] row = rows.get(point.time);
+        if (row == null) {
+          row = new Double[charted.size()];
+          rows.put(point.time, row);
+        }
+        row[i] = point.value;
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Entry<Long,Double[]> row : rows.entrySet()) {
+      if (sb.length() > 0) {
+        sb.setLength(0);
+        sb.append(", ");
+      }
+      sb.append("[new Date(").append(row.getKey()).append(")");
+      for (Double value : row.getValue()) {
+        sb.append(", ").append(value == null ? "null" : value.toString());
+      }
+      sb.append("]");
+      out.write(sb);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a file, or a region of one, into chunks that each start on the first line
+ * of a log entry, so no entry is ever split between two readers no matter how long
+ * it is.
+ */
+public class ChunkSplitter {
+  private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+  private static final int MAX_CHUNK_SIZE = 256 * 1024 * 1024;
+  private static final int CHUNKS_PER_THREAD = 8;
+  private static final int SCAN_SIZE = 64 * 1024;
+
+  private final FileChannel channel;
+  private final long start;
+  private final long end;
+  private final LogFormat format;
+
+  public ChunkSplitter(FileChannel channel, long length, LogFormat format) {
+    this(channel, 0, length, format);
+  }
+
+  /**
+   * Splits the region [start, end) of a file.
+   */
+  public ChunkSplitter(FileChannel channel, long start, long end, LogFormat format) {
+    this.channel = channel;
+    this.start = start;
+    this.end = end;
+    this.format = format;
+  }
+
+  /**
+   * @return a chunk size that gives each thread several chunks to balance the load,
+   *         without making chunks for small files too small to be worth it
+   */
+  public static long defaultChunkSize(long length, int threads) {
+    long size = length / ((long) threads * CHUNKS_PER_THREAD) + 1;
+    return Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size));
+  }
+
+  /**
+   * @return the chunk boundaries as file offsets - chunk i is [boundaries[i], boundaries[i + 1])
+   */
+  public long[] split(long chunkSize) throws IOException {
+    List<Long> boundaries = new ArrayList<Long>();
+    boundaries.add(start);
+    long last = start;
+    for (long target = start + chunkSize; target < end; target += chunkSize) {
+      if (target <= last) {
+        // the last chunk ran past this target looking for an entry
+        continue;
+      }
+      long boundary = nextEntryStart(target);
+      if (boundary >= end) {
+        break;
+      }
+      boundaries.add(boundary);
+      last = boundary;
+    }
+    boundaries.add(end);
+
+    long[] result = new long[boundaries.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = boundaries.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * @return the offset of the first entry that starts at or after from, or the
+   *         end of the region if there is none
+   */
+  long nextEntryStart(long from) throws IOException {
+    // start a byte early so a line that starts right at from is seen whole
+    long scanStart = from - 1;
+    LogFormat.Match match = new LogFormat.Match();
+    long scanSize = SCAN_SIZE;
+    while (true) {
+      long size = Math.min(scanSize, end - scanStart);
+      boolean endOfData = scanStart + size == end;
+      MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, scanStart, size);
+      try {
+        LineReader reader = new LineReader(map, endOfData);
+        // the first line is the tail of the line from is in
+        if (reader.next()) {
+          while (reader.next()) {
+            if (format.match(reader, match)) {
+              return scanStart + reader.lineStart();
+            }
+          }
+        }
+      } finally {
+        Unmapper.unmap(map);
+      }
+      if (endOfData) {
+        return end;
+      }
+      // no entry started in this window, so go again with a bigger one - remapping
+      // is cheap and a single huge entry is rare
+      scanSize = Math.min(scanSize * 4, Integer.MAX_VALUE);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the times of an event that every instance logs at about the same
+ * time, such as a change of the live nodes seen in ZooKeeper, to estimate how far
+ * the clocks of the instances are apart.
+ *
+ * An event is told apart by what the regex matched, or by its first group if it
+ * has one. Each time an instance logged an event is taken to be the same moment as
+ * the nearest time the first instance logged the same event, if they are no more
+ * than {@link #MAX_SKEW} apart. The logs of the instances don't have to start or
+ * end at the same time, an event one of them did not log is left out.
+ */
+public class ClockSkewAspect extends Aspect {
+  // events are meant to be rare, this only keeps a wrong regex from taking all memory
+  static final int MAX_OCCURRENCES = 10000;
+  // times of the same event further apart than this are not taken as the same moment
+  static final long MAX_SKEW = 5 * 60 * 1000L;
+
+  private final Pattern event;
+  // the times each event was logged, in file order
+  private final Map<String,List<Long>> events = new HashMap<String,List<Long>>();
+  private long count;
+
+  public ClockSkewAspect(Pattern event) {
+    this.event = event;
+  }
+
+  @Override
+  public boolean process(LogRecord record) {
+    long time = record.getTime();
+    if (time == TimestampParser.NO_TIMESTAMP) {
+      return false;
+    }
+    Matcher m = event.matcher(record.getHeadLine());
+    if (m.find()) {
+      String key = m.groupCount() > 0 && m.group(1) != null ? m.group(1) : m.group();
+      add(key, Collections.singletonList(time));
+    }
+    return false;
+  }
+
+  private void add(String key, List<Long> times) {
+    List<Long> occurrences = events.get(key);
+    if (occurrences == null) {
+      occurrences = new ArrayList<Long>();
+      events.put(key, occurrences);
+    }
+    for (Long time : times) {
+      if (occurrences.size() == MAX_OCCURRENCES) {
+        return;
+      }
+      occurrences.add(time);
+      count++;
+    }
+  }
+
+  /**
+   * @return the number of events found
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Estimates how far ahead the clock of each instance is of the clock of the
+   * first instance that logged any events, as the median difference between the
+   * times both logged the same event. Each time is paired with the nearest time of
+   * the first instance. Instances with no events in common with the first one are
+   * left out.
+   *
+   * @return the skew of each instance in ms, 0 for the first
+   */
+  public static Map<String,Long> estimateSkews(Map<String,ClockSkewAspect> instances) {
+    Map<String,Long> skews = new TreeMap<String,Long>();
+    ClockSkewAspect reference = null;
+    for (Entry<String,ClockSkewAspect> instance : new TreeMap<String,ClockSkewAspect>(instances).entrySet()) {
+      ClockSkewAspect aspect = instance.getValue();
+      if (reference == null) {
+        if (aspect.count > 0) {
+          reference = aspect;
+          skews.put(instance.getKey(), 0L);
+        }
+        continue;
+      }
+      List<Long> differences = new ArrayList<Long>();
+      for (Entry<String,List<Long>> event : aspect.events.entrySet()) {
+        List<Long> referenceTimes = reference.events.get(event.getKey());
+        if (referenceTimes == null) {
+          continue;
+        }
+        long[] sorted = new long[referenceTimes.size()];
+        for (int i = 0; i < sorted.length; i++) {
+          sorted[i] = referenceTimes.get(i);
+        }
+        Arrays.sort(sorted);
+        for (Long time : event.getValue()) {
+          long nearest = nearest(sorted, time);
+          if (Math.abs(time - nearest) <= MAX_SKEW) {
+            differences.add(time - nearest);
+          }
+        }
+      }
+      if (!differences.isEmpty()) {
+        Collections.sort(differences);
+        skews.put(instance.getKey(), differences.get((differences.size() - 1) / 2));
+      }
+    }
+    return skews;
+  }
+
+  /**
+   * @param sorted at least one time, in order
+   */
+  private static long nearest(long[] sorted, long time) {
+    int i = Arrays.binarySearch(sorted, time);
+    if (i >= 0) {
+      return sorted[i];
+    }
+    int after = -i - 1;
+    if (after == 0) {
+      return sorted[0];
+    }
+    if (after == sorted.length) {
+      return sorted[sorted.length - 1];
+    }
+    return time - sorted[after - 1] <= sorted[after] - time ? sorted[after - 1] : sorted[after];
+  }
+
+  @Override
+  public void printReport(PrintStream out) {
+    out.println("Clock Skew Events");
+    out.println("-----------------");
+    out.println("Events Found: " + count);
+    out.println("Distinct Events: " + events.size());
+  }
+
+  @Override
+  public String getSummaryLine() {
+    return "Clock Skew Events: " + count + "\n";
+  }
+
+  @Override
+  public Aspect newPartial() {
+    return new ClockSkewAspect(event);
+  }
+
+  @Override
+  public void merge(Aspect partial) {
+    ClockSkewAspect other = (ClockSkewAspect) partial;
+    for (Entry<String,List<Long>> e : other.events.entrySet()) {
+      add(e.getKey(), e.getValue());
+    }
+  }
+
+  @Override
+  public void writeState(DataOutput out) throws IOException {
+    out.writeInt(events.size());
+    for (Entry<String,List<Long>> e : events.entrySet()) {
+      writeString(out, e.getKey());
+      out.writeInt(e.getValue().size());
+      for (Long time : e.getValue()) {
+        out.writeLong(time);
+      }
+    }
+  }
+
+  @Override
+  public void readState(DataInput in) throws IOException {
+    int keys = in.readInt();
+    for (int i = 0; i < keys; i++) {
+      String key = readString(in);
+      int size = in.readInt();
+      List<Long> times = new ArrayList<Long>(size);
+      for (int j = 0; j < size; j++) {
+        times.add(in.readLong());
+      }
+      add(key, times);
+    }
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the entries of all instances as one timeline, in the order they were
+ * logged across the cluster.
+ *
+ * The logs of an instance are read in order by a thread of its own, oldest log
+ * first, and its entries are handed over through a small queue. Each instance's
+ * entries are taken to be in time order already, so the timeline is a merge of the
+ * heads of the queues, and no more than a few entries of each instance are held at
+ * once.
+ *
+ * The clock of an instance can be ahead of the others by a skew, which is taken off
+ * its times before they are compared. Entries without a time keep their place
+ * after the entry before them.
+ */
+public class ClusterTimeline {
+  private static final int QUEUE_SIZE = 1024;
+  private static final long OFFER_MILLIS = 100;
+
+  private static class TimelineEntry {
+    final long time;
+    final String timestamp;
+    final String headLine;
+    final String body;
+
+    TimelineEntry(long time, String timestamp, String headLine, String body) {
+      this.time = time;
+      this.timestamp = timestamp;
+      this.headLine = headLine;
+      this.body = body;
+    }
+  }
+
+  // ends the entries of an instance
+  private static final TimelineEntry END = new TimelineEntry(0, null, null, null);
+
+  // the earliest entry first, the first instance first for entries at the same time
+  private static final Comparator<Feed> BY_HEAD = new Comparator<Feed>() {
+    @Override
+    public int compare(Feed f1, Feed f2) {
+      int c = Long.compare(f1.head.time, f2.head.time);
+      return c != 0 ? c : Integer.compare(f1.index, f2.index);
+    }
+  };
+
+  /**
+   * Thrown into a reader to stop it once the timeline is no longer being written.
+   */
+  private static class StoppedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    StoppedException() {
+      super("timeline stopped");
+    }
+  }
+
+  private final LogFormat[] formats;
+  private final int mapWindow;
+  private final PrintStream out;
+  private final Map<String,Long> skews = new HashMap<String,Long>();
+  private SolrLogReader.Range range;
+
+  public ClusterTimeline(LogFormat[] formats, int mapWindow, PrintStream out) {
+    this.formats = formats;
+    this.mapWindow = mapWindow;
+    this.out = out;
+  }
+
+  /**
+   * @param skew how many ms the clock of the instance is ahead, negative if it is behind
+   */
+  public void setSkew(String instance, long skew) {
+    skews.put(instance, skew);
+  }
+
+  /**
+   * Only writes the entries in the range, after the skew is taken off their times.
+   */
+  public void setRange(SolrLogReader.Range range) {
+    this.range = range;
+  }
+
+  /**
+   * @param instances the logs of each instance, in the order they are read
+   * @return the number of entries written
+   */
+  public long write(Map<String,List<LogSource>> instances, Appendable timeline) throws IOException {
+    List<Feed> feeds = new ArrayList<Feed>();
+    for (Entry<String,List<LogSource>> instance : new TreeMap<String,List<LogSource>>(instances).entrySet()) {
+      Long skew = skews.get(instance.getKey());
+      feeds.add(new Feed(feeds.size(), instance.getKey(), instance.getValue(), skew == null ? 0 : skew));
+    }
+    List<Thread> threads = new ArrayList<Thread>();
+    for (Feed feed : feeds) {
+      Thread thread = new Thread(feed, "timeline-" + feed.instance);
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+
+    SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    long written = 0;
+    try {
+      PriorityQueue<Feed> heads = new PriorityQueue<Feed>(Math.max(1, feeds.size()), BY_HEAD);
+      for (Feed feed : feeds) {
+        if (feed.next()) {
+          heads.add(feed);
+        }
+      }
+      while (!heads.isEmpty()) {
+        Feed feed = heads.poll();
+        TimelineEntry e = feed.head;
+        timeline.append(e.time == TimestampParser.NO_TIMESTAMP ? "-" : df.format(e.time));
+        timeline.append(' ').append(feed.instance).append(' ');
+        timeline.append(e.timestamp).append(e.headLine).append('\n').append(e.body);
+        written++;
+        if (feed.next()) {
+          heads.add(feed);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      for (Feed feed : feeds) {
+        feed.stop();
+      }
+      for (Thread thread : threads) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Reads the logs of an instance and queues their entries for the timeline.
+   */
+  private class Feed extends Aspect implements Runnable {
+    final int index;
+    final String instance;
+    private final List<LogSource> sources;
+    private final long skew;
+    private final SolrLogReader.Range rawRange;
+    private final BlockingQueue<TimelineEntry> queue = new ArrayBlockingQueue<TimelineEntry>(QUEUE_SIZE);
+    private volatile boolean stopped;
+    // the time of the last entry, for the entries without one
+    private long lastTime = TimestampParser.NO_TIMESTAMP;
+
+    // the next entry of the timeline, set by next()
+    TimelineEntry head;
+
+    Feed(int index, String instance, List<LogSource> sources, long skew) {
+      this.index = index;
+      this.instance = instance;
+      this.sources = sources;
+      this.skew = skew;
+      if (range != null) {
+        // the readers only skip entries by the time in the log
+        rawRange = new SolrLogReader.Range();
+        rawRange.start = range.start + skew;
+        rawRange.end = range.end + skew;
+      } else {
+        rawRange = null;
+      }
+    }
+
+    /**
+     * @return false once all entries have been taken
+     */
+    boolean next() throws InterruptedException {
+      head = queue.take();
+      return head != END;
+    }
+
+    void stop() {
+      stopped = true;
+      queue.clear();
+    }
+
+    @Override
+    public void run() {
+      List<Aspect> aspects = Collections.<Aspect> singletonList(this);
+      try {
+        for (LogSource source : sources) {
+          if (source instanceof LogSource.Stream) {
+            new StreamReader((LogSource.Stream) source, aspects, formats, rawRange, mapWindow, out).run();
+          } else {
+            read((LogSource.Region) source, aspects);
+          }
+        }
+      } catch (StoppedException e) {
+        // the timeline is not being written anymore
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      } finally {
+        try {
+          queue(END);
+        } catch (StoppedException e) {
+          // no one is waiting for the end
+        }
+      }
+    }
+
+    private void read(LogSource.Region source, List<Aspect> aspects) {
+      long offset = source.getOffset();
+      long length = source.getLength();
+      LogFormat format = null;
+      try {
+        RandomAccessFile raf = new RandomAccessFile(source.getFile(), "r");
+        try {
+          int sniffLength = LogFormat.sniffLength(length);
+          MappedByteBuffer head = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, sniffLength);
+          try {
+            format = LogFormat.sniff(head, sniffLength == length, formats);
+          } finally {
+            Unmapper.unmap(head);
+          }
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+        return;
+      }
+      if (format == null) {
+        // no log entries found, could not match on timestamp
+        out.println("No configured timestamp pattern matched file: " + source.getName());
+        return;
+      }
+      new ReaderThread(source.getFile(), source.getName(), offset, offset + length, aspects, format, rawRange,
+          mapWindow).run();
+    }
+
+    @Override
+    public boolean process(LogRecord record) {
+      long time = record.getTime();
+      if (time != TimestampParser.NO_TIMESTAMP) {
+        lastTime = time - skew;
+      }
+      if (range != null && (lastTime == TimestampParser.NO_TIMESTAMP || lastTime < range.start || lastTime > range.end)) {
+        return false;
+      }
+      queue(new TimelineEntry(lastTime, record.getTimestamp(), record.getHeadLine().toString(),
+          record.getBody().toString()));
+      return false;
+    }
+
+    private void queue(TimelineEntry e) {
+      try {
+        while (!queue.offer(e, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (stopped) {
+            throw new StoppedException();
+          }
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new StoppedException();
+      }
+      if (stopped) {
+        throw new StoppedException();
+      }
+    }
+
+    @Override
+    public void printReport(PrintStream out) {}
+  }
+}
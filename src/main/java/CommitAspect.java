@@ -16,64 +16,165 @@
  * limitations under the License.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Date;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-// TODO: commit times, params, etc
+/**
+ * Counts commits by their params, and times them by pairing each start commit
+ * with its end_commit_flush.
+ *
+ * A start and its end are logged by the same thread for the same core, and a
+ * start is paired with the latest start of its thread and core that has not
+ * ended yet. Logs without threads or cores pair the starts and ends of all of
+ * them that way. Pairing the latest start gives the same pairs however the
+ * entries are split up: a partial keeps the starts that have not ended and the
+ * ends it could not pair, and pairs them when it is merged.
+ */
 public class CommitAspect extends Aspect {
   public static Pattern OPTIMIZE = Pattern.compile("optimize=(true|false)");
   public static Pattern SOFTCOMMIT = Pattern.compile("softCommit=(true|false)");
   public static Pattern OPENSEARCHER = Pattern.compile("openSearcher=(true|false)");
+  // the thread and the MDC before the logger, such as (qtp-64) [c:c1 s:shard1 x:c1_shard1_replica_n1]
+  public static Pattern THREAD_AND_CORE = Pattern.compile("(\\([^)]*\\)\\s+)?(\\[[^\\]]*\\])\\s+\\S+\\s+(?:start commit\\{|end_commit_flush)");
+  // more starts of a thread and core that have not ended are dropped
+  private static final int MAX_PENDING = 16;
+  private static final String[] KINDS = {"hard", "hard, openSearcher", "soft", "optimize"};
+  
   private AtomicLong commits = new AtomicLong(0);
   private AtomicLong optimize = new AtomicLong(0);
   private AtomicLong softCommit = new AtomicLong(0);
   private AtomicLong openSearcher = new AtomicLong(0);
+  private TimeSeries hardCommits = new TimeSeries("Hard commits", false);
+  private TimeSeries softCommits = new TimeSeries("Soft commits", false);
+  private TimeSeries commitTimes = new TimeSeries("Mean commit time (ms)", true);
+  // kind -> commit times
+  private Map<String,LatencyHistogram> commitLatencies = new TreeMap<String,LatencyHistogram>();
+  // thread and core -> starts that have not ended, the latest last
+  private Map<String,Deque<Start>> started = new HashMap<String,Deque<Start>>();
+  // thread and core -> ends without a start in this, that may have started before
+  private Map<String,List<Long>> unstartedEnds = new HashMap<String,List<Long>>();
+  private long unpaired;
   
-  // TODO: commits per second - hard / soft / w open search
+  static class Start {
+    final long time;
+    final String kind;
+    
+    Start(long time, String kind) {
+      this.time = time;
+      this.kind = kind;
+    }
+  }
   
   @Override
-  public boolean process(String filename, String timestamp, Date dateTs, String headLine, String entry) {
-    // System.out.println("ts:" + timestamp + " headline:" + headLine + " entry:" + entry);
-    
-    // TODO: track end_commit_flush and line up commit times
-    
+  public String[] getTriggers() {
+    return new String[] {"start commit{", "end_commit_flush"};
+  }
+  
+  @Override
+  public boolean process(LogRecord record) {
+    String headLine = record.getHeadLine().toString();
     if (headLine.contains("start commit{")) {
       commits.incrementAndGet();
       
       Matcher m = OPTIMIZE.matcher(headLine);
-      if (m.find()) {
-        boolean val = Boolean.parseBoolean(m.group(1));
-        if (val) {
-          optimize.incrementAndGet();
-        }
+      boolean optimized = m.find() && Boolean.parseBoolean(m.group(1));
+      if (optimized) {
+        optimize.incrementAndGet();
       }
       
       m = SOFTCOMMIT.matcher(headLine);
-      if (m.find()) {
-        boolean val = Boolean.parseBoolean(m.group(1));
-        if (val) {
-          softCommit.incrementAndGet();
-        }
+      boolean soft = m.find() && Boolean.parseBoolean(m.group(1));
+      if (soft) {
+        softCommit.incrementAndGet();
+        softCommits.add(record.getTime());
+      } else {
+        hardCommits.add(record.getTime());
       }
       
       m = OPENSEARCHER.matcher(headLine);
-      if (m.find()) {
-        boolean val = Boolean.parseBoolean(m.group(1));
-        if (val) {
-          openSearcher.incrementAndGet();
-        }
+      boolean opens = m.find() && Boolean.parseBoolean(m.group(1));
+      if (opens) {
+        openSearcher.incrementAndGet();
       }
       
-    } else if (headLine.contains("end_commit")) {
-
+      long time = record.getTime();
+      if (time != TimestampParser.NO_TIMESTAMP) {
+        String kind = optimized ? KINDS[3] : soft ? KINDS[2] : opens ? KINDS[1] : KINDS[0];
+        started(key(headLine), new Start(time, kind));
+      }
+    } else if (headLine.contains("end_commit_flush")) {
+      long time = record.getTime();
+      if (time != TimestampParser.NO_TIMESTAMP) {
+        ended(key(headLine), time);
+      }
     }
     
     return false;
   }
   
+  private static String key(String headLine) {
+    Matcher m = THREAD_AND_CORE.matcher(headLine);
+    if (!m.find()) {
+      return "";
+    }
+    return m.group(1) == null ? m.group(2) : m.group(1) + m.group(2);
+  }
+  
+  private void started(String key, Start start) {
+    Deque<Start> starts = started.get(key);
+    if (starts == null) {
+      starts = new ArrayDeque<Start>();
+      started.put(key, starts);
+    }
+    starts.addLast(start);
+    if (starts.size() > MAX_PENDING) {
+      starts.removeFirst();
+      unpaired++;
+    }
+  }
+  
+  private void ended(String key, long time) {
+    Deque<Start> starts = started.get(key);
+    if (starts != null && !starts.isEmpty()) {
+      Start start = starts.removeLast();
+      long commitTime = Math.max(0, time - start.time);
+      LatencyHistogram latencies = commitLatencies.get(start.kind);
+      if (latencies == null) {
+        latencies = new LatencyHistogram();
+        commitLatencies.put(start.kind, latencies);
+      }
+      latencies.record(commitTime);
+      commitTimes.add(time, commitTime);
+      return;
+    }
+    List<Long> ends = unstartedEnds.get(key);
+    if (ends == null) {
+      ends = new ArrayList<Long>();
+      unstartedEnds.put(key, ends);
+    }
+    // more could not have started before
+    if (ends.size() < MAX_PENDING) {
+      ends.add(time);
+    } else {
+      unpaired++;
+    }
+  }
+  
   @Override
   public void printReport(PrintStream out) {
     out.println("Commit Report");
@@ -84,6 +185,138 @@ public class CommitAspect extends Aspect {
     out.println("Soft Commits: " + softCommit.get());
     out.println("With openSearcher: " + openSearcher.get());
     out.println("Without openSearcher: " + (commits.get() - openSearcher.get()));
+    hardCommits.printPeaks(out, 3);
+    softCommits.printPeaks(out, 3);
+    if (!commitLatencies.isEmpty()) {
+      out.println("Commit Times (ms):");
+      for (Entry<String,LatencyHistogram> kind : commitLatencies.entrySet()) {
+        out.println("  " + kind.getKey() + " " + kind.getValue().toSummary());
+      }
+      commitTimes.printPeaks(out, 3);
+    }
+    long notEnded = unpaired;
+    for (Deque<Start> starts : started.values()) {
+      notEnded += starts.size();
+    }
+    for (List<Long> ends : unstartedEnds.values()) {
+      notEnded += ends.size();
+    }
+    if (notEnded > 0 && !commitLatencies.isEmpty()) {
+      out.println("Found " + notEnded + " commit starts and ends that could not be paired");
+    }
+  }
+  
+  @Override
+  public List<TimeSeries> getTimeSeries() {
+    return Arrays.asList(hardCommits, softCommits, commitTimes);
+  }
+  
+  @Override
+  public Aspect newPartial() {
+    return new CommitAspect();
+  }
+  
+  @Override
+  public void merge(Aspect partial) {
+    CommitAspect other = (CommitAspect) partial;
+    commits.addAndGet(other.commits.get());
+    optimize.addAndGet(other.optimize.get());
+    softCommit.addAndGet(other.softCommit.get());
+    openSearcher.addAndGet(other.openSearcher.get());
+    hardCommits.merge(other.hardCommits);
+    softCommits.merge(other.softCommits);
+    commitTimes.merge(other.commitTimes);
+    for (Entry<String,LatencyHistogram> kind : other.commitLatencies.entrySet()) {
+      LatencyHistogram latencies = commitLatencies.get(kind.getKey());
+      if (latencies == null) {
+        commitLatencies.put(kind.getKey(), kind.getValue());
+      } else {
+        latencies.merge(kind.getValue());
+      }
+    }
+    unpaired += other.unpaired;
+    
+    // the other partial's entries came after these
+    for (Entry<String,List<Long>> ends : other.unstartedEnds.entrySet()) {
+      for (long time : ends.getValue()) {
+        ended(ends.getKey(), time);
+      }
+    }
+    for (Entry<String,Deque<Start>> starts : other.started.entrySet()) {
+      for (Start start : starts.getValue()) {
+        started(starts.getKey(), start);
+      }
+    }
+  }
+  
+  @Override
+  public void writeState(DataOutput out) throws IOException {
+    out.writeLong(commits.get());
+    out.writeLong(optimize.get());
+    out.writeLong(softCommit.get());
+    out.writeLong(openSearcher.get());
+    hardCommits.write(out);
+    softCommits.write(out);
+    commitTimes.write(out);
+    out.writeInt(commitLatencies.size());
+    for (Entry<String,LatencyHistogram> kind : commitLatencies.entrySet()) {
+      writeString(out, kind.getKey());
+      kind.getValue().write(out);
+    }
+    out.writeLong(unpaired);
+    out.writeInt(started.size());
+    for (Entry<String,Deque<Start>> starts : started.entrySet()) {
+      writeString(out, starts.getKey());
+      out.writeInt(starts.getValue().size());
+      for (Start start : starts.getValue()) {
+        out.writeLong(start.time);
+        writeString(out, start.kind);
+      }
+    }
+    out.writeInt(unstartedEnds.size());
+    for (Entry<String,List<Long>> ends : unstartedEnds.entrySet()) {
+      writeString(out, ends.getKey());
+      out.writeInt(ends.getValue().size());
+      for (long time : ends.getValue()) {
+        out.writeLong(time);
+      }
+    }
+  }
+  
+  @Override
+  public void readState(DataInput in) throws IOException {
+    commits.set(in.readLong());
+    optimize.set(in.readLong());
+    softCommit.set(in.readLong());
+    openSearcher.set(in.readLong());
+    hardCommits.read(in);
+    softCommits.read(in);
+    commitTimes.read(in);
+    int kinds = in.readInt();
+    for (int i = 0; i < kinds; i++) {
+      LatencyHistogram latencies = new LatencyHistogram();
+      commitLatencies.put(readString(in), latencies);
+      latencies.read(in);
+    }
+    unpaired = in.readLong();
+    int keys = in.readInt();
+    for (int i = 0; i < keys; i++) {
+      String key = readString(in);
+      int size = in.readInt();
+      for (int j = 0; j < size; j++) {
+        started(key, new Start(in.readLong(), readString(in)));
+      }
+    }
+    keys = in.readInt();
+    for (int i = 0; i < keys; i++) {
+      String key = readString(in);
+      int size = in.readInt();
+      List<Long> ends = new ArrayList<Long>(size);
+      for (int j = 0; j < size; j++) {
+        ends.add(in.readLong());
+      }
+      unstartedEnds.put(key, ends);
+    }
   }
   
   /**
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Decompresses a log on a thread of its own, a block at a time, so inflating the
+ * next blocks overlaps with parsing the last one. Only a few blocks are ever
+ * buffered; the decompressing thread waits when the reader falls behind.
+ */
+public class DecompressionPipeline implements Closeable {
+  static final int BLOCK_SIZE = 1024 * 1024;
+  private static final int DEPTH = 4;
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+  private final BlockingQueue<ByteBuffer> blocks = new ArrayBlockingQueue<ByteBuffer>(DEPTH);
+  private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(DEPTH + 2);
+  private final Thread producer;
+  private volatile IOException failure;
+  private volatile boolean closed;
+  private boolean done;
+
+  public DecompressionPipeline(final LogSource.Stream source) {
+    producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        produce(source);
+      }
+    }, "decompress " + source.getName());
+    producer.setDaemon(true);
+    producer.start();
+  }
+
+  private void produce(LogSource.Stream source) {
+    try {
+      InputStream in = source.open();
+      try {
+        while (!closed) {
+          byte[] block = free.poll();
+          if (block == null) {
+            block = new byte[BLOCK_SIZE];
+          }
+          int read = 0;
+          int n;
+          while (read < block.length && (n = in.read(block, read, block.length - read)) != -1) {
+            read += n;
+          }
+          if (read > 0) {
+            blocks.put(ByteBuffer.wrap(block, 0, read));
+          }
+          if (read < block.length) {
+            break;
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      // closed by the reader
+      return;
+    }
+    try {
+      blocks.put(END);
+    } catch (InterruptedException e) {
+      // closed by the reader
+    }
+  }
+
+  /**
+   * @return the next block of decompressed bytes or null at the end of the log
+   */
+  public ByteBuffer take() throws IOException {
+    if (done) {
+      return null;
+    }
+    BlockTaker taker = new BlockTaker();
+    try {
+      // lets the pool start another worker while this one waits
+      ForkJoinPool.managedBlock(taker);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted reading " + producer.getName());
+    }
+    if (taker.block == END) {
+      done = true;
+      if (failure != null) {
+        throw failure;
+      }
+      return null;
+    }
+    return taker.block;
+  }
+
+  /**
+   * Hands a block back once it has been read, to be filled again.
+   */
+  public void recycle(ByteBuffer block) {
+    free.offer(block.array());
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    producer.interrupt();
+  }
+
+  private class BlockTaker implements ForkJoinPool.ManagedBlocker {
+    ByteBuffer block;
+
+    @Override
+    public boolean block() throws InterruptedException {
+      if (block == null) {
+        block = blocks.take();
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return block != null || (block = blocks.poll()) != null;
+    }
+  }
+}
@@ -16,26 +16,20 @@
  * limitations under the License.
  */
 
-import static java.nio.file.Files.readAllBytes;
-import static java.nio.file.Paths.get;
-
-import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -43,13 +37,19 @@ import java.util.regex.Pattern;
 
 public class ErrorAspect extends Aspect {
   private static final String CHARTS_FILE_NAME = "error-chart.html";
+  // the groups with the most errors that are charted
+  private static final int CHARTED_GROUPS = 100;
   
   public static Pattern EXCEPTION_CLASS = Pattern.compile("\\s((?:[a-zA-Z_$][a-zA-Z\\d_$]*\\.)+[a-zA-Z_$][a-zA-Z\\d_$]*)");
   
   private final AtomicInteger ooms = new AtomicInteger();
-  private final Set<LogEntry> errors = Collections.synchronizedSet(new HashSet<LogEntry>());
+  // errors by signature, see ErrorGroup
+  private final Map<String,ErrorGroup> errors = new HashMap<String,ErrorGroup>();
+  private long errorCount;
   
   private final Map<String,Integer> uniqueExceptions = new HashMap<String,Integer>();
+  
+  private final TimeSeries errorSeries = new TimeSeries("Errors", false);
 
 
   private String outputDir;
@@ -61,26 +61,26 @@ public class ErrorAspect extends Aspect {
   }
   
   @Override
-  public boolean process(String filename, String timestamp, Date dateTs, String headLine, String entry) {
-    // System.out.println("headline:" + headLine);
-    // System.out.println("entry:" + entry);
+  public String[] getTriggers() {
+    return new String[] {"Exception", " ERROR "};
+  }
+  
+  @Override
+  public boolean process(LogRecord record) {
+    String headLine = record.getHeadLine().toString();
     if (headLine.contains("Exception") || headLine.contains(" ERROR ")) {
-      if (dateTs == null) {
+      long time = record.getTime();
+      CharSequence entry = record.getBody();
+      if (time == TimestampParser.NO_TIMESTAMP) {
         sawUnknownTimestamp = true;
       }
       
       if (headLine.contains("OutOfMemoryError")) {
         ooms.incrementAndGet();
       }
-      // System.out.println("Exception:" + headLine);
-      // System.out.println("Entry:" + entry);
-      LogEntry e;
-      
-      e = new LogEntry(timestamp + " : " + filename, headLine + "\n" + entry);
-      e.timestamp = dateTs;
-      e.rawTimestamp = timestamp;
-
-      errors.add(e);
+      group(ErrorGroup.signature(headLine, entry)).add(record, headLine);
+      errorCount++;
+      errorSeries.add(time);
       
       // unique errors
       if (outputDir != null) {
@@ -100,119 +100,211 @@ public class ErrorAspect extends Aspect {
     return false;
   }
 
+  private ErrorGroup group(String signature) {
+    ErrorGroup group = errors.get(signature);
+    if (group == null) {
+      group = new ErrorGroup(signature);
+      errors.put(signature, group);
+    }
+    return group;
+  }
+
+  /**
+   * @return the error groups, the most errors first
+   */
+  private List<ErrorGroup> sortedGroups() {
+    List<ErrorGroup> groups = new ArrayList<ErrorGroup>(errors.values());
+    Collections.sort(groups, ErrorGroup.BY_COUNT);
+    return groups;
+  }
+
   private void collect(Matcher m) {
     String match = m.group(1);
     if (match.contains("Exception")) {
-      synchronized (uniqueExceptions) {
-        Integer count = uniqueExceptions.get(match);
-        if (count == null) {
-          uniqueExceptions.put(match, 1);
-        } else {
-          uniqueExceptions.put(match, ++count);
-        }
-      }
+      addUniqueException(match, 1);
     }
   }
+
+  private void addUniqueException(String exception, int n) {
+    Integer count = uniqueExceptions.get(exception);
+    uniqueExceptions.put(exception, count == null ? n : count + n);
+  }
   
   @Override
   public void printReport(PrintStream out) {
     out.println("Errors Report");
     out.println("-----------------");
     
-    out.println("Errors found:" + errors.size() + " OOMS:" + ooms.get());
+    out.println("Errors found:" + errorCount + " Distinct:" + errors.size() + " OOMS:" + ooms.get());
+    errorSeries.printPeaks(out, 3);
     out.println();
 
-    List<LogEntry> errorList = new ArrayList<LogEntry>(errors.size());
-    synchronized (errors) {
-      errorList.addAll(errors);
-    }
-    Collections.sort(errorList);
-    
-    for (LogEntry error : errorList) {
-      out.println("(" + error.headLine + ") ");
-      out.println(error.entry);
+    List<ErrorGroup> groups = sortedGroups();
+    for (ErrorGroup group : groups) {
+      out.println(group.getCount() + " x " + group.getSignature());
+      if (group.getFirst() != null) {
+        out.println("First: " + group.getFirst().rawTimestamp + " Last: " + group.getLast().rawTimestamp);
+      }
+      for (LogEntry error : group.getExemplars()) {
+        out.println("(" + error.headLine + ") ");
+        out.println(error.entry);
+      }
       out.println();
     }
     
     if (outputDir != null) {
-      try {
-        writeHtmlErrorChart(errorList);
-      } catch (OutOfMemoryError e) {
-        System.err.println("Not enough RAM given to heap to write html error chart - must be a lot of errors.");
-      }
+      writeHtmlErrorChart(groups);
       writeUniqueExceptionReport();
     }
   }
 
   private void writeUniqueExceptionReport() {
-    
     try {
-      PrintWriter output = new PrintWriter(
-          new BufferedWriter(new FileWriter(outputDir + File.separator + "unique-error-report.txt"), 2 ^ 20));
-      synchronized (uniqueExceptions) {
-        Set<Entry<String,Integer>> entries = uniqueExceptions.entrySet();
-        for (Entry<String,Integer> error : entries) {
-          output.println(error.getKey() + " " + error.getValue());
-        }
+      ReportWriter output = new ReportWriter(outputDir + File.separator + "unique-error-report.txt");
+      StringBuilder sb = new StringBuilder();
+      for (Entry<String,Integer> error : uniqueExceptions.entrySet()) {
+        sb.append(error.getKey()).append(" ").append(error.getValue()).append("\n");
       }
+      output.write(sb);
       output.close();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
   
-  private void writeHtmlErrorChart(List<LogEntry> errorList) {
-    StringBuilder data = new StringBuilder()
-    
-    ;
-    for (LogEntry error : errorList) {
-
-
-      if (data.length() > 0) {
-        data.append(", ");
-      }
-
-      StringBuilder entry = new StringBuilder();
-      
-      entry.append("(" + error.headLine + ") ");
-      
-      entry.append(error.entry);
-
-      String tooltip = "\"<div style='font-size:14px;padding:5px 5px 5px 5px'><b>Date=</b>"
-          + error.rawTimestamp
-          + "<br/>" + Matcher.quoteReplacement(entry.toString()).replaceAll("\n", "<br/>")
-          + "</div>\"";
-      if (error.timestamp != null) {
-        data.append("[ 'Error', new Date(" + error.timestamp.getTime() + ")," + "new Date(" + error.timestamp.getTime() + ")," + tooltip + "]");
+  private void writeHtmlErrorChart(final List<ErrorGroup> groups) {
+    // each error as a point, or with many of them, each bucket of them as a bar, on
+    // a row for the group
+    Charts.Timeline timeline = new Charts.Timeline() {
+      @Override
+      public void writeRows(Appendable out) throws IOException {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringBuilder row = new StringBuilder();
+        boolean firstRow = true;
+        for (ErrorGroup group : groups.subList(0, Math.min(CHARTED_GROUPS, groups.size()))) {
+          String label = label(group);
+          boolean firstSpan = true;
+          for (ErrorGroup.Span span : group.getTimeline()) {
+            row.setLength(0);
+            if (!firstRow) {
+              row.append(", ");
+            }
+            StringBuilder entry = new StringBuilder();
+            entry.append(span.count + " x " + group.getSignature());
+            if (firstSpan) {
+              // the exemplar only once, it is the same for all of the group
+              LogEntry exemplar = group.getExemplars().get(0);
+              entry.append("\n(" + exemplar.headLine + ") ");
+              entry.append(exemplar.entry);
+            }
+            String date = df.format(new Date(span.start))
+                + (span.end == span.start ? "" : " - " + df.format(new Date(span.end)));
+            row.append("[ '" + label + "', new Date(" + span.start + ")," + "new Date(" + span.end + "),");
+            row.append("\"<div style='font-size:14px;padding:5px 5px 5px 5px'><b>Date=</b>" + date + "<br/>");
+            row.append(escape(entry.toString()).replace("\n", "<br/>"));
+            row.append("</div>\"]");
+            out.append(row);
+            firstRow = false;
+            firstSpan = false;
+          }
+        }
       }
-    }
-    String html;
+    };
     try {
-      html = new String(readAllBytes(get("chart_template.html")));
-      
-      html = html.replaceAll("DATA_REPLACE", data.toString());
-      html = html.replaceAll("ABOUT_REPLACE", "Error Count:" + errorList.size());
-      html = html.replaceAll("DESC_REPLACE", "Charts");
-      html = html.replaceAll("HEIGHT_REPLACE", "150");
-      Files.write(Paths.get(outputDir + "/" +
-      
-      CHARTS_FILE_NAME), html.getBytes("UTF-8"));
+      Charts.write(outputDir + File.separator + CHARTS_FILE_NAME, "Charts", "Error Count:" + errorCount, 150,
+          timeline, getTimeSeries());
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
-  public String getSummaryLine() {
-    List<LogEntry> errorList = new ArrayList<LogEntry>(errors.size());
-    synchronized (errors) {
-      errorList.addAll(errors);
+  /**
+   * @return the simple name of the exception of a group, or the start of its message
+   */
+  private static String label(ErrorGroup group) {
+    Matcher m = ErrorGroup.EXCEPTION_CLASS.matcher(group.getSignature());
+    if (m.lookingAt()) {
+      String exception = m.group(1);
+      return exception.substring(exception.lastIndexOf('.') + 1);
+    }
+    String label = group.getSignature().length() > 40 ? group.getSignature().substring(0, 40) : group.getSignature();
+    return escape(label).replace("'", "\\'");
+  }
+
+  /**
+   * @return s as the content of a javascript string in an html page
+   */
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("</", "<\\/");
+  }
+
+  @Override
+  public List<TimeSeries> getTimeSeries() {
+    return Arrays.asList(errorSeries);
+  }
+
+  @Override
+  public Aspect newPartial() {
+    return new ErrorAspect(outputDir);
+  }
+  
+  @Override
+  public void merge(Aspect partial) {
+    ErrorAspect other = (ErrorAspect) partial;
+    ooms.addAndGet(other.ooms.get());
+    sawUnknownTimestamp |= other.sawUnknownTimestamp;
+    errorCount += other.errorCount;
+    for (ErrorGroup group : other.errors.values()) {
+      group(group.getSignature()).merge(group);
+    }
+    errorSeries.merge(other.errorSeries);
+    for (Entry<String,Integer> exception : other.uniqueExceptions.entrySet()) {
+      addUniqueException(exception.getKey(), exception.getValue());
     }
-    Collections.sort(errorList);
-    String first = "";
-    if (errorList.size() > 0 && errorList.get(0).rawTimestamp != null) {
-      first = " First Error: " + errorList.get(0).rawTimestamp;
+  }
+  
+  @Override
+  public void writeState(DataOutput out) throws IOException {
+    out.writeInt(ooms.get());
+    out.writeBoolean(sawUnknownTimestamp);
+    out.writeLong(errorCount);
+    out.writeInt(errors.size());
+    for (ErrorGroup group : errors.values()) {
+      group.write(out);
+    }
+    out.writeInt(uniqueExceptions.size());
+    for (Entry<String,Integer> exception : uniqueExceptions.entrySet()) {
+      writeString(out, exception.getKey());
+      out.writeInt(exception.getValue());
+    }
+    errorSeries.write(out);
+  }
+  
+  @Override
+  public void readState(DataInput in) throws IOException {
+    ooms.set(in.readInt());
+    sawUnknownTimestamp = in.readBoolean();
+    errorCount = in.readLong();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      ErrorGroup group = ErrorGroup.read(in);
+      errors.put(group.getSignature(), group);
+    }
+    size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      addUniqueException(readString(in), in.readInt());
     }
-    return "Errors: " + Integer.toString(errors.size()) + " OOMS: " + ooms.get() + first;
+    errorSeries.read(in);
+  }
+  
+  public String getSummaryLine() {
+    LogEntry first = null;
+    for (ErrorGroup group : errors.values()) {
+      if (group.getFirst() != null && (first == null || group.getFirst().timestamp < first.timestamp)) {
+        first = group.getFirst();
+      }
+    }
+    return "Errors: " + errorCount + " OOMS: " + ooms.get() + (first == null ? "" : " First Error: " + first.rawTimestamp);
   }
   
   /**
@@ -224,12 +316,19 @@ public class ErrorAspect extends Aspect {
   }
   
   /**
-   * @return the errors for tests
+   * @return the errors by signature
    */
-  public Set<LogEntry> getErrors() {
+  public Map<String,ErrorGroup> getErrors() {
     return errors;
   }
   
+  /**
+   * @return the number of errors, not just of distinct ones
+   */
+  public long getErrorCount() {
+    return errorCount;
+  }
+  
   /**
    * @return the outputDir for tests
    */
@@ -0,0 +1,432 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The errors with the same signature: the exception class and the top frames of
+ * the stack trace, or the message when there is no stack trace, with numbers and
+ * ids taken out. Only the count, when they were first and last seen and a few of
+ * the errors as exemplars are kept, however many errors there are. An error read
+ * from a log is only copied out of it if it is kept as an exemplar.
+ *
+ * For charting, the times of the errors are kept until there are too many of them,
+ * then the errors are counted by time bucket instead. The buckets start at a second
+ * and get twice as wide whenever there are too many of them.
+ */
+public class ErrorGroup {
+  static final int MAX_EXEMPLARS = 3;
+  static final int SIGNATURE_FRAMES = 3;
+  static final int MAX_TIMES = 100;
+  static final int MAX_BUCKETS = 100;
+  // longer messages are cut off, they rarely differ only past this
+  private static final int MAX_MESSAGE_LENGTH = 120;
+
+  public static Pattern EXCEPTION_CLASS = Pattern
+      .compile("((?:[a-zA-Z_$][a-zA-Z\\d_$]*\\.)+[a-zA-Z_$][a-zA-Z\\d_$]*(?:Exception|Error))(?::|\\s|$)");
+  // the thread and the MDC of a Solr 5+ log line, such as (qtp-64) [c:c1 s:shard1 ]
+  private static final Pattern THREAD_AND_MDC = Pattern.compile("\\(.*?\\)\\s+\\[.*?\\]\\s+");
+  private static final Pattern IDS = Pattern.compile("(@)[0-9a-fA-F]+|\\d+");
+
+  /**
+   * Orders groups by the most errors first.
+   */
+  public static final Comparator<ErrorGroup> BY_COUNT = new Comparator<ErrorGroup>() {
+    @Override
+    public int compare(ErrorGroup g1, ErrorGroup g2) {
+      int c = Long.compare(g2.count, g1.count);
+      return c != 0 ? c : g1.signature.compareTo(g2.signature);
+    }
+  };
+
+  private final String signature;
+  private long count;
+  // only when and where, see marker()
+  private LogEntry first;
+  private LogEntry last;
+  // the earliest errors, so they don't depend on the order errors are processed in
+  private final List<LogEntry> exemplars = new ArrayList<LogEntry>(MAX_EXEMPLARS);
+  // the sorted times of the errors, until there are more than MAX_TIMES
+  private long[] times = new long[4];
+  private int timeCount;
+  // then the errors by the start of their bucket
+  private TreeMap<Long,Long> buckets;
+  private long bucketWidth = 1000;
+
+  /**
+   * Errors from start to end, a single time unless the errors are bucketed.
+   */
+  public static class Span {
+    public final long start;
+    public final long end;
+    public final long count;
+
+    Span(long start, long end, long count) {
+      this.start = start;
+      this.end = end;
+      this.count = count;
+    }
+  }
+
+  public ErrorGroup(String signature) {
+    this.signature = signature;
+  }
+
+  /**
+   * @param headLine the first line of an error, without its timestamp
+   * @param body the rest of the error, its stack trace if it has one
+   */
+  public static String signature(String headLine, CharSequence body) {
+    StringBuilder sb = new StringBuilder();
+    String exception = null;
+    Matcher m = EXCEPTION_CLASS.matcher(headLine);
+    if (m.find()) {
+      exception = m.group(1);
+    } else {
+      m = EXCEPTION_CLASS.matcher(body);
+      if (m.find()) {
+        exception = m.group(1);
+      }
+    }
+    int frames = 0;
+    if (exception != null) {
+      sb.append(exception);
+      for (int start = 0; start < body.length() && frames < SIGNATURE_FRAMES;) {
+        int end = start;
+        while (end < body.length() && body.charAt(end) != '\n') {
+          end++;
+        }
+        String line = body.subSequence(start, end).toString().trim();
+        if (line.startsWith("at ")) {
+          // the line number changes with every release
+          int paren = line.indexOf('(');
+          sb.append(" < ").append(paren == -1 ? line.substring(3) : line.substring(3, paren));
+          frames++;
+        }
+        start = end + 1;
+      }
+    }
+    if (frames == 0) {
+      String message = THREAD_AND_MDC.matcher(headLine).replaceFirst("").trim();
+      message = IDS.matcher(message).replaceAll("$1#");
+      if (message.length() > MAX_MESSAGE_LENGTH) {
+        message = message.substring(0, MAX_MESSAGE_LENGTH);
+      }
+      if (sb.length() > 0) {
+        sb.append(": ");
+      }
+      sb.append(message);
+    }
+    return sb.toString();
+  }
+
+  public void add(LogEntry error) {
+    add(error.timestamp, error.rawTimestamp, error.headLine, error, null, null);
+  }
+
+  /**
+   * Adds an error as it is read from a log.
+   *
+   * @param headLine the first line of the error, without its timestamp
+   */
+  public void add(LogRecord record, String headLine) {
+    add(record.getTime(), record.getTimestamp(), null, null, record, headLine);
+  }
+
+  /**
+   * @param where where the error was logged, null to take it from the record
+   * @param error the error, null to build it from the record if it is kept
+   */
+  private void add(long time, String rawTimestamp, String where, LogEntry error, LogRecord record,
+      String headLine) {
+    count++;
+    if (time != TimestampParser.NO_TIMESTAMP) {
+      if (first == null || time < first.timestamp || time > last.timestamp) {
+        LogEntry marker = marker(time, rawTimestamp, where != null ? where : where(record));
+        if (first == null || time < first.timestamp) {
+          first = marker;
+        }
+        if (last == null || time > last.timestamp) {
+          last = marker;
+        }
+      }
+      addTime(time);
+    }
+    // most errors of a big group come after the exemplars and are only counted
+    if (exemplars.size() < MAX_EXEMPLARS || time <= exemplars.get(MAX_EXEMPLARS - 1).timestamp) {
+      addExemplar(error != null ? error : entry(record, headLine));
+    }
+  }
+
+  private static String where(LogRecord record) {
+    return record.getTimestamp() + " : " + record.getFilename();
+  }
+
+  private static LogEntry entry(LogRecord record, String headLine) {
+    LogEntry e = new LogEntry(where(record), headLine + "\n" + record.getBody());
+    e.timestamp = record.getTime();
+    e.rawTimestamp = record.getTimestamp();
+    return e;
+  }
+
+  /**
+   * @return an entry that only says when and where an error was logged, for the
+   *         first and last error, which are only reported by time
+   */
+  private static LogEntry marker(long time, String rawTimestamp, String where) {
+    LogEntry e = new LogEntry(where, "");
+    e.timestamp = time;
+    e.rawTimestamp = rawTimestamp;
+    return e;
+  }
+
+  private void addTime(long time) {
+    if (buckets != null) {
+      addToBucket(time, 1);
+      return;
+    }
+    if (timeCount == times.length) {
+      times = Arrays.copyOf(times, times.length * 2);
+    }
+    int i = Arrays.binarySearch(times, 0, timeCount, time);
+    i = i < 0 ? -i - 1 : i;
+    System.arraycopy(times, i, times, i + 1, timeCount - i);
+    times[i] = time;
+    timeCount++;
+    if (timeCount > MAX_TIMES) {
+      bucketTimes();
+    }
+  }
+
+  private void bucketTimes() {
+    buckets = new TreeMap<Long,Long>();
+    for (int i = 0; i < timeCount; i++) {
+      addToBucket(times[i], 1);
+    }
+    times = null;
+    timeCount = 0;
+  }
+
+  private void addToBucket(long time, long count) {
+    long start = time - ((time % bucketWidth) + bucketWidth) % bucketWidth;
+    Long c = buckets.get(start);
+    buckets.put(start, c == null ? count : c + count);
+    // what the width ends up as doesn't depend on the order errors are added in
+    while (buckets.size() > MAX_BUCKETS) {
+      widenBuckets();
+    }
+  }
+
+  private void widenBuckets() {
+    TreeMap<Long,Long> narrow = buckets;
+    buckets = new TreeMap<Long,Long>();
+    bucketWidth *= 2;
+    for (Entry<Long,Long> bucket : narrow.entrySet()) {
+      addToBucket(bucket.getKey(), bucket.getValue());
+    }
+  }
+
+  private void addExemplar(LogEntry error) {
+    if (exemplars.size() == MAX_EXEMPLARS && LogEntry.BY_TIME.compare(error, exemplars.get(MAX_EXEMPLARS - 1)) >= 0) {
+      return;
+    }
+    int same = exemplars.indexOf(error);
+    if (same != -1) {
+      // the same error seen again, only the earliest time is kept
+      if (LogEntry.BY_TIME.compare(error, exemplars.get(same)) >= 0) {
+        return;
+      }
+      exemplars.remove(same);
+    }
+    int i = Collections.binarySearch(exemplars, error, LogEntry.BY_TIME);
+    exemplars.add(i < 0 ? -i - 1 : i, error);
+    if (exemplars.size() > MAX_EXEMPLARS) {
+      exemplars.remove(MAX_EXEMPLARS);
+    }
+  }
+
+  public void merge(ErrorGroup other) {
+    count += other.count;
+    if (other.first != null && (first == null || LogEntry.BY_TIME.compare(other.first, first) < 0)) {
+      first = other.first;
+    }
+    if (other.last != null && (last == null || LogEntry.BY_TIME.compare(other.last, last) > 0)) {
+      last = other.last;
+    }
+    for (LogEntry exemplar : other.exemplars) {
+      addExemplar(exemplar);
+    }
+    if (other.buckets == null) {
+      for (int i = 0; i < other.timeCount; i++) {
+        addTime(other.times[i]);
+      }
+    } else {
+      if (buckets == null) {
+        bucketTimes();
+      }
+      while (bucketWidth < other.bucketWidth) {
+        widenBuckets();
+      }
+      for (Entry<Long,Long> bucket : other.buckets.entrySet()) {
+        addToBucket(bucket.getKey(), bucket.getValue());
+      }
+    }
+  }
+
+  public String getSignature() {
+    return signature;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return when and where the first error with a timestamp was logged, or null if
+   *         none had one
+   */
+  public LogEntry getFirst() {
+    return first;
+  }
+
+  public LogEntry getLast() {
+    return last;
+  }
+
+  /**
+   * @return the earliest errors, errors without a timestamp first
+   */
+  public List<LogEntry> getExemplars() {
+    return exemplars;
+  }
+
+  /**
+   * @return when the errors with a timestamp happened, in order
+   */
+  public List<Span> getTimeline() {
+    List<Span> spans = new ArrayList<Span>();
+    if (buckets != null) {
+      for (Entry<Long,Long> bucket : buckets.entrySet()) {
+        spans.add(new Span(bucket.getKey(), bucket.getKey() + bucketWidth, bucket.getValue()));
+      }
+      return spans;
+    }
+    for (int i = 0; i < timeCount;) {
+      int j = i;
+      while (j < timeCount && times[j] == times[i]) {
+        j++;
+      }
+      spans.add(new Span(times[i], times[i], j - i));
+      i = j;
+    }
+    return spans;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    Aspect.writeString(out, signature);
+    out.writeLong(count);
+    out.writeBoolean(first != null);
+    if (first != null) {
+      first.write(out);
+      last.write(out);
+    }
+    out.writeInt(exemplars.size());
+    for (LogEntry exemplar : exemplars) {
+      exemplar.write(out);
+    }
+    out.writeBoolean(buckets != null);
+    if (buckets == null) {
+      out.writeInt(timeCount);
+      for (int i = 0; i < timeCount; i++) {
+        out.writeLong(times[i]);
+      }
+    } else {
+      out.writeLong(bucketWidth);
+      out.writeInt(buckets.size());
+      for (Entry<Long,Long> bucket : buckets.entrySet()) {
+        out.writeLong(bucket.getKey());
+        out.writeLong(bucket.getValue());
+      }
+    }
+  }
+
+  public static ErrorGroup read(DataInput in) throws IOException {
+    ErrorGroup group = new ErrorGroup(Aspect.readString(in));
+    group.count = in.readLong();
+    if (in.readBoolean()) {
+      group.first = LogEntry.read(in);
+      group.last = LogEntry.read(in);
+    }
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      group.exemplars.add(LogEntry.read(in));
+    }
+    if (!in.readBoolean()) {
+      group.timeCount = in.readInt();
+      group.times = new long[Math.max(4, group.timeCount)];
+      for (int i = 0; i < group.timeCount; i++) {
+        group.times[i] = in.readLong();
+      }
+    } else {
+      group.times = null;
+      group.bucketWidth = in.readLong();
+      group.buckets = new TreeMap<Long,Long>();
+      size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        group.buckets.put(in.readLong(), in.readLong());
+      }
+    }
+    return group;
+  }
+
+  @Override
+  public int hashCode() {
+    return signature.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null) return false;
+    if (getClass() != obj.getClass()) return false;
+    ErrorGroup other = (ErrorGroup) obj;
+    return signature.equals(other.signature) && count == other.count && same(first, other.first)
+        && same(last, other.last) && exemplars.equals(other.exemplars) && bucketWidth == other.bucketWidth
+        && (buckets == null ? other.buckets == null : buckets.equals(other.buckets)) && timeCount == other.timeCount
+        && (times == null || Arrays.equals(Arrays.copyOf(times, timeCount), Arrays.copyOf(other.times, timeCount)));
+  }
+
+  private static boolean same(LogEntry e1, LogEntry e2) {
+    return e1 == null ? e2 == null : e2 != null && e1.timestamp == e2.timestamp && e1.equals(e2);
+  }
+
+  @Override
+  public String toString() {
+    return "ErrorGroup [signature=" + signature + ", count=" + count + "]";
+  }
+}
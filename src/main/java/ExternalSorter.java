@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sorts more items than should be kept on the heap. Items are buffered until
+ * they take up the memory they are given, then the buffer is sorted and spilled
+ * to a temp file as a run. Visiting the items merges the runs and what is still
+ * buffered, so only one item of each run is read at a time.
+ *
+ * A sorter and the partials made from it with {@link #newPartial()} share the
+ * memory they are given, so reading a file in many chunks takes no more heap than
+ * reading it in one. Whichever sorter adds the item that goes over spills its
+ * buffer, and a partial that is done for a while can be spilled right away with
+ * {@link #spill()}. The runs are merged down to a single run whenever there get to
+ * be too many of them to have open at once.
+ *
+ * The comparator should only find items equal that are the same, the order of
+ * items that compare equal depends on how they were split up.
+ */
+public class ExternalSorter<T> {
+  public static final long DEFAULT_MEMORY = 32 * 1024 * 1024;
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+  // runs open at once when they are merged
+  static final int MAX_RUNS = 64;
+
+  /**
+   * Reads and writes the items of the runs, and estimates how much heap they take.
+   */
+  public interface Codec<T> {
+    void write(DataOutput out, T item) throws IOException;
+
+    T read(DataInput in) throws IOException;
+
+    long size(T item);
+  }
+
+  public interface Visitor<T> {
+    void visit(T item) throws IOException;
+  }
+
+  private static class Run {
+    final File file;
+    final long count;
+
+    Run(File file, long count) {
+      this.file = file;
+      this.count = count;
+    }
+  }
+
+  /**
+   * The next item of a run while the runs are merged.
+   */
+  private static class Head<T> {
+    T item;
+    DataInputStream in;
+    long remaining;
+  }
+
+  private final Comparator<? super T> comparator;
+  private final Codec<T> codec;
+  private final long memory;
+  // what this sorter and its partials have buffered
+  private final AtomicLong buffered;
+
+  private List<T> buffer = new ArrayList<T>();
+  private long bufferSize;
+  private List<Run> runs = new ArrayList<Run>();
+  private long count;
+
+  public ExternalSorter(Comparator<? super T> comparator, Codec<T> codec, long memory) {
+    this(comparator, codec, memory, new AtomicLong());
+  }
+
+  private ExternalSorter(Comparator<? super T> comparator, Codec<T> codec, long memory, AtomicLong buffered) {
+    this.comparator = comparator;
+    this.codec = codec;
+    this.memory = memory;
+    this.buffered = buffered;
+  }
+
+  /**
+   * @return an empty sorter that shares the memory of this one, and of all other
+   *         partials of it
+   */
+  public ExternalSorter<T> newPartial() {
+    return new ExternalSorter<T>(comparator, codec, memory, buffered);
+  }
+
+  public void add(T item) {
+    long size = codec.size(item);
+    buffer.add(item);
+    bufferSize += size;
+    count++;
+    if (buffered.addAndGet(size) > memory) {
+      spill();
+    }
+  }
+
+  /**
+   * Takes over all items of the other sorter, which is left empty.
+   */
+  public void merge(ExternalSorter<T> other) {
+    runs.addAll(other.runs);
+    count += other.count - other.buffer.size();
+    other.buffered.addAndGet(-other.bufferSize);
+    for (T item : other.buffer) {
+      add(item);
+    }
+    other.runs = new ArrayList<Run>();
+    other.buffer = new ArrayList<T>();
+    other.bufferSize = 0;
+    other.count = 0;
+    if (runs.size() > MAX_RUNS) {
+      compact();
+    }
+  }
+
+  public long size() {
+    return count;
+  }
+
+  public long getRunCount() {
+    return runs.size();
+  }
+
+  /**
+   * Visits all items in order. The items are kept.
+   */
+  public void visit(Visitor<T> visitor) throws IOException {
+    Collections.sort(buffer, comparator);
+    merge(runs, buffer, visitor);
+  }
+
+  /**
+   * Visits the items of the runs and of the sorted list in order.
+   */
+  private void merge(List<Run> from, List<T> sorted, Visitor<T> visitor) throws IOException {
+    if (from.isEmpty()) {
+      for (T item : sorted) {
+        visitor.visit(item);
+      }
+      return;
+    }
+
+    PriorityQueue<Head<T>> heads = new PriorityQueue<Head<T>>(from.size() + 1, new Comparator<Head<T>>() {
+      @Override
+      public int compare(Head<T> h1, Head<T> h2) {
+        return comparator.compare(h1.item, h2.item);
+      }
+    });
+    List<DataInputStream> streams = new ArrayList<DataInputStream>(from.size());
+    try {
+      for (Run run : from) {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file),
+            IO_BUFFER_SIZE));
+        streams.add(in);
+        Head<T> head = new Head<T>();
+        head.in = in;
+        head.remaining = run.count;
+        next(head, heads);
+      }
+      int i = 0;
+      while (!heads.isEmpty()) {
+        Head<T> head = heads.peek();
+        // the list is merged in as it is, without a head of its own
+        if (i < sorted.size() && comparator.compare(sorted.get(i), head.item) < 0) {
+          visitor.visit(sorted.get(i++));
+          continue;
+        }
+        heads.poll();
+        visitor.visit(head.item);
+        next(head, heads);
+      }
+      while (i < sorted.size()) {
+        visitor.visit(sorted.get(i++));
+      }
+    } finally {
+      for (DataInputStream in : streams) {
+        in.close();
+      }
+    }
+  }
+
+  private void next(Head<T> head, PriorityQueue<Head<T>> heads) throws IOException {
+    if (head.remaining > 0) {
+      head.item = codec.read(head.in);
+      head.remaining--;
+      heads.add(head);
+    }
+  }
+
+  /**
+   * Drops all items and deletes the runs.
+   */
+  public void clear() {
+    for (Run run : runs) {
+      run.file.delete();
+    }
+    runs.clear();
+    buffered.addAndGet(-bufferSize);
+    buffer.clear();
+    bufferSize = 0;
+    count = 0;
+  }
+
+  /**
+   * Writes the buffered items out as a run, so they take no memory.
+   */
+  public void spill() {
+    if (buffer.isEmpty()) {
+      return;
+    }
+    Collections.sort(buffer, comparator);
+    runs.add(writeRun(Collections.<Run> emptyList(), buffer, buffer.size()));
+    buffered.addAndGet(-bufferSize);
+    buffer.clear();
+    bufferSize = 0;
+    if (runs.size() > MAX_RUNS) {
+      compact();
+    }
+  }
+
+  /**
+   * Merges the runs into a single run.
+   */
+  private void compact() {
+    List<Run> merged = runs;
+    long items = 0;
+    for (Run run : merged) {
+      items += run.count;
+    }
+    runs = new ArrayList<Run>();
+    runs.add(writeRun(merged, Collections.<T> emptyList(), items));
+    for (Run run : merged) {
+      run.file.delete();
+    }
+  }
+
+  /**
+   * Writes the items of the runs and of the sorted list to a new run.
+   */
+  private Run writeRun(List<Run> from, List<T> sorted, long count) {
+    try {
+      File file = File.createTempFile("solrlogreader-run", ".bin");
+      file.deleteOnExit();
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+          IO_BUFFER_SIZE));
+      try {
+        Visitor<T> writer = new Visitor<T>() {
+          @Override
+          public void visit(T item) throws IOException {
+            codec.write(out, item);
+          }
+        };
+        merge(from, sorted, writer);
+      } finally {
+        out.close();
+      }
+      return new Run(file, count);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the keys with the most weight in a stream of any number of distinct keys,
+ * with the Space-Saving algorithm. Only a fixed number of keys is monitored. A key
+ * that is not monitored takes the place of the one with the least weight and
+ * inherits its weight as a possible overcount, its error. A key with more than
+ * 1/capacity of the total weight is always monitored.
+ *
+ * Two of these merge into one that still gives the same guarantees.
+ */
+public class HeavyHitters {
+
+  public static class Counter {
+    String key;
+    // an estimate of the weight of the key, at most error too much
+    long weight;
+    long error;
+    // what was seen of the key since it is monitored
+    long count;
+    long sum;
+    int heapIndex;
+
+    public String getKey() {
+      return key;
+    }
+
+    public long getWeight() {
+      return weight;
+    }
+
+    public long getError() {
+      return error;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSum() {
+      return sum;
+    }
+  }
+
+  private static final Comparator<Counter> BY_WEIGHT = new Comparator<Counter>() {
+    @Override
+    public int compare(Counter c1, Counter c2) {
+      int c = Long.compare(c2.weight, c1.weight);
+      // don't depend on the order keys were seen in
+      return c != 0 ? c : c1.key.compareTo(c2.key);
+    }
+  };
+
+  private final int capacity;
+  private final Map<String,Counter> counters = new HashMap<String,Counter>();
+  // min heap on weight, so the counter to replace is always at the top
+  private final Counter[] heap;
+  private int size;
+
+  public HeavyHitters(int capacity) {
+    this.capacity = capacity;
+    this.heap = new Counter[capacity];
+  }
+
+  /**
+   * @param weight how much the key counts for
+   * @param value a value to sum up for the key, the QTime of a query say
+   */
+  public void add(String key, long weight, long value) {
+    Counter counter = counters.get(key);
+    if (counter == null && size < capacity) {
+      counter = new Counter();
+      counter.key = key;
+      counter.weight = weight;
+      counter.count = 1;
+      counter.sum = value;
+      add(counter);
+      return;
+    }
+    if (counter == null) {
+      // takes over the counter with the least weight
+      counter = heap[0];
+      counters.remove(counter.key);
+      counter.error = counter.weight;
+      counter.count = 0;
+      counter.sum = 0;
+      counter.key = key;
+      counters.put(key, counter);
+    }
+    counter.weight += weight;
+    counter.count++;
+    counter.sum += value;
+    siftDown(counter.heapIndex);
+  }
+
+  /**
+   * Adds the keys of another one to this one. A key that one of them does not
+   * monitor may have had up to its least weight there, which is added as error.
+   */
+  public void merge(HeavyHitters other) {
+    long minWeight = size < capacity ? 0 : heap[0].weight;
+    long otherMinWeight = other.size < other.capacity ? 0 : other.heap[0].weight;
+    Map<String,Counter> merged = new HashMap<String,Counter>();
+    for (Counter counter : counters.values()) {
+      Counter o = other.counters.get(counter.key);
+      Counter m = copy(counter);
+      if (o != null) {
+        m.weight += o.weight;
+        m.error += o.error;
+        m.count += o.count;
+        m.sum += o.sum;
+      } else {
+        m.weight += otherMinWeight;
+        m.error += otherMinWeight;
+      }
+      merged.put(m.key, m);
+    }
+    for (Counter o : other.counters.values()) {
+      if (!merged.containsKey(o.key)) {
+        Counter m = copy(o);
+        m.weight += minWeight;
+        m.error += minWeight;
+        merged.put(m.key, m);
+      }
+    }
+    List<Counter> top = new ArrayList<Counter>(merged.values());
+    Collections.sort(top, BY_WEIGHT);
+    counters.clear();
+    size = 0;
+    for (Counter counter : top.subList(0, Math.min(capacity, top.size()))) {
+      add(counter);
+    }
+  }
+
+  /**
+   * @return up to n counters with the most weight, the most first
+   */
+  public List<Counter> top(int n) {
+    List<Counter> top = new ArrayList<Counter>(counters.values());
+    Collections.sort(top, BY_WEIGHT);
+    return top.subList(0, Math.min(n, top.size()));
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      Counter counter = heap[i];
+      Aspect.writeString(out, counter.key);
+      out.writeLong(counter.weight);
+      out.writeLong(counter.error);
+      out.writeLong(counter.count);
+      out.writeLong(counter.sum);
+    }
+  }
+
+  /**
+   * Merges what {@link #write(DataOutput)} wrote into this one.
+   */
+  public void read(DataInput in) throws IOException {
+    HeavyHitters read = new HeavyHitters(capacity);
+    int n = in.readInt();
+    for (int i = 0; i < n; i++) {
+      Counter counter = new Counter();
+      counter.key = Aspect.readString(in);
+      counter.weight = in.readLong();
+      counter.error = in.readLong();
+      counter.count = in.readLong();
+      counter.sum = in.readLong();
+      if (read.size < read.capacity) {
+        read.add(counter);
+      }
+    }
+    merge(read);
+  }
+
+  private void add(Counter counter) {
+    counter.heapIndex = size;
+    heap[size++] = counter;
+    counters.put(counter.key, counter);
+    siftUp(counter.heapIndex);
+  }
+
+  private static Counter copy(Counter counter) {
+    Counter copy = new Counter();
+    copy.key = counter.key;
+    copy.weight = counter.weight;
+    copy.error = counter.error;
+    copy.count = counter.count;
+    copy.sum = counter.sum;
+    return copy;
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (heap[parent].weight <= heap[i].weight) {
+        break;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int smallest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < size && heap[left].weight < heap[smallest].weight) {
+        smallest = left;
+      }
+      if (right < size && heap[right].weight < heap[smallest].weight) {
+        smallest = right;
+      }
+      if (smallest == i) {
+        return;
+      }
+      swap(i, smallest);
+      i = smallest;
+    }
+  }
+
+  private void swap(int i, int j) {
+    Counter c = heap[i];
+    heap[i] = heap[j];
+    heap[j] = c;
+    heap[i].heapIndex = i;
+    heap[j].heapIndex = j;
+  }
+}
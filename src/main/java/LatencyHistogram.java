@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Counts latencies in buckets that grow with the latency, so any number of them
+ * takes the same memory and percentiles are off by less than 2%.
+ *
+ * Values below 128 get a bucket each. Above that, every power of two range is split
+ * into 64 buckets of equal width. Recording a value does not allocate, and two
+ * histograms are merged by adding up their buckets.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF = SUB_BUCKETS / 2;
+  // enough for any positive int
+  private static final int BUCKETS = SUB_BUCKETS + (31 - SUB_BUCKET_BITS) * HALF;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max = -1;
+
+  /**
+   * @param value a latency, negative ones are counted as 0
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > Integer.MAX_VALUE) {
+      value = Integer.MAX_VALUE;
+    }
+    counts[index(value)]++;
+    count++;
+    sum += value;
+    if (value < min) {
+      min = value;
+    }
+    if (value > max) {
+      max = value;
+    }
+  }
+
+  public void merge(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the largest latency recorded, or -1 if there are none
+   */
+  public long getMax() {
+    return max;
+  }
+
+  public long getMin() {
+    return count == 0 ? -1 : min;
+  }
+
+  public double getMean() {
+    return count == 0 ? 0 : sum / (double) count;
+  }
+
+  /**
+   * @param percentile from 0 to 100
+   * @return the latency that percentile of all latencies is at or below, or -1 if
+   *         there are none
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (count == 0) {
+      return -1;
+    }
+    long rank = (long) Math.ceil(percentile / 100.0 * count);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.max(min, Math.min(max, highestInBucket(i)));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * @return count and percentiles in a line
+   */
+  public String toSummary() {
+    return "count=" + count + " p50=" + getValueAtPercentile(50) + " p90=" + getValueAtPercentile(90) + " p99="
+        + getValueAtPercentile(99) + " p999=" + getValueAtPercentile(99.9) + " max=" + max;
+  }
+
+  /**
+   * Writes the buckets that are not empty.
+   */
+  public void write(DataOutput out) throws IOException {
+    int used = 0;
+    for (long c : counts) {
+      if (c != 0) {
+        used++;
+      }
+    }
+    out.writeLong(count);
+    out.writeLong(sum);
+    out.writeLong(min);
+    out.writeLong(max);
+    out.writeInt(used);
+    for (int i = 0; i < BUCKETS; i++) {
+      if (counts[i] != 0) {
+        out.writeShort(i);
+        out.writeLong(counts[i]);
+      }
+    }
+  }
+
+  /**
+   * Adds what {@link #write(DataOutput)} wrote to this histogram.
+   */
+  public void read(DataInput in) throws IOException {
+    count += in.readLong();
+    sum += in.readLong();
+    min = Math.min(min, in.readLong());
+    max = Math.max(max, in.readLong());
+    int used = in.readInt();
+    for (int i = 0; i < used; i++) {
+      int index = in.readShort();
+      counts[index] += in.readLong();
+    }
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // shifted down so it is from HALF to SUB_BUCKETS - 1
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >> shift) - HALF;
+  }
+
+  static long highestInBucket(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / HALF + 1;
+    long sub = (index - SUB_BUCKETS) % HALF + HALF;
+    return ((sub + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames lines in a byte buffer without copying or decoding them.
+ *
+ * Line breaks are searched for 8 bytes at a time and each line is handed out as
+ * a pair of offsets into the buffer. A line is only decoded from UTF-8 when a
+ * caller asks for it as a String.
+ */
+public class LineReader {
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGHS = 0x8080808080808080L;
+  private static final long LFS = 0x0A0A0A0A0A0A0A0AL;
+  private static final long CRS = 0x0D0D0D0D0D0D0D0DL;
+
+  private final ByteBuffer buffer;
+  private final ByteBuffer view;
+  private final int limit;
+  private final boolean endOfData;
+  private int position;
+  private int lineStart;
+  private int lineEnd;
+  private byte[] scratch = new byte[256];
+
+  /**
+   * @param buffer the bytes to frame, from its position to its limit
+   * @param endOfData true if the buffer ends with the data, in which case a last
+   *          line without a line break is still a line - otherwise it is treated
+   *          as cut off and not returned
+   */
+  public LineReader(ByteBuffer buffer, boolean endOfData) {
+    // little endian so the first byte of a word is its lowest byte
+    this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    this.view = buffer.duplicate();
+    this.position = buffer.position();
+    this.limit = buffer.limit();
+    this.endOfData = endOfData;
+  }
+
+  /**
+   * Moves to the next line.
+   *
+   * @return false if there are no more lines
+   */
+  public boolean next() {
+    if (position >= limit) {
+      return false;
+    }
+    int eol = indexOfLineBreak(position);
+    if (eol == -1) {
+      if (!endOfData) {
+        return false;
+      }
+      lineStart = position;
+      lineEnd = limit;
+      position = limit;
+      return true;
+    }
+
+    lineStart = position;
+    lineEnd = eol;
+    position = eol + 1;
+    if (buffer.get(eol) == '\r' && position < limit && buffer.get(position) == '\n') {
+      position++;
+    }
+    return true;
+  }
+
+  /**
+   * @return offset of the first byte of the current line
+   */
+  public int lineStart() {
+    return lineStart;
+  }
+
+  /**
+   * @return offset just past the last byte of the current line, not including the line break
+   */
+  public int lineEnd() {
+    return lineEnd;
+  }
+
+  /**
+   * @return offset of the start of the next line
+   */
+  public int position() {
+    return position;
+  }
+
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * @return the current line decoded from UTF-8
+   */
+  public String line() {
+    return decode(lineStart, lineEnd);
+  }
+
+  /**
+   * Decodes a range of the buffer from UTF-8.
+   */
+  public String decode(int start, int end) {
+    int len = end - start;
+    if (len > scratch.length) {
+      scratch = new byte[Math.max(len, scratch.length * 2)];
+    }
+    view.position(start);
+    view.get(scratch, 0, len);
+    return new String(scratch, 0, len, StandardCharsets.UTF_8);
+  }
+
+  private int indexOfLineBreak(int from) {
+    int i = from;
+    int wordLimit = limit - 7;
+    while (i < wordLimit) {
+      long word = buffer.getLong(i);
+      long found = zeroBytes(word ^ LFS) | zeroBytes(word ^ CRS);
+      if (found != 0) {
+        return i + (Long.numberOfTrailingZeros(found) >>> 3);
+      }
+      i += 8;
+    }
+    for (; i < limit; i++) {
+      byte b = buffer.get(i);
+      if (b == '\n' || b == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Flags the zero bytes of a word with their high bit. Bits above the first zero
+   * byte can be false positives, but the lowest flagged byte is always exact.
+   */
+  private static long zeroBytes(long word) {
+    return (word - ONES) & ~word & HIGHS;
+  }
+}
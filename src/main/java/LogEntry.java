@@ -16,14 +16,47 @@
  * limitations under the License.
  */
 
-import java.util.Date;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Comparator;
 
 public class LogEntry implements Comparable<LogEntry> {
   String headLine;
   String entry;
-  Date timestamp;
+  long timestamp = TimestampParser.NO_TIMESTAMP;
   String rawTimestamp;
   
+  /**
+   * Orders entries by time, entries without a time first. Unlike
+   * {@link #compareTo(LogEntry)}, only the same entries are equal.
+   */
+  static final Comparator<LogEntry> BY_TIME = new Comparator<LogEntry>() {
+    @Override
+    public int compare(LogEntry e1, LogEntry e2) {
+      int c = Long.compare(e1.timestamp, e2.timestamp);
+      return c != 0 ? c : e1.entry.compareTo(e2.entry);
+    }
+  };
+  
+  static final ExternalSorter.Codec<LogEntry> CODEC = new ExternalSorter.Codec<LogEntry>() {
+    @Override
+    public void write(DataOutput out, LogEntry e) throws IOException {
+      e.write(out);
+    }
+    
+    @Override
+    public LogEntry read(DataInput in) throws IOException {
+      return LogEntry.read(in);
+    }
+    
+    @Override
+    public long size(LogEntry e) {
+      // the chars of the strings and about what the objects take
+      return 2L * (e.headLine.length() + e.entry.length() + (e.rawTimestamp == null ? 0 : e.rawTimestamp.length())) + 128;
+    }
+  };
+  
   @Override
   public int hashCode() {
     final int prime = 31;
@@ -49,15 +82,29 @@ public class LogEntry implements Comparable<LogEntry> {
     this.entry = entry;
   }
   
+  void write(DataOutput out) throws IOException {
+    Aspect.writeString(out, headLine);
+    Aspect.writeString(out, entry);
+    out.writeLong(timestamp);
+    Aspect.writeString(out, rawTimestamp);
+  }
+  
+  static LogEntry read(DataInput in) throws IOException {
+    LogEntry e = new LogEntry(Aspect.readString(in), Aspect.readString(in));
+    e.timestamp = in.readLong();
+    e.rawTimestamp = Aspect.readString(in);
+    return e;
+  }
+  
   @Override
   public int compareTo(LogEntry o) {
-    if (this.timestamp == null) {
+    if (this.timestamp == TimestampParser.NO_TIMESTAMP) {
       return -1;
-    } else if (o.timestamp == null) {
+    } else if (o.timestamp == TimestampParser.NO_TIMESTAMP) {
       return 1;
     }
     
-    return this.timestamp.compareTo(o.timestamp);
+    return Long.compare(this.timestamp, o.timestamp);
   }
   
   /*
@@ -0,0 +1,340 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows logs as they are written, once they have been read through. Only the
+ * bytes appended since the last look are read and the aspects of each instance
+ * keep their state in memory, so nothing is read twice.
+ *
+ * The last entry of a log is held back until the next one starts, as more lines of
+ * it may still be on their way. Files are told apart by file key rather than name,
+ * so when Solr rotates solr.log to solr.log.1 and starts a new solr.log, the
+ * rotated file is read to its end, held back entry included, and the new file is
+ * read from its start as part of the same instance. Compressed files that show up
+ * are taken to be rotated copies of logs that were already read and are skipped.
+ */
+public class LogFollower implements Closeable {
+  public static final long POLL_MILLIS = 1000;
+
+  /**
+   * Finds or creates the instance a newly found log belongs to.
+   */
+  public interface InstanceLookup {
+    LogInstance getLogInstance(String logName) throws IOException;
+  }
+
+  private static class FollowedFile {
+    File file;
+    LogInstance instance;
+    LogFormat format;
+    // where to read on from, the start of the held back entry
+    long offset;
+    // the length of the file when it was last read
+    long readLength = -1;
+    boolean done;
+  }
+
+  private final File srcDir;
+  private final String matchText;
+  private final LogFormat[] formats;
+  private final SolrLogReader.Range range;
+  private final int mapWindow;
+  private final InstanceLookup lookup;
+  private final PrintStream out;
+  private final Map<Object,FollowedFile> followed = new LinkedHashMap<Object,FollowedFile>();
+  private final Set<Path> watchedDirs = new HashSet<Path>();
+  private WatchService watcher;
+  private volatile boolean stopped;
+
+  public LogFollower(File srcDir, String matchText, LogFormat[] formats, SolrLogReader.Range range, int mapWindow,
+      InstanceLookup lookup, PrintStream out) {
+    this.srcDir = srcDir;
+    this.matchText = matchText;
+    this.formats = formats;
+    this.range = range;
+    this.mapWindow = mapWindow;
+    this.lookup = lookup;
+    this.out = out;
+  }
+
+  /**
+   * Starts following the logs that have been read.
+   *
+   * @param heldBackOffsets where to read on from in each plain log file, see
+   *        {@link LogScheduler#getHeldBackOffsets()}
+   */
+  public void start(Collection<LogInstance> logInstances, Map<File,Long> heldBackOffsets) throws IOException {
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      // polling still works
+      watcher = null;
+    }
+    for (LogInstance logInstance : logInstances) {
+      for (LogSource source : logInstance.getSources()) {
+        File file = source.getFile();
+        Object key = fileKey(file);
+        if (key == null || followed.containsKey(key)) {
+          continue;
+        }
+        FollowedFile followedFile = new FollowedFile();
+        followedFile.file = file;
+        followedFile.instance = logInstance;
+        Long offset = heldBackOffsets.get(file);
+        if (offset != null) {
+          followedFile.offset = offset;
+          followedFile.format = sniff(file, offset);
+        }
+        // only plain files grow
+        followedFile.done = !source.isPlainFile();
+        followed.put(key, followedFile);
+        watch(file.getAbsoluteFile().getParentFile());
+      }
+    }
+    watch(srcDir.isDirectory() ? srcDir : srcDir.getAbsoluteFile().getParentFile());
+  }
+
+  /**
+   * Waits for logs to change, at most the given time, and reads what was written.
+   *
+   * @return true if anything was read
+   */
+  public boolean poll(long timeoutMillis) throws IOException {
+    if (watcher != null) {
+      try {
+        WatchKey key = watcher.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        while (key != null) {
+          key.pollEvents();
+          key.reset();
+          key = watcher.poll();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stop();
+      } catch (ClosedWatchServiceException e) {
+        stop();
+      }
+    } else {
+      try {
+        Thread.sleep(timeoutMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stop();
+      }
+    }
+    return scan();
+  }
+
+  /**
+   * Reads whatever has been written to the logs since the last scan.
+   *
+   * @return true if anything was read
+   */
+  public boolean scan() throws IOException {
+    List<File> files = new ArrayList<File>();
+    SolrLogReader.getFiles(files, srcDir, matchText);
+    Map<Object,File> current = new LinkedHashMap<Object,File>();
+    for (File file : files) {
+      Object key = fileKey(file);
+      if (key != null) {
+        current.put(key, file);
+      }
+    }
+
+    boolean read = false;
+    for (Map.Entry<Object,FollowedFile> entry : new ArrayList<Map.Entry<Object,FollowedFile>>(followed.entrySet())) {
+      FollowedFile followedFile = entry.getValue();
+      File file = current.get(entry.getKey());
+      if (file == null) {
+        File stillThere = followedFile.file;
+        if (!stillThere.exists() || !entry.getKey().equals(fileKey(stillThere))) {
+          // rotated out of existence, whatever was left unread is gone
+          followed.remove(entry.getKey());
+          continue;
+        }
+        // no longer matches, but it is the same file
+        file = stillThere;
+      }
+      if (followedFile.done) {
+        continue;
+      }
+      boolean rotated = !file.equals(followedFile.file);
+      followedFile.file = file;
+      read |= read(followedFile, rotated);
+      if (rotated) {
+        // a rotated log is not written to again
+        followedFile.done = true;
+      }
+    }
+
+    for (Map.Entry<Object,File> entry : current.entrySet()) {
+      if (followed.containsKey(entry.getKey())) {
+        continue;
+      }
+      File file = entry.getValue();
+      List<LogSource> sources = new ArrayList<LogSource>();
+      try {
+        LogSource.expand(file, sources);
+      } catch (IOException e) {
+        // not readable yet, try again on the next scan
+        continue;
+      }
+      FollowedFile followedFile = new FollowedFile();
+      followedFile.file = file;
+      followedFile.done = sources.size() != 1 || !sources.get(0).isPlainFile();
+      if (!followedFile.done) {
+        out.println("Following new file: " + file.getName());
+        followedFile.instance = lookup.getLogInstance(file.getName());
+        read |= read(followedFile, false);
+      }
+      followed.put(entry.getKey(), followedFile);
+      watch(file.getAbsoluteFile().getParentFile());
+    }
+    return read;
+  }
+
+  /**
+   * Reads the logs to their ends, held back entries included.
+   */
+  public void finish() throws IOException {
+    for (FollowedFile followedFile : followed.values()) {
+      if (!followedFile.done && followedFile.file.exists()) {
+        read(followedFile, true);
+        followedFile.done = true;
+      }
+    }
+  }
+
+  public void stop() {
+    stopped = true;
+  }
+
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (watcher != null) {
+      watcher.close();
+    }
+  }
+
+  /**
+   * @param toEnd read the held back entry too
+   * @return true if anything was read
+   */
+  private boolean read(FollowedFile followedFile, boolean toEnd) throws IOException {
+    File file = followedFile.file;
+    long length = file.length();
+    if (length < followedFile.offset || length < followedFile.readLength) {
+      // truncated, it was copied away and is being written from the start again
+      followedFile.offset = 0;
+      followedFile.readLength = -1;
+      followedFile.format = null;
+    }
+    if (length == followedFile.offset || (length == followedFile.readLength && !toEnd)) {
+      return false;
+    }
+    if (followedFile.format == null) {
+      followedFile.format = sniff(file, followedFile.offset);
+      if (followedFile.format == null) {
+        if (toEnd) {
+          out.println("No configured timestamp pattern matched file: " + file.getName());
+        }
+        return false;
+      }
+    }
+    List<Aspect> aspects = followedFile.instance.getAspects();
+    ReaderThread reader = new ReaderThread(file, file.getName(), followedFile.offset, length, aspects,
+        followedFile.format, range, mapWindow);
+    reader.setHoldBackLastEntry(!toEnd);
+    reader.run();
+    followedFile.readLength = length;
+    followedFile.offset = toEnd || reader.getHeldBackOffset() == -1 ? length : reader.getHeldBackOffset();
+    try {
+      for (Aspect aspect : aspects) {
+        aspect.endOfFile();
+      }
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+    return true;
+  }
+
+  private LogFormat sniff(File file, long offset) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      int sniffLength = LogFormat.sniffLength(raf.length() - offset);
+      MappedByteBuffer head = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, sniffLength);
+      try {
+        return LogFormat.sniff(head, false, formats);
+      } finally {
+        Unmapper.unmap(head);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  private void watch(File dir) throws IOException {
+    if (watcher == null || dir == null || !dir.isDirectory()) {
+      return;
+    }
+    Path path = dir.toPath();
+    if (watchedDirs.add(path)) {
+      path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+  }
+
+  /**
+   * @return what identifies the file across renames, or null if it is gone
+   */
+  private static Object fileKey(File file) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      Object key = attributes.fileKey();
+      return key != null ? key : file.getCanonicalPath();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+}
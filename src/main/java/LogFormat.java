@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A log layout: recognizes the first line of a log entry and finds the bounds of
+ * its timestamp and headline.
+ *
+ * The layouts that ship in config.txt are scanned by hand at fixed offsets. Any
+ * other configured timestamp pattern falls back to a regex match on the decoded
+ * line.
+ */
+public abstract class LogFormat {
+  // the built in config.txt patterns, as they read after properties unescaping
+  static final String SOLR4_PATTERN = "^(\\d\\d\\d\\d\\-\\d\\d\\-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d,\\d\\d\\d)(.*)$";
+  static final String SOLR51_PATTERN = "^\\S+[\\s-]+(\\d\\d\\d\\d\\-\\d\\d\\-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d.\\d\\d\\d);(.*)$";
+  static final String SOLR7_PATTERN = "^(\\d\\d\\d\\d-\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d.\\d\\d\\d)(.*)$";
+  static final String MILLIS_PATTERN = "^(\\d+)\\s(.*)$";
+
+  private static final int SNIFF_BYTES = 16 * 1024 * 1024;
+
+  private final String pattern;
+  private final TimestampParser parser;
+
+  /**
+   * Byte offsets of the parts of an entry's first line.
+   */
+  public static class Match {
+    int timestampStart;
+    int timestampEnd;
+    int headLineStart;
+    int headLineEnd;
+  }
+
+  protected LogFormat(String pattern, TimestampParser parser) {
+    this.pattern = pattern;
+    this.parser = parser;
+  }
+
+  /**
+   * @return a format for a configured timestamp pattern
+   * @param parser parser for the matched timestamp or null if there is no date format
+   */
+  public static LogFormat create(String pattern, TimestampParser parser) {
+    if (pattern.equals(SOLR4_PATTERN)) {
+      return new DateFirstFormat(pattern, parser, ',');
+    } else if (pattern.equals(SOLR7_PATTERN)) {
+      return new DateFirstFormat(pattern, parser, -1);
+    } else if (pattern.equals(SOLR51_PATTERN)) {
+      return new LevelFirstFormat(pattern, parser);
+    } else if (pattern.equals(MILLIS_PATTERN)) {
+      return new MillisFormat(pattern, parser);
+    }
+    return new RegexFormat(pattern, parser);
+  }
+
+  /**
+   * Finds the format of a file from its first entry. Formats are tried in order
+   * against each line until one matches.
+   *
+   * @return the format to use for the whole file or null if no format matched
+   */
+  public static LogFormat sniff(ByteBuffer head, boolean endOfData, LogFormat[] formats) {
+    LineReader reader = new LineReader(head, endOfData);
+    Match match = new Match();
+    while (reader.next()) {
+      for (LogFormat format : formats) {
+        if (format.match(reader, match)) {
+          return format;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return how much of the start of a file to look at when sniffing its format
+   */
+  public static int sniffLength(long fileLength) {
+    return (int) Math.min(fileLength, SNIFF_BYTES);
+  }
+
+  /**
+   * Checks if the current line of the reader is the first line of an entry.
+   *
+   * @return true if it is, in which case the bounds are set on match
+   */
+  public abstract boolean match(LineReader reader, Match match);
+
+  /**
+   * @return the parser for timestamps of this format or null if there is no date format
+   */
+  public TimestampParser getTimestampParser() {
+    return parser;
+  }
+
+  @Override
+  public String toString() {
+    return pattern;
+  }
+
+  static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  /**
+   * Same as the regex \s
+   */
+  static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+  }
+
+  /**
+   * @return the number of bytes in the UTF-8 sequence started by lead, so a regex
+   *         . can be matched against bytes
+   */
+  static int charWidth(byte lead) {
+    if (lead >= 0) {
+      return 1;
+    } else if ((lead & 0xE0) == 0xC0) {
+      return 2;
+    } else if ((lead & 0xF0) == 0xE0) {
+      return 3;
+    } else if ((lead & 0xF8) == 0xF0) {
+      return 4;
+    }
+    return 1;
+  }
+
+  /**
+   * Matches the date and time shared by the built in layouts, yyyy-MM-dd HH:mm:ss
+   * followed by a millis separator and 3 digits.
+   *
+   * @param millisSeparator the separator byte or -1 to accept any char
+   * @return the end of the timestamp or -1 if there is none at start
+   */
+  static int matchDateTime(ByteBuffer b, int start, int end, int millisSeparator) {
+    if (end - start < 23) {
+      return -1;
+    }
+    if (!(isDigit(b.get(start)) && isDigit(b.get(start + 1)) && isDigit(b.get(start + 2))
+        && isDigit(b.get(start + 3)) && b.get(start + 4) == '-' && isDigit(b.get(start + 5))
+        && isDigit(b.get(start + 6)) && b.get(start + 7) == '-' && isDigit(b.get(start + 8))
+        && isDigit(b.get(start + 9)) && isWhitespace(b.get(start + 10)) && isDigit(b.get(start + 11))
+        && isDigit(b.get(start + 12)) && b.get(start + 13) == ':' && isDigit(b.get(start + 14))
+        && isDigit(b.get(start + 15)) && b.get(start + 16) == ':' && isDigit(b.get(start + 17))
+        && isDigit(b.get(start + 18)))) {
+      return -1;
+    }
+    int i = start + 19;
+    byte separator = b.get(i);
+    if (millisSeparator == -1) {
+      i += charWidth(separator);
+    } else if (separator == millisSeparator) {
+      i++;
+    } else {
+      return -1;
+    }
+    if (i + 3 > end || !(isDigit(b.get(i)) && isDigit(b.get(i + 1)) && isDigit(b.get(i + 2)))) {
+      return -1;
+    }
+    return i + 3;
+  }
+
+  /**
+   * Solr 4 and Solr 7: 2018-05-31 03:42:53.242 INFO ...
+   */
+  static class DateFirstFormat extends LogFormat {
+    private final int millisSeparator;
+
+    DateFirstFormat(String pattern, TimestampParser parser, int millisSeparator) {
+      super(pattern, parser);
+      this.millisSeparator = millisSeparator;
+    }
+
+    @Override
+    public boolean match(LineReader reader, Match match) {
+      int start = reader.lineStart();
+      int end = reader.lineEnd();
+      int tsEnd = matchDateTime(reader.buffer(), start, end, millisSeparator);
+      if (tsEnd == -1) {
+        return false;
+      }
+      match.timestampStart = start;
+      match.timestampEnd = tsEnd;
+      match.headLineStart = tsEnd;
+      match.headLineEnd = end;
+      return true;
+    }
+  }
+
+  /**
+   * Solr 5.1: INFO  - 2013-07-16 10:09:11.023; org.apache.solr...
+   */
+  static class LevelFirstFormat extends LogFormat {
+
+    LevelFirstFormat(String pattern, TimestampParser parser) {
+      super(pattern, parser);
+    }
+
+    @Override
+    public boolean match(LineReader reader, Match match) {
+      ByteBuffer b = reader.buffer();
+      int start = reader.lineStart();
+      int end = reader.lineEnd();
+
+      // the level is a run of non whitespace, it must be followed by whitespace or dashes
+      int i = start;
+      while (i < end && !isWhitespace(b.get(i))) {
+        i++;
+      }
+      if (i == start || i == end) {
+        return false;
+      }
+      int runEnd = i;
+      while (runEnd < end && (isWhitespace(b.get(runEnd)) || b.get(runEnd) == '-')) {
+        runEnd++;
+      }
+
+      // like the regex, prefer the right most place the timestamp can start - a dash
+      // inside the level can also open the separator run
+      for (int tsStart = runEnd; tsStart >= start + 2; tsStart--) {
+        byte before = b.get(tsStart - 1);
+        if (before != '-' && !(tsStart > i && isWhitespace(before))) {
+          continue;
+        }
+        int tsEnd = matchDateTime(b, tsStart, end, -1);
+        if (tsEnd != -1 && tsEnd < end && b.get(tsEnd) == ';') {
+          match.timestampStart = tsStart;
+          match.timestampEnd = tsEnd;
+          match.headLineStart = tsEnd + 1;
+          match.headLineEnd = end;
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Millis since start: 870  [main] INFO  org.apache.solr...
+   */
+  static class MillisFormat extends LogFormat {
+
+    MillisFormat(String pattern, TimestampParser parser) {
+      super(pattern, parser);
+    }
+
+    @Override
+    public boolean match(LineReader reader, Match match) {
+      ByteBuffer b = reader.buffer();
+      int start = reader.lineStart();
+      int end = reader.lineEnd();
+      int i = start;
+      while (i < end && isDigit(b.get(i))) {
+        i++;
+      }
+      if (i == start || i == end || !isWhitespace(b.get(i))) {
+        return false;
+      }
+      match.timestampStart = start;
+      match.timestampEnd = i;
+      match.headLineStart = i + 1;
+      match.headLineEnd = end;
+      return true;
+    }
+  }
+
+  /**
+   * Any other configured pattern. Group 1 is the timestamp and group 2 the headline.
+   */
+  static class RegexFormat extends LogFormat {
+    private final Pattern regex;
+
+    RegexFormat(String pattern, TimestampParser parser) {
+      super(pattern, parser);
+      this.regex = Pattern.compile(pattern, Pattern.DOTALL);
+    }
+
+    @Override
+    public boolean match(LineReader reader, Match match) {
+      String line = reader.line();
+      Matcher m = regex.matcher(line);
+      if (!m.matches() || m.group(1) == null) {
+        return false;
+      }
+      int start = reader.lineStart();
+      boolean ascii = line.length() == reader.lineEnd() - start;
+      match.timestampStart = start + byteOffset(line, m.start(1), ascii);
+      match.timestampEnd = start + byteOffset(line, m.end(1), ascii);
+      if (m.groupCount() > 1 && m.group(2) != null) {
+        match.headLineStart = start + byteOffset(line, m.start(2), ascii);
+        match.headLineEnd = start + byteOffset(line, m.end(2), ascii);
+      } else {
+        match.headLineStart = reader.lineEnd();
+        match.headLineEnd = reader.lineEnd();
+      }
+      return true;
+    }
+
+    private static int byteOffset(String line, int charOffset, boolean ascii) {
+      if (ascii) {
+        return charOffset;
+      }
+      return line.substring(0, charOffset).getBytes(StandardCharsets.UTF_8).length;
+    }
+  }
+}
@@ -23,7 +23,7 @@ import java.util.List;
 
 public class LogInstance {
   private final List<Aspect> aspects;
-  private final List<File> files = new ArrayList<File>();
+  private final List<LogSource> sources = new ArrayList<LogSource>();
   
   public LogInstance(List<Aspect> aspects) {
     this.aspects = aspects;
@@ -47,14 +47,25 @@ public class LogInstance {
     }
   }
   
-  public void track(File f) {
-    files.add(f);
+  public void track(LogSource source) {
+    sources.add(source);
+  }
+
+  /**
+   * @return the logs of this instance, in the order they are read
+   */
+  public List<LogSource> getSources() {
+    return sources;
   }
 
   /**
    * @return the files for tests
    */
   public List<File> getFiles() {
+    List<File> files = new ArrayList<File>();
+    for (LogSource source : sources) {
+      files.add(source.getFile());
+    }
     return files;
   }
   
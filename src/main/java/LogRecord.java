@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A log entry as handed to the aspects. A reader reuses one record for all the
+ * entries it reads, and each part of an entry is only decoded from the bytes of
+ * the log the first time an aspect asks for it. Most entries are never decoded at
+ * all, as no aspect is interested in them.
+ *
+ * A record read from a log is only valid until {@link Aspect#process(LogRecord)}
+ * returns, the bytes it is a view of may be gone after that. Aspects that keep any
+ * part of an entry have to keep it as a String. The views of an entry throw an
+ * IllegalStateException once the record has moved on to the next entry or its
+ * window of the log has ended.
+ */
+public class LogRecord {
+  private String filename;
+  private TimestampParser parser;
+
+  // the bytes of the entry, null for a record made of Strings
+  private ByteBuffer buffer;
+  private int timestampStart;
+  private int timestampEnd;
+  private int headLineStart;
+  private int headLineEnd;
+  private int bodyStart;
+  private int bodyEnd;
+  private byte[] scratch = new byte[256];
+  // counts the entries, views of an earlier entry are no longer valid
+  private int generation;
+  private final AsciiView headLineBytes = new AsciiView();
+  private final AsciiView headLineView = new AsciiView();
+
+  private String timestamp;
+  private long time;
+  private boolean timeParsed;
+  private CharSequence headLine;
+  private CharSequence body;
+
+  /**
+   * Creates a record of an entry that has already been decoded.
+   */
+  public LogRecord(String filename, String timestamp, long time, String headLine, String body) {
+    this.filename = filename;
+    this.timestamp = timestamp;
+    this.time = time;
+    this.timeParsed = true;
+    this.headLine = headLine;
+    this.body = body;
+  }
+
+  LogRecord(String filename, TimestampParser parser) {
+    this.filename = filename;
+    this.parser = parser;
+  }
+
+  /**
+   * Points the record at the next entry.
+   *
+   * @param bodyStart start of the line after the first line of the entry
+   * @param bodyEnd start of the line after the last line of the entry
+   */
+  void reset(ByteBuffer buffer, int timestampStart, int timestampEnd, int headLineStart, int headLineEnd,
+      int bodyStart, int bodyEnd) {
+    this.buffer = buffer;
+    this.timestampStart = timestampStart;
+    this.timestampEnd = timestampEnd;
+    this.headLineStart = headLineStart;
+    this.headLineEnd = headLineEnd;
+    this.bodyStart = bodyStart;
+    this.bodyEnd = bodyEnd;
+    timestamp = null;
+    timeParsed = false;
+    headLine = null;
+    body = null;
+    generation++;
+  }
+
+  /**
+   * Ends the views of the current entry, before the bytes they are views of go.
+   * Parts of it that were not asked for yet are null from then on.
+   */
+  void invalidate() {
+    buffer = null;
+    headLine = null;
+    body = null;
+    generation++;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  /**
+   * @return the timestamp as it is written in the log
+   */
+  public String getTimestamp() {
+    if (timestamp == null && buffer != null) {
+      timestamp = decode(timestampStart, timestampEnd);
+    }
+    return timestamp;
+  }
+
+  /**
+   * @return the timestamp in epoch millis or {@link TimestampParser#NO_TIMESTAMP} if
+   *         it is not known
+   */
+  public long getTime() {
+    if (!timeParsed) {
+      time = parser == null ? TimestampParser.NO_TIMESTAMP : parser.parse(getTimestamp());
+      timeParsed = true;
+    }
+    return time;
+  }
+
+  /**
+   * @return the first line of the entry, without the timestamp. Like the body, this
+   *         is a view of the bytes of the log where it can be, call toString() on
+   *         it to keep it.
+   */
+  public CharSequence getHeadLine() {
+    if (headLine == null && buffer != null) {
+      if (isAscii(headLineStart, headLineEnd)) {
+        headLineView.reset(buffer, headLineStart, headLineEnd);
+        headLine = headLineView;
+      } else {
+        headLine = decode(headLineStart, headLineEnd);
+      }
+    }
+    return headLine;
+  }
+
+  /**
+   * @return the rest of the entry, every line ending in a line break. Where it can
+   *         be, this is a view of the bytes of the log rather than a copy, call
+   *         toString() on it to keep it.
+   */
+  public CharSequence getBody() {
+    if (body == null && buffer != null) {
+      if (isPlainAscii(bodyStart, bodyEnd)) {
+        body = new AsciiView(buffer, bodyStart, bodyEnd);
+      } else {
+        body = decodeLines(bodyStart, bodyEnd);
+      }
+    }
+    return body;
+  }
+
+  /**
+   * @return the first line of the entry for matching on, bytes of multibyte
+   *         characters are chars of their own
+   */
+  CharSequence getHeadLineBytes() {
+    if (buffer == null) {
+      return headLine;
+    }
+    headLineBytes.reset(buffer, headLineStart, headLineEnd);
+    return headLineBytes;
+  }
+
+  private boolean isAscii(int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the range has no multibyte characters or carriage returns and
+   *         is empty or ends with a line break, so it needs no decoding
+   */
+  private boolean isPlainAscii(int start, int end) {
+    if (start == end) {
+      return true;
+    }
+    if (buffer.get(end - 1) != '\n') {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      byte b = buffer.get(i);
+      if (b < 0 || b == '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String decodeLines(int start, int end) {
+    StringBuilder sb = new StringBuilder(end - start + 1);
+    LineReader reader = new LineReader(slice(start, end), true);
+    while (reader.next()) {
+      sb.append(reader.line()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private ByteBuffer slice(int start, int end) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.limit(end).position(start);
+    return slice.slice();
+  }
+
+  private String decode(int start, int end) {
+    int length = end - start;
+    if (length > scratch.length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    for (int i = 0; i < length; i++) {
+      scratch[i] = buffer.get(start + i);
+    }
+    return new String(scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Bytes read as chars, for ASCII text, only valid for the entry it was made for.
+   */
+  private class AsciiView implements CharSequence {
+    private ByteBuffer buffer;
+    private int start;
+    private int end;
+    private int viewGeneration;
+
+    AsciiView() {}
+
+    AsciiView(ByteBuffer buffer, int start, int end) {
+      reset(buffer, start, end);
+    }
+
+    void reset(ByteBuffer buffer, int start, int end) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+      this.viewGeneration = generation;
+    }
+
+    private void checkValid() {
+      if (viewGeneration != generation) {
+        throw new IllegalStateException("The entry of " + filename + " this is a view of is gone, "
+            + "call toString() on it to keep it");
+      }
+    }
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      checkValid();
+      return (char) (buffer.get(start + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      checkValid();
+      return new AsciiView(buffer, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+      checkValid();
+      byte[] bytes = new byte[end - start];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = buffer.get(start + i);
+      }
+      return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+  }
+}
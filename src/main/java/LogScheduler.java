@@ -0,0 +1,587 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the files of all log instances on one shared work stealing pool.
+ *
+ * Every file is split into entry aligned chunks and each chunk is a task, so a
+ * thread that runs out of work on one file steals chunks of another. Compressed
+ * files can't be split and are read by a single task each, fed by a
+ * {@link DecompressionPipeline}. The entries of a tar.gz archive are all read in a
+ * single pass over the archive, see {@link ArchivePass}. The files of
+ * a single instance are still read one after another: an instance's aspects get
+ * {@link Aspect#endOfFile()} once all chunks of a file are done and before any
+ * chunk of its next file is read. Different instances are read at the same time.
+ *
+ * Every chunk is read into partials of its instance's aspects, see
+ * {@link Aspect#newPartial()}, so no two threads ever touch the same aspect, unless
+ * it is one that can't be split up. The partials of the chunks are merged in chunk
+ * order once the file is done, and then into the aspects. What the partials of a file collected is what an
+ * {@link AspectCache} keeps.
+ */
+public class LogScheduler {
+  private final ForkJoinPool pool;
+  private final int threads;
+  private final LogFormat[] formats;
+  private final long chunkSize;
+  private final int mapWindow;
+  private final SolrLogReader.Range range;
+  private final PrintStream out;
+
+  private int runningInstances;
+  private boolean holdBack;
+  private AspectCache cache;
+  private final Map<File,Long> heldBackOffsets = new ConcurrentHashMap<File,Long>();
+  private final Map<File,ArchivePass> archives = new HashMap<File,ArchivePass>();
+
+  /**
+   * @param threads max number of files chunks read at the same time
+   * @param chunkSize chunk size or 0 to pick one based on file size
+   * @param mapWindow max number of bytes of a chunk mapped at once
+   */
+  public LogScheduler(int threads, LogFormat[] formats, long chunkSize, int mapWindow, SolrLogReader.Range range,
+      PrintStream out) {
+    this.threads = threads;
+    this.formats = formats;
+    this.chunkSize = chunkSize;
+    this.mapWindow = mapWindow;
+    this.range = range;
+    this.out = out;
+    // async mode, tasks are never joined so FIFO order suits them better
+    this.pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+  }
+
+  /**
+   * Leaves the last entry of each plain log file unprocessed, for logs that are
+   * followed as they are written. Must be set before anything is scheduled.
+   */
+  public void setHoldBack(boolean holdBack) {
+    this.holdBack = holdBack;
+  }
+
+  /**
+   * Keeps the results of each log in the cache, and only reads what was not
+   * cached. Must be set before anything is scheduled.
+   */
+  public void setCache(AspectCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * @return for each plain log file read with hold back on, the offset of its held
+   *         back entry
+   */
+  public Map<File,Long> getHeldBackOffsets() {
+    return heldBackOffsets;
+  }
+
+  /**
+   * Queues the files of an instance, to be read in the given order. Entries of
+   * tar.gz archives are only read once {@link #awaitCompletion()} is called, so
+   * each archive is read in one pass for all instances.
+   */
+  public void schedule(LogInstance logInstance, List<LogSource> sources) {
+    InstanceJob job = new InstanceJob(logInstance.getAspects(), new ArrayList<LogSource>(sources).iterator());
+    synchronized (this) {
+      runningInstances++;
+      // read ahead of the instance, which only works if its aspects can be split up
+      if (job.isSplit(job.newPartials())) {
+        for (LogSource source : sources) {
+          if (source.isInCompressedArchive()) {
+            ArchivePass pass = archives.get(source.getFile());
+            if (pass == null) {
+              pass = new ArchivePass(source.getFile());
+              archives.put(source.getFile(), pass);
+            }
+            if (pass.add(source, job)) {
+              job.passes.put(source, pass);
+            }
+          }
+        }
+      }
+    }
+    job.nextFile();
+  }
+
+  /**
+   * Waits until every scheduled file has been read.
+   */
+  public synchronized void awaitCompletion() throws InterruptedException {
+    for (ArchivePass pass : archives.values()) {
+      pass.start();
+    }
+    while (runningInstances > 0) {
+      wait();
+    }
+  }
+
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  private synchronized void instanceDone() {
+    runningInstances--;
+    notifyAll();
+  }
+
+  private void submit(Runnable task) {
+    ForkJoinTask<?> fjTask = ForkJoinTask.adapt(task);
+    if (ForkJoinTask.inForkJoinPool()) {
+      // keep it in this worker's own queue, idle workers will steal it
+      fjTask.fork();
+    } else {
+      pool.execute(fjTask);
+    }
+  }
+
+  /**
+   * Reads the entries of a tar.gz archive for all instances in a single pass over
+   * the archive, see {@link LogSource#readCompressedArchive}. An entry is read into
+   * partials as soon as the pass gets to it, but only merged once its instance gets
+   * to it, so each instance still gets its files in order.
+   */
+  private class ArchivePass implements Runnable, LogSource.EntryVisitor {
+    private final File file;
+    private final Map<LogSource,InstanceJob> owners = new LinkedHashMap<LogSource,InstanceJob>();
+    private final Set<LogSource> visited = new HashSet<LogSource>();
+    // entries read before their instance got to them
+    private final Map<LogSource,InstanceJob.FileJob> read = new HashMap<LogSource,InstanceJob.FileJob>();
+    // entries their instance got to before they were read
+    private final Set<LogSource> reached = new HashSet<LogSource>();
+    private boolean started;
+
+    ArchivePass(File file) {
+      this.file = file;
+    }
+
+    /**
+     * @return false if the pass has started already and the entry is to be read on
+     *         its own
+     */
+    synchronized boolean add(LogSource entry, InstanceJob owner) {
+      if (started) {
+        return false;
+      }
+      owners.put(entry, owner);
+      return true;
+    }
+
+    synchronized void start() {
+      if (!started) {
+        started = true;
+        submit(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      List<LogSource> entries;
+      synchronized (this) {
+        entries = new ArrayList<LogSource>(owners.keySet());
+      }
+      try {
+        LogSource.readCompressedArchive(file, entries, this);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      // whatever the pass did not get to is read on its own
+      for (LogSource entry : entries) {
+        boolean done;
+        synchronized (this) {
+          done = visited.contains(entry);
+        }
+        if (!done) {
+          visit((LogSource.Stream) entry, (LogSource.Stream) entry);
+        }
+      }
+    }
+
+    @Override
+    public void visit(LogSource.Stream entry, LogSource.Stream content) {
+      InstanceJob owner;
+      synchronized (this) {
+        owner = owners.get(entry);
+        visited.add(entry);
+      }
+      InstanceJob.FileJob job = owner.new FileJob(entry);
+      job.readEntry(content);
+      synchronized (this) {
+        if (!reached.remove(entry)) {
+          read.put(entry, job);
+          return;
+        }
+      }
+      job.finish();
+    }
+
+    /**
+     * Called once the instance of the entry gets to it.
+     */
+    void reached(LogSource entry) {
+      InstanceJob.FileJob job;
+      synchronized (this) {
+        job = read.remove(entry);
+        if (job == null) {
+          reached.add(entry);
+          return;
+        }
+      }
+      job.finish();
+    }
+  }
+
+  /**
+   * Reads the files of one instance, one file at a time.
+   */
+  private class InstanceJob {
+    private final List<Aspect> aspects;
+    private final Iterator<LogSource> files;
+    // the archive passes that read entries of this instance
+    final Map<LogSource,ArchivePass> passes = new HashMap<LogSource,ArchivePass>();
+
+    InstanceJob(List<Aspect> aspects, Iterator<LogSource> files) {
+      this.aspects = aspects;
+      this.files = files;
+    }
+
+    void nextFile() {
+      if (!files.hasNext()) {
+        instanceDone();
+        return;
+      }
+      final LogSource source = files.next();
+      ArchivePass pass = passes.get(source);
+      if (pass != null) {
+        pass.reached(source);
+        return;
+      }
+      submit(new Runnable() {
+        @Override
+        public void run() {
+          FileJob job = new FileJob(source);
+          if (source instanceof LogSource.Stream) {
+            job.readStream((LogSource.Stream) source);
+          } else {
+            job.startFile((LogSource.Region) source);
+          }
+        }
+      });
+    }
+
+    /**
+     * @return new partials of the aspects, an aspect that can't be split up stands
+     *         in for its own partials
+     */
+    private List<Aspect> newPartials() {
+      List<Aspect> partials = new ArrayList<Aspect>(aspects.size());
+      for (Aspect aspect : aspects) {
+        Aspect partial = aspect.newPartial();
+        partials.add(partial != null ? partial : aspect);
+      }
+      return partials;
+    }
+
+    private boolean isSplit(List<Aspect> partials) {
+      for (int i = 0; i < aspects.size(); i++) {
+        if (partials.get(i) == aspects.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void merge(Aspect into, Aspect partial) {
+      if (into != partial) {
+        into.merge(partial);
+      }
+    }
+
+    /**
+     * Reads a single file into partials of the instance's aspects, which are merged
+     * into the aspects once the file is done. Whatever was cached for the file is
+     * loaded into the partials first and only the rest of the file is read.
+     *
+     * Aspects that can't be split up get the entries of all chunks of the file
+     * themselves, from many threads at once, and no results of the file are cached.
+     */
+    private class FileJob {
+      private final LogSource source;
+      private List<Aspect> partials;
+      private final boolean split;
+      // where the cached results end, -1 if nothing was cached
+      private long cachedOffset = -1;
+      private volatile boolean failed;
+
+      FileJob(LogSource source) {
+        this.source = source;
+        this.partials = newPartials();
+        this.split = isSplit(partials);
+        if (caching()) {
+          cachedOffset = cache.load(source, source.isPlainFile(), partials);
+          if (cachedOffset == -1) {
+            // may hold part of what was cached
+            partials = newPartials();
+          }
+        }
+      }
+
+      private boolean caching() {
+        return cache != null && split;
+      }
+
+      void readStream(LogSource.Stream source) {
+        try {
+          readEntry(source);
+        } finally {
+          endOfFile();
+        }
+      }
+
+      /**
+       * Reads a compressed file into the partials, from the content given.
+       */
+      void readEntry(LogSource.Stream content) {
+        if (cachedOffset != -1) {
+          out.println("Processing file: " + source.getName() + " (cached)");
+          return;
+        }
+        out.println("Processing file: " + source.getName());
+        try {
+          StreamReader reader = new StreamReader(content, partials, formats, range, mapWindow, out);
+          reader.run();
+          if (caching() && !reader.hasFailed()) {
+            cache.store(source, source.getLength(), partials);
+          }
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      }
+
+      /**
+       * Merges a file read ahead of its instance, once the instance gets to it.
+       */
+      void finish() {
+        submit(new Runnable() {
+          @Override
+          public void run() {
+            endOfFile();
+          }
+        });
+      }
+
+      void startFile(final LogSource.Region source) {
+        final File file = source.getFile();
+        long offset = source.getOffset();
+        long end = offset + source.getLength();
+        boolean plain = source.isPlainFile();
+        if (cachedOffset != -1 && !plain) {
+          out.println("Processing file: " + source.getName() + " (cached)");
+          endOfFile();
+          return;
+        }
+        if (cachedOffset != -1) {
+          out.println("Processing file: " + source.getName() + " (cached up to byte " + cachedOffset + ")");
+        } else {
+          out.println("Processing file: " + source.getName());
+        }
+        long from = cachedOffset != -1 ? cachedOffset : offset;
+        long[] chunks = null;
+        LogFormat format = null;
+        try {
+          RandomAccessFile raf = new RandomAccessFile(file, "r");
+          try {
+            long length = source.getLength();
+            int sniffLength = LogFormat.sniffLength(length);
+            MappedByteBuffer head = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, sniffLength);
+            try {
+              format = LogFormat.sniff(head, sniffLength == length, formats);
+            } finally {
+              Unmapper.unmap(head);
+            }
+            if (format != null) {
+              long size = chunkSize > 0 ? chunkSize : ChunkSplitter.defaultChunkSize(end - from, threads);
+              chunks = new ChunkSplitter(raf.getChannel(), from, end, format).split(size);
+            }
+          } finally {
+            raf.close();
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+
+        if (chunks == null) {
+          if (format == null) {
+            // no log entries found, could not match on timestamp
+            out.println("No configured timestamp pattern matched file: " + source.getName());
+          }
+          endOfFile();
+          return;
+        }
+
+        // the last entry of a plain file is held back for followers and is never
+        // cached, as it may still get more lines
+        final boolean holdBackFile = plain && (holdBack || caching());
+        final long fileEnd = end;
+        final LogFormat fileFormat = format;
+        final ChunkMerger merger = new ChunkMerger(chunks.length - 1);
+        for (int i = 0; i < chunks.length - 1; i++) {
+          final int chunk = i;
+          final long chunkStart = chunks[i];
+          final long chunkEnd = chunks[i + 1];
+          final boolean lastChunk = i == chunks.length - 2;
+          submit(new Runnable() {
+            @Override
+            public void run() {
+              // each chunk collects into partials of its own, so readers share nothing,
+              // made only once the chunk runs so they don't pile up for queued chunks
+              List<Aspect> chunkTarget = null;
+              try {
+                chunkTarget = newPartials();
+                ReaderThread reader = new ReaderThread(file, source.getName(), chunkStart, chunkEnd, chunkTarget,
+                    fileFormat, range, mapWindow);
+                reader.setHoldBackLastEntry(lastChunk && holdBackFile);
+                reader.run();
+                if (reader.hasFailed()) {
+                  failed = true;
+                }
+                if (lastChunk) {
+                  merger.heldBackOffset = reader.getHeldBackOffset();
+                }
+                endOfChunk(chunkTarget);
+              } catch (RuntimeException e) {
+                failed = true;
+                e.printStackTrace();
+              } finally {
+                if (merger.done(chunk, chunkTarget)) {
+                  if (holdBackFile) {
+                    heldBack(merger.heldBackOffset, fileEnd, fileFormat);
+                  }
+                  endOfFile();
+                }
+              }
+            }
+          });
+        }
+      }
+
+      private void endOfChunk(List<Aspect> chunkTarget) {
+        for (int i = 0; i < aspects.size(); i++) {
+          if (chunkTarget.get(i) != aspects.get(i)) {
+            chunkTarget.get(i).endOfChunk();
+          }
+        }
+      }
+
+      /**
+       * Merges what the chunks collected into the partials of the file, in chunk
+       * order, so the results are the same whichever chunk was done first. A chunk
+       * is merged as soon as all chunks before it are, so only the partials of
+       * chunks that are running or waiting on an earlier one are kept.
+       */
+      private class ChunkMerger {
+        private final List<List<Aspect>> waiting;
+        private int merged;
+        // of the last chunk, set before it is done
+        volatile long heldBackOffset = -1;
+
+        ChunkMerger(int chunks) {
+          waiting = new ArrayList<List<Aspect>>(Collections.<List<Aspect>> nCopies(chunks, null));
+        }
+
+        /**
+         * @param chunkTarget the partials of the chunk, null if it failed before it
+         *          had any
+         * @return true once every chunk has been merged
+         */
+        synchronized boolean done(int chunk, List<Aspect> chunkTarget) {
+          waiting.set(chunk, chunkTarget == null ? Collections.<Aspect> emptyList() : chunkTarget);
+          while (merged < waiting.size() && waiting.get(merged) != null) {
+            List<Aspect> next = waiting.get(merged);
+            waiting.set(merged, null);
+            merged++;
+            try {
+              for (int i = 0; i < next.size(); i++) {
+                merge(partials.get(i), next.get(i));
+              }
+            } catch (RuntimeException e) {
+              failed = true;
+              e.printStackTrace();
+            }
+          }
+          return merged == waiting.size();
+        }
+      }
+
+      /**
+       * Caches what was read up to the held back entry, then reads that entry too
+       * unless the file is followed.
+       */
+      private void heldBack(long heldBackOffset, long end, LogFormat format) {
+        if (heldBackOffset == -1) {
+          heldBackOffset = end;
+        }
+        try {
+          if (caching() && !failed && heldBackOffset != cachedOffset) {
+            cache.store(source, heldBackOffset, partials);
+          }
+          if (holdBack) {
+            heldBackOffsets.put(source.getFile(), heldBackOffset);
+          } else if (heldBackOffset < end) {
+            new ReaderThread(source.getFile(), source.getName(), heldBackOffset, end, partials, format, range,
+                mapWindow).run();
+          }
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      }
+
+      private void endOfFile() {
+        try {
+          for (int i = 0; i < aspects.size(); i++) {
+            merge(aspects.get(i), partials.get(i));
+          }
+          for (Aspect aspect : aspects) {
+            aspect.endOfFile();
+          }
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+        nextFile();
+      }
+    }
+  }
+}
@@ -0,0 +1,653 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A log to read. Either a region of a file on disk that can be memory mapped and
+ * split into chunks - a plain log file or an entry of a tar archive - or a stream
+ * of decompressed bytes - a gzip file or an entry of a zip or tar.gz archive.
+ *
+ * Archive entries are read straight out of the archive, nothing is extracted to
+ * disk. They are named archive!entry, so the rotated logs in an archive are grouped
+ * into instances the same way as logs in a folder.
+ */
+public abstract class LogSource {
+  private static final int TAR_BLOCK = 512;
+  private static final int TAR_MAGIC_OFFSET = 257;
+
+  private static final Comparator<TarEntrySource> BY_OFFSET = new Comparator<TarEntrySource>() {
+    @Override
+    public int compare(TarEntrySource s1, TarEntrySource s2) {
+      return Long.compare(s1.entry.offset, s2.entry.offset);
+    }
+  };
+
+  private final File file;
+  private final String name;
+  private final String path;
+  private final long length;
+
+  LogSource(File file, String name, String path, long length) {
+    this.file = file;
+    this.name = name;
+    this.path = path;
+    this.length = length;
+  }
+
+  /**
+   * @return the file on disk this log is read from
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the name of the log, used to group logs into instances
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the size of the log in bytes, uncompressed if that is known
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * @return true for a plain log file, the only kind of log that is still written to
+   */
+  public boolean isPlainFile() {
+    return false;
+  }
+
+  /**
+   * @return true for an entry of a tar.gz archive, which is best read along with
+   *         the other entries of the archive, see {@link #readCompressedArchive}
+   */
+  public boolean isInCompressedArchive() {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+  /**
+   * A log stored uncompressed in [offset, offset + length) of a file.
+   */
+  public static class Region extends LogSource {
+    private final long offset;
+
+    Region(File file, String name, String path, long offset, long length) {
+      super(file, name, path, length);
+      this.offset = offset;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    @Override
+    public boolean isPlainFile() {
+      return offset == 0 && getName().equals(getFile().getName());
+    }
+  }
+
+  /**
+   * A compressed log, read front to back.
+   */
+  public abstract static class Stream extends LogSource {
+    Stream(File file, String name, String path, long length) {
+      super(file, name, path, length);
+    }
+
+    /**
+     * @return the decompressed bytes of the log
+     */
+    public abstract InputStream open() throws IOException;
+  }
+
+  /**
+   * Gets the entries of a compressed archive as a pass over the archive gets to
+   * them.
+   */
+  public interface EntryVisitor {
+    /**
+     * @param content the entry as read out of the pass, it can be opened once and
+     *          the pass goes on when it is closed
+     */
+    void visit(Stream entry, Stream content) throws IOException;
+  }
+
+  /**
+   * Adds the logs of a file found on disk: the file itself, or the entries of an
+   * archive. Compression and archive type are told by content, not by file name.
+   */
+  public static void expand(File file, List<LogSource> sources) throws IOException {
+    byte[] head = readHead(new FileInputStream(file));
+    if (isZip(head)) {
+      expandZip(file, sources);
+    } else if (isGzip(head)) {
+      if (isTar(readGzipHead(file))) {
+        expandTarGz(file, sources);
+      } else {
+        sources.add(new GzipFile(file));
+      }
+    } else if (isTar(head)) {
+      expandTar(file, sources);
+    } else {
+      sources.add(new Region(file, file.getName(), file.getPath(), 0, file.length()));
+    }
+  }
+
+  private static void expandZip(File file, List<LogSource> sources) throws IOException {
+    ZipFile zip = new ZipFile(file);
+    try {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (!entry.isDirectory()) {
+          long size = entry.getSize() >= 0 ? entry.getSize() : Math.max(0, entry.getCompressedSize());
+          sources.add(new ZipEntrySource(file, entry.getName(), size));
+        }
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  private static void expandTar(File file, List<LogSource> sources) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      for (TarEntry entry : readTarEntries(in)) {
+        if (isGzipName(entry.name)) {
+          sources.add(new TarEntrySource(file, entry, false));
+        } else {
+          sources.add(new Region(file, entryName(file, entry.name), entryPath(file, entry.name), entry.offset,
+              entry.size));
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void expandTarGz(File file, List<LogSource> sources) throws IOException {
+    // a gzip stream can't be seeked, so this costs a pass over the archive to find
+    // the entries, see readCompressedArchive for reading them
+    InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      for (TarEntry entry : readTarEntries(in)) {
+        sources.add(new TarEntrySource(file, entry, true));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Inflates a tar.gz archive once, front to back, and hands the given entries of
+   * it to the visitor in archive order. Opening each entry on its own would inflate
+   * the archive from the start up to the entry every time.
+   */
+  public static void readCompressedArchive(File file, List<? extends LogSource> entries, EntryVisitor visitor)
+      throws IOException {
+    List<TarEntrySource> sorted = new ArrayList<TarEntrySource>();
+    for (LogSource entry : entries) {
+      sorted.add((TarEntrySource) entry);
+    }
+    Collections.sort(sorted, BY_OFFSET);
+    InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)), 64 * 1024);
+    try {
+      long position = 0;
+      for (TarEntrySource source : sorted) {
+        if (source.entry.offset < position) {
+          // the same entry twice, the pass is past it already
+          visitor.visit(source, source);
+          continue;
+        }
+        skipFully(in, source.entry.offset - position);
+        EntryContent content = new EntryContent(in, source.entry.size);
+        visitor.visit(source, source.view(content));
+        content.awaitClosed();
+        skipFully(in, content.remaining());
+        position = source.entry.offset + source.entry.size;
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String entryName(File archive, String entry) {
+    return archive.getName() + "!" + stripGz(entry);
+  }
+
+  private static String entryPath(File archive, String entry) {
+    return archive.getPath() + "!" + stripGz(entry);
+  }
+
+  private static boolean isGzipName(String name) {
+    return name.endsWith(".gz");
+  }
+
+  private static String stripGz(String name) {
+    return isGzipName(name) ? name.substring(0, name.length() - 3) : name;
+  }
+
+  private static class GzipFile extends Stream {
+    GzipFile(File file) {
+      super(file, stripGz(file.getName()), stripGz(file.getPath()), file.length());
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+      InputStream in = new FileInputStream(getFile());
+      try {
+        return new GZIPInputStream(in, 64 * 1024);
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+  }
+
+  private static class ZipEntrySource extends Stream {
+    private final String entry;
+
+    ZipEntrySource(File file, String entry, long size) {
+      super(file, entryName(file, entry), entryPath(file, entry), size);
+      this.entry = entry;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+      final ZipFile zip = new ZipFile(getFile());
+      try {
+        ZipEntry zipEntry = zip.getEntry(entry);
+        if (zipEntry == null) {
+          throw new IOException("No entry " + entry + " in " + getFile());
+        }
+        InputStream in = new FilterInputStream(zip.getInputStream(zipEntry)) {
+          @Override
+          public void close() throws IOException {
+            zip.close();
+          }
+        };
+        return isGzipName(entry) ? new GZIPInputStream(in, 64 * 1024) : in;
+      } catch (IOException e) {
+        zip.close();
+        throw e;
+      }
+    }
+  }
+
+  private static class TarEntrySource extends Stream {
+    private final TarEntry entry;
+    private final boolean compressedArchive;
+
+    TarEntrySource(File file, TarEntry entry, boolean compressedArchive) {
+      super(file, entryName(file, entry.name), entryPath(file, entry.name), entry.size);
+      this.entry = entry;
+      this.compressedArchive = compressedArchive;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+      InputStream in = new FileInputStream(getFile());
+      try {
+        if (compressedArchive) {
+          in = new GZIPInputStream(new BufferedInputStream(in), 64 * 1024);
+        }
+        skipFully(in, entry.offset);
+        in = new LimitedInputStream(in, entry.size);
+        return isGzipName(entry.name) ? new GZIPInputStream(in, 64 * 1024) : in;
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean isInCompressedArchive() {
+      return compressedArchive;
+    }
+
+    /**
+     * @return this entry, read from the content given instead of from the archive
+     */
+    Stream view(final EntryContent content) {
+      return new Stream(getFile(), getName(), toString(), getLength()) {
+        @Override
+        public InputStream open() throws IOException {
+          content.opened();
+          if (!isGzipName(entry.name)) {
+            return content;
+          }
+          try {
+            return new GZIPInputStream(content, 64 * 1024);
+          } catch (IOException e) {
+            content.close();
+            throw e;
+          }
+        }
+      };
+    }
+  }
+
+  static class TarEntry {
+    String name;
+    long offset;
+    long size;
+  }
+
+  /**
+   * @return the regular files in a tar archive, with the offsets of their content
+   */
+  static List<TarEntry> readTarEntries(InputStream in) throws IOException {
+    List<TarEntry> entries = new ArrayList<TarEntry>();
+    byte[] header = new byte[TAR_BLOCK];
+    long offset = 0;
+    String longName = null;
+    while (readBlock(in, header)) {
+      offset += TAR_BLOCK;
+      if (isZeros(header)) {
+        // end of archive
+        break;
+      }
+      String name = longName != null ? longName : tarName(header);
+      longName = null;
+      long size = tarSize(header);
+      byte type = header[156];
+      if (type == 'L' || type == 'x') {
+        // GNU long name or pax header, holds the name of the next entry
+        byte[] data = new byte[(int) size];
+        readFully(in, data);
+        skipFully(in, padding(size));
+        offset += size + padding(size);
+        longName = type == 'L' ? cString(data, 0, data.length) : paxPath(data);
+        continue;
+      }
+      if (type == '0' || type == 0 || type == '7') {
+        TarEntry entry = new TarEntry();
+        entry.name = name;
+        entry.offset = offset;
+        entry.size = size;
+        entries.add(entry);
+      }
+      skipFully(in, size + padding(size));
+      offset += size + padding(size);
+    }
+    return entries;
+  }
+
+  private static String tarName(byte[] header) {
+    String name = cString(header, 0, 100);
+    if (isTar(header)) {
+      String prefix = cString(header, 345, 155);
+      if (prefix.length() > 0) {
+        name = prefix + "/" + name;
+      }
+    }
+    return name;
+  }
+
+  private static long tarSize(byte[] header) {
+    if ((header[124] & 0x80) != 0) {
+      // base 256, used for sizes over 8GB
+      long size = 0;
+      for (int i = 125; i < 136; i++) {
+        size = (size << 8) | (header[i] & 0xff);
+      }
+      return size;
+    }
+    long size = 0;
+    for (int i = 124; i < 136; i++) {
+      byte b = header[i];
+      if (b >= '0' && b <= '7') {
+        size = (size << 3) + (b - '0');
+      } else if (b != ' ' || size > 0) {
+        break;
+      }
+    }
+    return size;
+  }
+
+  private static String paxPath(byte[] data) {
+    // records are "<length> <key>=<value>\n"
+    String records = new String(data, StandardCharsets.UTF_8);
+    for (String record : records.split("\n")) {
+      int space = record.indexOf(' ');
+      if (space > 0 && record.startsWith("path=", space + 1)) {
+        return record.substring(space + 1 + "path=".length());
+      }
+    }
+    return null;
+  }
+
+  private static long padding(long size) {
+    return (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK;
+  }
+
+  private static String cString(byte[] bytes, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && bytes[end] != 0) {
+      end++;
+    }
+    return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+  }
+
+  private static boolean isZeros(byte[] bytes) {
+    for (byte b : bytes) {
+      if (b != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] readHead(InputStream in) throws IOException {
+    try {
+      byte[] head = new byte[TAR_BLOCK];
+      int read = 0;
+      int n;
+      while (read < head.length && (n = in.read(head, read, head.length - read)) != -1) {
+        read += n;
+      }
+      return head;
+    } catch (IOException e) {
+      // not what it looked like, read it as plain text
+      return new byte[TAR_BLOCK];
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] readGzipHead(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      in = new GZIPInputStream(in);
+    } catch (IOException e) {
+      in.close();
+      return new byte[TAR_BLOCK];
+    }
+    return readHead(in);
+  }
+
+  private static boolean isZip(byte[] head) {
+    return head[0] == 'P' && head[1] == 'K' && ((head[2] == 3 && head[3] == 4) || (head[2] == 5 && head[3] == 6));
+  }
+
+  private static boolean isGzip(byte[] head) {
+    return (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b;
+  }
+
+  private static boolean isTar(byte[] head) {
+    return head[TAR_MAGIC_OFFSET] == 'u' && head[TAR_MAGIC_OFFSET + 1] == 's' && head[TAR_MAGIC_OFFSET + 2] == 't'
+        && head[TAR_MAGIC_OFFSET + 3] == 'a' && head[TAR_MAGIC_OFFSET + 4] == 'r';
+  }
+
+  private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+    int read = 0;
+    while (read < block.length) {
+      int n = in.read(block, read, block.length - read);
+      if (n == -1) {
+        if (read == 0) {
+          return false;
+        }
+        throw new EOFException("Truncated tar archive");
+      }
+      read += n;
+    }
+    return true;
+  }
+
+  private static void readFully(InputStream in, byte[] bytes) throws IOException {
+    if (!readBlock(in, bytes) && bytes.length > 0) {
+      throw new EOFException("Truncated tar archive");
+    }
+  }
+
+  private static void skipFully(InputStream in, long n) throws IOException {
+    while (n > 0) {
+      long skipped = in.skip(n);
+      if (skipped <= 0) {
+        if (in.read() == -1) {
+          throw new EOFException("Truncated tar archive");
+        }
+        skipped = 1;
+      }
+      n -= skipped;
+    }
+  }
+
+  /**
+   * Reads at most a given number of bytes of a stream.
+   */
+  private static class LimitedInputStream extends FilterInputStream {
+    private long remaining;
+
+    LimitedInputStream(InputStream in, long limit) {
+      super(in);
+      this.remaining = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = in.read();
+      if (b != -1) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n > 0) {
+        remaining -= n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    /**
+     * @return the number of bytes left to read
+     */
+    long remaining() {
+      return remaining;
+    }
+  }
+
+  /**
+   * The content of an entry, read out of a pass over its archive. Closing it leaves
+   * the archive open for the pass to go on.
+   */
+  private static class EntryContent extends LimitedInputStream {
+    private boolean opened;
+    private boolean closed;
+
+    EntryContent(InputStream in, long limit) {
+      super(in, limit);
+    }
+
+    synchronized void opened() {
+      opened = true;
+    }
+
+    @Override
+    public synchronized void close() {
+      closed = true;
+      notifyAll();
+    }
+
+    /**
+     * Waits until whoever opened the content is done with it.
+     */
+    synchronized void awaitClosed() throws InterruptedIOException {
+      while (opened && !closed) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for an entry to be read");
+        }
+      }
+    }
+  }
+}
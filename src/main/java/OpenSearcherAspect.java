@@ -16,39 +16,174 @@
  * limitations under the License.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.google.common.collect.MinMaxPriorityQueue;
 
-// TODO: not finished
+/**
+ * Pairs the opening of each main searcher with its registration as the entries
+ * come in. A pair goes right into the load time stats, and an open that is not
+ * registered within the window is dropped and counted as not registered, so only
+ * the searchers that are being opened right now are kept.
+ *
+ * The load time of a searcher is split up into the autowarming of each of its
+ * caches, its newSearcher listeners and the rest, and added to the warming stats
+ * of its core. Caches are only logged with their autowarming results by Solr 4,
+ * or at debug level.
+ *
+ * A partial can't pair what it sees of a searcher with an open that came before
+ * its entries. It keeps what may still be paired that way, what is within the
+ * window of its first searcher entry, and pairs it when it is merged.
+ */
 public class OpenSearcherAspect extends Aspect {
+  public static final long DEFAULT_WINDOW = 10 * 60 * 1000;
   private static int NUM_SLOWEST_LOAD_TIMES = 5;
+  private static final String NO_CORE = "(unknown core)";
   public static Pattern INIT_SEARCHER = Pattern.compile(".*?SolrIndexSearcher <init>.*");
-  public static Pattern OPEN_SEARCHER_ID = Pattern.compile(".*?Opening Searcher@(\\S+?)(?:\\[.*?\\])? (realtime|main).*?");
-  public static Pattern REGISTER_SEARCHER_ID = Pattern.compile(".*?Registered new searcher Searcher@(\\S+?)(?:\\[.*?\\])? .*?");
+  public static Pattern OPEN_SEARCHER_ID = Pattern.compile(".*?Opening \\[?Searcher@(\\S+?)(?:\\[.*?\\])? (realtime|main).*?");
+  public static Pattern REGISTER_SEARCHER_ID = Pattern.compile(".*?(?:\\[(\\S*?)\\] )?Registered new searcher Searcher@(\\S+?)(?:\\[(.*?)\\])? .*?");
+  public static Pattern AUTOWARM_RESULT = Pattern.compile(".*?autowarming result for \\[?Searcher@([^\\s\\[\\]]+).*", Pattern.DOTALL);
+  public static Pattern LISTENER_START = Pattern.compile(".*?QuerySenderListener sending requests to \\[?Searcher@([^\\s\\[\\]]+).*?");
+  // a cache and its stats, such as filterCache{lookups=0,hits=0,...,size=12,warmupTime=3,...}
+  public static Pattern CACHE_STATS = Pattern.compile("(\\w+)\\{([^{}]*)\\}");
+  public static Pattern CACHE_SIZE = Pattern.compile("(?:^|[\\s,])size=(\\d+)");
+  public static Pattern CACHE_WARMUP_TIME = Pattern.compile("(?:^|[\\s,])warmupTime=(\\d+)");
   
-  private Map<String,OpenSearcherEvent> mainSearchers = Collections.synchronizedMap(new HashMap<String,OpenSearcherEvent>());
-  private Map<String,OpenSearcherEvent> realtimeSearchers = Collections.synchronizedMap(new HashMap<String,OpenSearcherEvent>());
-  private Map<String,RegisterSearcherEvent> registerSearchers = Collections.synchronizedMap(new HashMap<String,RegisterSearcherEvent>());
-  private AtomicLong mainOpens = new AtomicLong(0);
-  private AtomicLong realtimeOpens = new AtomicLong(0);
-  private AtomicLong registers = new AtomicLong(0);
+  // max millis from opening a searcher to registering it
+  private final long window;
+  // main searchers not registered yet, in the order they were opened
+  private LinkedHashMap<String,Warming> openSearchers = new LinkedHashMap<String,Warming>();
+  // searchers this has not seen opened, that may have been opened before
+  private LinkedHashMap<String,Warming> unopenedSearchers = new LinkedHashMap<String,Warming>();
+  // the searcher the newSearcher listeners are running for
+  private String listenerSearcher;
+  private boolean listenerStarted;
+  // when the listeners were done for a searcher this did not see them start for
+  private long listenerDone = TimestampParser.NO_TIMESTAMP;
+  private long firstTime = TimestampParser.NO_TIMESTAMP;
+  private long lastTime = TimestampParser.NO_TIMESTAMP;
+  private long mainOpens;
+  private long realtimeOpens;
+  private long registers;
+  private long notRegistered;
+  private TimeSeries opens = new TimeSeries("Main searcher opens", false);
   
+  private long loadTotal;
+  private LatencyHistogram loadTimeHistogram = new LatencyHistogram();
   private MinMaxPriorityQueue<Long> loadTimes;
+  // core -> cache, listeners or the rest -> warming stats
+  private Map<String,Map<String,WarmStats>> warming = new TreeMap<String,Map<String,WarmStats>>();
+  
+  /**
+   * What was seen of a searcher being opened.
+   */
+  static class Warming {
+    long opened = TimestampParser.NO_TIMESTAMP;
+    long registered = TimestampParser.NO_TIMESTAMP;
+    // the first entry of the searcher
+    long seen = TimestampParser.NO_TIMESTAMP;
+    String core;
+    long listenersStarted = TimestampParser.NO_TIMESTAMP;
+    long listenerTime = -1;
+    List<String> caches = new ArrayList<String>(4);
+    List<long[]> cacheStats = new ArrayList<long[]>(4);
+    
+    void seen(long time) {
+      if (seen == TimestampParser.NO_TIMESTAMP || time < seen) {
+        seen = time;
+      }
+    }
+    
+    /**
+     * Adds what was seen of the same searcher after this.
+     */
+    void add(Warming other) {
+      seen(other.seen);
+      if (other.opened != TimestampParser.NO_TIMESTAMP) {
+        opened = other.opened;
+      }
+      if (other.registered != TimestampParser.NO_TIMESTAMP) {
+        registered = other.registered;
+        core = other.core;
+      }
+      if (other.listenersStarted != TimestampParser.NO_TIMESTAMP) {
+        listenersStarted = other.listenersStarted;
+      }
+      if (other.listenerTime != -1) {
+        listenerTime = other.listenerTime;
+      }
+      caches.addAll(other.caches);
+      cacheStats.addAll(other.cacheStats);
+    }
+    
+    void write(DataOutput out) throws IOException {
+      out.writeLong(opened);
+      out.writeLong(registered);
+      out.writeLong(seen);
+      writeString(out, core);
+      out.writeLong(listenersStarted);
+      out.writeLong(listenerTime);
+      out.writeInt(caches.size());
+      for (int i = 0; i < caches.size(); i++) {
+        writeString(out, caches.get(i));
+        out.writeLong(cacheStats.get(i)[0]);
+        out.writeLong(cacheStats.get(i)[1]);
+      }
+    }
+    
+    static Warming read(DataInput in) throws IOException {
+      Warming w = new Warming();
+      w.opened = in.readLong();
+      w.registered = in.readLong();
+      w.seen = in.readLong();
+      w.core = readString(in);
+      w.listenersStarted = in.readLong();
+      w.listenerTime = in.readLong();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        w.caches.add(readString(in));
+        w.cacheStats.add(new long[] {in.readLong(), in.readLong()});
+      }
+      return w;
+    }
+  }
+  
+  /**
+   * How long warming a part of searchers took, and for caches how many entries
+   * they had after being autowarmed.
+   */
+  static class WarmStats {
+    final LatencyHistogram times = new LatencyHistogram();
+    long entries;
+    
+    void merge(WarmStats other) {
+      times.merge(other.times);
+      entries += other.entries;
+    }
+  }
   
   public OpenSearcherAspect(int nSlowLoadTimes) {
+    this(nSlowLoadTimes, DEFAULT_WINDOW);
+  }
+  
+  public OpenSearcherAspect(int nSlowLoadTimes, long window) {
     NUM_SLOWEST_LOAD_TIMES = nSlowLoadTimes;
+    this.window = window;
     loadTimes = MinMaxPriorityQueue.orderedBy(new Comparator<Long>() {
 
       @Override
@@ -59,135 +194,366 @@ public class OpenSearcherAspect extends Aspect {
   }
   
   @Override
-  public boolean process(String filename, String timestamp, Date dateTs, String headLine, String entry) {
+  public String[] getTriggers() {
+    return new String[] {"Opening Searcher@", "Opening [Searcher@", "Registered new searcher Searcher@",
+        "autowarming result for ", "QuerySenderListener "};
+  }
+  
+  @Override
+  public boolean process(LogRecord record) {
+    String headLine = record.getHeadLine().toString();
+    long time = record.getTime();
     // start tracking an opening searcher
     Matcher m = OPEN_SEARCHER_ID.matcher(headLine);
     if (m.matches()) {
       String id = m.group(1);
       String type = m.group(2);
       
-      OpenSearcherEvent ose = new OpenSearcherEvent();
-      ose.id = id;
-      ose.ts = dateTs;
-      
       if (type.equals("realtime")) {
-        realtimeOpens.incrementAndGet();
-        realtimeSearchers.put(id, ose);
+        realtimeOpens++;
       } else {
-        mainOpens.incrementAndGet();
-        mainSearchers.put(id, ose);
+        mainOpens++;
+        opens.add(time);
+        if (time != TimestampParser.NO_TIMESTAMP) {
+          seen(time);
+          Warming w = new Warming();
+          w.opened = time;
+          w.seen(time);
+          openSearchers.put(id, w);
+        }
       }
-      // out.println("add id " + id);
       return false;
-    } else {
-       // out.println("did not match " + headLine);
     }
     
-    // out.println("found reg searcher");
     m = REGISTER_SEARCHER_ID.matcher(headLine);
     if (m.matches()) {
-      String id = m.group(1);
-      RegisterSearcherEvent rse = new RegisterSearcherEvent();
-      rse.id = id;
-      rse.ts = dateTs;
-      registerSearchers.put(id, rse);
-      registers.incrementAndGet();
+      registers++;
+      if (time != TimestampParser.NO_TIMESTAMP) {
+        seen(time);
+        Warming w = new Warming();
+        w.registered = time;
+        w.core = m.group(1) != null ? m.group(1) : m.group(3);
+        w.seen(time);
+        add(m.group(2), w);
+      }
+      return false;
+    }
+    
+    if (time == TimestampParser.NO_TIMESTAMP) {
       return false;
     }
     
+    m = AUTOWARM_RESULT.matcher(headLine);
+    if (m.matches()) {
+      seen(time);
+      Warming w = new Warming();
+      w.seen(time);
+      // the stats are on the next line
+      addCacheStats(w, headLine);
+      addCacheStats(w, record.getBody());
+      add(m.group(1), w);
+      return false;
+    }
+    
+    m = LISTENER_START.matcher(headLine);
+    if (m.matches()) {
+      seen(time);
+      Warming w = new Warming();
+      w.listenersStarted = time;
+      w.seen(time);
+      listenerSearcher = m.group(1);
+      listenerStarted = true;
+      add(listenerSearcher, w);
+      return false;
+    }
+    
+    if (headLine.contains("QuerySenderListener done.")) {
+      seen(time);
+      listenersDone(time);
+    }
+    
     return false;
   }
-
-  @Override
-  public void printReport(PrintStream out) {
-    long loadCnt = 0;
-    long loadTotal = 0;
-    Set<Entry<String,OpenSearcherEvent>> entries = mainSearchers.entrySet();
-    synchronized (mainSearchers) {
-      for (Entry<String,OpenSearcherEvent> entry : entries) {
-        RegisterSearcherEvent rse = registerSearchers.get(entry.getKey());
-        if (rse != null) {
-          Date d1 = entry.getValue().ts;
-          Date d2 = rse.ts;
-          if (rse != null && d1 != null && d2 != null) {
-            long diff = d2.getTime() - d1.getTime();
-            loadTimes.add(diff);
-            loadCnt++;
-            loadTotal += diff;
-          }
+  
+  private static void addCacheStats(Warming w, CharSequence s) {
+    if (s == null) {
+      return;
+    }
+    Matcher m = CACHE_STATS.matcher(s);
+    while (m.find()) {
+      Matcher warmupTime = CACHE_WARMUP_TIME.matcher(m.group(2));
+      if (warmupTime.find()) {
+        Matcher size = CACHE_SIZE.matcher(m.group(2));
+        w.caches.add(m.group(1));
+        w.cacheStats.add(new long[] {Long.parseLong(warmupTime.group(1)), size.find() ? Long.parseLong(size.group(1)) : 0});
+      }
+    }
+  }
+  
+  private void listenersDone(long time) {
+    if (listenerSearcher == null) {
+      if (!listenerStarted && listenerDone == TimestampParser.NO_TIMESTAMP) {
+        listenerDone = time;
+      }
+      return;
+    }
+    Warming w = openSearchers.get(listenerSearcher);
+    if (w == null) {
+      w = unopenedSearchers.get(listenerSearcher);
+    }
+    if (w != null && w.listenersStarted != TimestampParser.NO_TIMESTAMP) {
+      w.listenerTime = time - w.listenersStarted;
+    }
+    listenerSearcher = null;
+  }
+  
+  /**
+   * Moves the window up to the time of a searcher entry.
+   */
+  private void seen(long time) {
+    if (firstTime == TimestampParser.NO_TIMESTAMP || time < firstTime) {
+      firstTime = time;
+    }
+    if (lastTime == TimestampParser.NO_TIMESTAMP || time > lastTime) {
+      lastTime = time;
+    }
+    Iterator<Warming> it = openSearchers.values().iterator();
+    while (it.hasNext()) {
+      long opened = it.next().opened;
+      if (opened >= lastTime - window) {
+        break;
+      }
+      it.remove();
+      notRegistered++;
+    }
+  }
+  
+  /**
+   * Adds what was seen of a searcher to what was seen of it before, and pairs it
+   * once it is registered.
+   */
+  private void add(String id, Warming w) {
+    Warming opened = openSearchers.get(id);
+    if (opened != null && w.seen - opened.opened <= window) {
+      opened.add(w);
+      if (opened.registered != TimestampParser.NO_TIMESTAMP) {
+        openSearchers.remove(id);
+        if (opened.registered - opened.opened <= window) {
+          registered(opened);
         } else {
-          // System.err.println("Could not find searcher main search being
-          // registered: " + entry.getKey());
+          notRegistered++;
         }
       }
+      return;
+    }
+    Warming unopened = unopenedSearchers.get(id);
+    if (unopened != null) {
+      unopened.add(w);
+    } else if (w.seen <= firstTime + window) {
+      unopenedSearchers.put(id, w);
+    }
+  }
+  
+  private void registered(Warming w) {
+    long loadTime = w.registered - w.opened;
+    loadTimes.add(loadTime);
+    loadTimeHistogram.record(Math.max(0, loadTime));
+    loadTotal += loadTime;
+    
+    String core = w.core != null ? w.core : NO_CORE;
+    long rest = loadTime;
+    for (int i = 0; i < w.caches.size(); i++) {
+      WarmStats stats = warmStats(core, w.caches.get(i));
+      stats.times.record(w.cacheStats.get(i)[0]);
+      stats.entries += w.cacheStats.get(i)[1];
+      rest -= w.cacheStats.get(i)[0];
+    }
+    if (w.listenerTime != -1) {
+      warmStats(core, "newSearcher listeners").times.record(Math.max(0, w.listenerTime));
+      rest -= w.listenerTime;
     }
+    warmStats(core, "rest").times.record(Math.max(0, rest));
+  }
+  
+  private WarmStats warmStats(String core, String part) {
+    Map<String,WarmStats> parts = warming.get(core);
+    if (parts == null) {
+      parts = new TreeMap<String,WarmStats>();
+      warming.put(core, parts);
+    }
+    WarmStats stats = parts.get(part);
+    if (stats == null) {
+      stats = new WarmStats();
+      parts.put(part, stats);
+    }
+    return stats;
+  }
+
+  @Override
+  public void printReport(PrintStream out) {
+    long loadCnt = loadTimeHistogram.getCount();
     
     out.println("Searcher Report");
     out.println("-----------------");
-    out.println("SolrIndexSearcher main open events: " + mainOpens.get());
-    out.println("SolrIndexSearcher realtime open events: " + realtimeOpens.get());
-    out.println("SolrIndexSearcher register events: " + registers.get());
+    out.println("SolrIndexSearcher main open events: " + mainOpens);
+    out.println("SolrIndexSearcher realtime open events: " + realtimeOpens);
+    out.println("SolrIndexSearcher register events: " + registers);
+    opens.printPeaks(out, 3);
 
     if (loadCnt > 0) {
       out.println("Avg Searcher Load Time: " + new DecimalFormat("##.#").format(loadTotal / (double) loadCnt / 1000) + " seconds");
+      out.println("Searcher Load Times (ms): " + loadTimeHistogram.toSummary());
       out.println(NUM_SLOWEST_LOAD_TIMES + " Slowest Load Times:");
+      MinMaxPriorityQueue<Long> slowest = MinMaxPriorityQueue.orderedBy(loadTimes.comparator())
+          .maximumSize(NUM_SLOWEST_LOAD_TIMES).create(loadTimes);
       Long l;
-      while ((l = loadTimes.poll()) != null) {
+      while ((l = slowest.poll()) != null) {
         out.println(new DecimalFormat("##.#").format((double)l / 1000.0) + " seconds");
       }
+      out.println("Searcher Warming (ms):");
+      for (Entry<String,Map<String,WarmStats>> core : warming.entrySet()) {
+        out.println("  " + core.getKey());
+        for (Entry<String,WarmStats> part : core.getValue().entrySet()) {
+          WarmStats stats = part.getValue();
+          out.print("    " + part.getKey() + " " + stats.times.toSummary());
+          if (stats.entries > 0) {
+            out.print(" avg entries=" + new DecimalFormat("#.#").format(stats.entries / (double) stats.times.getCount())
+                + " ms/entry=" + new DecimalFormat("#.###").format(stats.times.getMean() / (stats.entries / (double) stats.times.getCount())));
+          }
+          out.println();
+        }
+      }
     }
-    mainSearchers.keySet().removeAll(registerSearchers.keySet());
-    if (mainSearchers.size() > 0) {
-      out.println("Found " + mainSearchers.size() + " searchers that were not registered: " + mainSearchers);
+    long unregistered = notRegistered + openSearchers.size();
+    if (unregistered > 0) {
+      out.println("Found " + unregistered + " searchers that were not registered within " + window / 1000 + " seconds");
     }
-    
   }
   
-  static class OpenSearcherEvent {
-    String id;
-    Date ts;
-    
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + ((id == null) ? 0 : id.hashCode());
-      return result;
-    }
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) return true;
-      if (obj == null) return false;
-      if (getClass() != obj.getClass()) return false;
-      OpenSearcherEvent other = (OpenSearcherEvent) obj;
-      if (id == null) {
-        if (other.id != null) return false;
-      } else if (!id.equals(other.id)) return false;
-      return true;
-    }
-  }
-  
-  static class RegisterSearcherEvent {
-    String id;
-    Date ts;
+  @Override
+  public List<TimeSeries> getTimeSeries() {
+    return Arrays.asList(opens);
+  }
+  
+  @Override
+  public Aspect newPartial() {
+    return new OpenSearcherAspect(NUM_SLOWEST_LOAD_TIMES, window);
+  }
+  
+  @Override
+  public void merge(Aspect partial) {
+    OpenSearcherAspect other = (OpenSearcherAspect) partial;
+    mainOpens += other.mainOpens;
+    realtimeOpens += other.realtimeOpens;
+    registers += other.registers;
+    notRegistered += other.notRegistered;
+    opens.merge(other.opens);
+    loadTotal += other.loadTotal;
+    loadTimeHistogram.merge(other.loadTimeHistogram);
+    loadTimes.addAll(other.loadTimes);
+    for (Entry<String,Map<String,WarmStats>> core : other.warming.entrySet()) {
+      for (Entry<String,WarmStats> part : core.getValue().entrySet()) {
+        warmStats(core.getKey(), part.getKey()).merge(part.getValue());
+      }
+    }
     
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + ((id == null) ? 0 : id.hashCode());
-      return result;
-    }
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) return true;
-      if (obj == null) return false;
-      if (getClass() != obj.getClass()) return false;
-      RegisterSearcherEvent other = (RegisterSearcherEvent) obj;
-      if (id == null) {
-        if (other.id != null) return false;
-      } else if (!id.equals(other.id)) return false;
-      return true;
+    // what the other partial could not pair, as if this had seen its entries
+    if (other.firstTime != TimestampParser.NO_TIMESTAMP) {
+      if (firstTime == TimestampParser.NO_TIMESTAMP || other.firstTime < firstTime) {
+        firstTime = other.firstTime;
+      }
+      if (other.listenerDone != TimestampParser.NO_TIMESTAMP) {
+        listenersDone(other.listenerDone);
+      }
+      for (Entry<String,Warming> unopened : other.unopenedSearchers.entrySet()) {
+        add(unopened.getKey(), unopened.getValue());
+      }
+      openSearchers.putAll(other.openSearchers);
+      if (other.listenerStarted) {
+        listenerSearcher = other.listenerSearcher;
+        listenerStarted = true;
+      }
+      seen(other.lastTime);
+    }
+  }
+  
+  @Override
+  public void writeState(DataOutput out) throws IOException {
+    out.writeLong(mainOpens);
+    out.writeLong(realtimeOpens);
+    out.writeLong(registers);
+    out.writeLong(notRegistered);
+    out.writeLong(firstTime);
+    out.writeLong(lastTime);
+    opens.write(out);
+    out.writeLong(loadTotal);
+    loadTimeHistogram.write(out);
+    out.writeInt(loadTimes.size());
+    for (long loadTime : loadTimes) {
+      out.writeLong(loadTime);
+    }
+    out.writeInt(warming.size());
+    for (Entry<String,Map<String,WarmStats>> core : warming.entrySet()) {
+      writeString(out, core.getKey());
+      out.writeInt(core.getValue().size());
+      for (Entry<String,WarmStats> part : core.getValue().entrySet()) {
+        writeString(out, part.getKey());
+        part.getValue().times.write(out);
+        out.writeLong(part.getValue().entries);
+      }
+    }
+    writeSearchers(out, openSearchers);
+    writeSearchers(out, unopenedSearchers);
+    writeString(out, listenerSearcher);
+    out.writeBoolean(listenerStarted);
+    out.writeLong(listenerDone);
+  }
+  
+  @Override
+  public void readState(DataInput in) throws IOException {
+    mainOpens = in.readLong();
+    realtimeOpens = in.readLong();
+    registers = in.readLong();
+    notRegistered = in.readLong();
+    firstTime = in.readLong();
+    lastTime = in.readLong();
+    opens.read(in);
+    loadTotal = in.readLong();
+    loadTimeHistogram.read(in);
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      loadTimes.add(in.readLong());
+    }
+    int cores = in.readInt();
+    for (int i = 0; i < cores; i++) {
+      String core = readString(in);
+      int parts = in.readInt();
+      for (int j = 0; j < parts; j++) {
+        WarmStats stats = warmStats(core, readString(in));
+        stats.times.read(in);
+        stats.entries += in.readLong();
+      }
+    }
+    readSearchers(in, openSearchers);
+    readSearchers(in, unopenedSearchers);
+    listenerSearcher = readString(in);
+    listenerStarted = in.readBoolean();
+    listenerDone = in.readLong();
+  }
+  
+  private static void writeSearchers(DataOutput out, Map<String,Warming> searchers) throws IOException {
+    out.writeInt(searchers.size());
+    for (Entry<String,Warming> searcher : searchers.entrySet()) {
+      writeString(out, searcher.getKey());
+      searcher.getValue().write(out);
+    }
+  }
+  
+  private static void readSearchers(DataInput in, Map<String,Warming> searchers) throws IOException {
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      String id = readString(in);
+      searchers.put(id, Warming.read(in));
     }
   }
   
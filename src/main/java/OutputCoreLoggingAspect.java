@@ -16,17 +16,11 @@
  * limitations under the License.
  */
 
-import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.util.Collections;
-import java.util.Date;
-import java.util.Iterator;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,52 +28,70 @@ public class OutputCoreLoggingAspect extends Aspect {
   
   public static Pattern CORE_LOGGING = Pattern.compile("\\spath=\\S+\\s", Pattern.DOTALL);
       
-  private PrintWriter fullOutput;
+  private ReportWriter fullOutput;
   
-  private SortedSet<LogEntry> ss = Collections.synchronizedSortedSet(new TreeSet<LogEntry>());
+  // entries are only collected when they are written out
+  private final boolean collect;
+  
+  private final ExternalSorter<LogEntry> entries;
   
   public OutputCoreLoggingAspect(String outputDir) {
+    entries = new ExternalSorter<LogEntry>(LogEntry.BY_TIME, LogEntry.CODEC, ExternalSorter.DEFAULT_MEMORY);
     if (outputDir != null) {
       try {
-        fullOutput = new PrintWriter(
-            new BufferedWriter(new FileWriter(outputDir + File.separator + "core-logging.txt"), 2 ^ 20));
+        fullOutput = new ReportWriter(outputDir + File.separator + "core-logging.txt");
         StringBuilder sb = new StringBuilder();
         sb.append("Core Logging (No updates or queries)" + "\n");
         sb.append("-----------------" + "\n");
-        fullOutput.write(sb.toString());
+        fullOutput.write(sb);
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
+    collect = fullOutput != null;
+  }
+  
+  private OutputCoreLoggingAspect(boolean collect, ExternalSorter<LogEntry> entries) {
+    this.collect = collect;
+    this.entries = entries;
+  }
+  
+  @Override
+  public String[] getTriggers() {
+    // everything but core logging is written out, nothing is needed otherwise
+    return collect ? null : new String[0];
   }
   
   @Override
-  public boolean process(String filename, String timestamp, Date dateTs, String headLine, String entry) {
+  public boolean process(LogRecord record) {
+    CharSequence headLine = record.getHeadLine();
     Matcher m = CORE_LOGGING.matcher(headLine);
     if (!m.find()) {
-      if (fullOutput != null) {
-        LogEntry e = new LogEntry(timestamp, headLine + "\n" + entry);
-        e.timestamp = dateTs;
+      if (collect) {
+        String timestamp = record.getTimestamp();
+        LogEntry e = new LogEntry(timestamp, headLine + "\n" + record.getBody());
+        e.timestamp = record.getTime();
         e.rawTimestamp = timestamp;
-        
-        // TODO: something more RAM efficient ??
-        ss.add(e);
+        entries.add(e);
       }
     }
     return false;
   }
 
-  private void flushSS() {
-    synchronized (ss) {
-      Iterator<LogEntry> it = ss.iterator();
-      while (it.hasNext()) {
-        LogEntry t = it.next();
-        fullOutput.write(t.headLine);
-        fullOutput.write(t.entry);
-        it.remove();
-      }
-      ss.clear();
+  private void flushEntries() {
+    try {
+      entries.visit(new ExternalSorter.Visitor<LogEntry>() {
+        @Override
+        public void visit(LogEntry e) {
+          fullOutput.write(e.headLine);
+          fullOutput.write(e.entry);
+        }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
+    entries.clear();
+    fullOutput.flush();
   }
   
   @Override
@@ -90,12 +102,48 @@ public class OutputCoreLoggingAspect extends Aspect {
   @Override
   public void endOfFile() {
     if (fullOutput != null) {
-      flushSS();
+      flushEntries();
+    }
+  }
+  
+  @Override
+  public Aspect newPartial() {
+    return new OutputCoreLoggingAspect(collect, entries.newPartial());
+  }
+  
+  @Override
+  public void endOfChunk() {
+    entries.spill();
+  }
+  
+  @Override
+  public void merge(Aspect partial) {
+    OutputCoreLoggingAspect other = (OutputCoreLoggingAspect) partial;
+    entries.merge(other.entries);
+  }
+  
+  @Override
+  public void writeState(final DataOutput out) throws IOException {
+    out.writeLong(entries.size());
+    entries.visit(new ExternalSorter.Visitor<LogEntry>() {
+      @Override
+      public void visit(LogEntry e) throws IOException {
+        e.write(out);
+      }
+    });
+  }
+  
+  @Override
+  public void readState(DataInput in) throws IOException {
+    long size = in.readLong();
+    for (long i = 0; i < size; i++) {
+      entries.add(LogEntry.read(in));
     }
   }
   
   @Override
   public void close() {
+    entries.clear();
     if (fullOutput != null) {
       fullOutput.close();
     }
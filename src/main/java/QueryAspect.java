@@ -16,35 +16,56 @@
  * limitations under the License.
  */
 
-import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.google.common.collect.MinMaxPriorityQueue;
 
 public class QueryAspect extends Aspect {
   private static int NUM_SLOWEST_QUERIES = 10;//default value
 
-  public static Pattern QUERY = Pattern.compile(
-      "^.*?[\\&\\{]q\\=(.*?)(?:&|}).*?hits\\=(\\d+).*?QTime\\=(\\d+).*$", Pattern.DOTALL);
+  private final SolrRequest request = new SolrRequest();
+  
+  // latencies of all requests, by core and then handler
+  private final Map<String,Map<String,LatencyHistogram>> latencies = new TreeMap<String,Map<String,LatencyHistogram>>();
+  // the histogram of the last request, the next one is most likely for the same
+  private String lastCore;
+  private String lastPath;
+  private LatencyHistogram lastLatencies;
+  
+  // latencies of searches
+  private final LatencyHistogram queryLatencies = new LatencyHistogram();
+  
+  // the query shapes with the most searches and the most QTime, see SolrRequest#getFingerprint()
+  private static final int MONITORED_FINGERPRINTS = 1000;
+  private final HeavyHitters fingerprintsByCount = new HeavyHitters(MONITORED_FINGERPRINTS);
+  private final HeavyHitters fingerprintsByQTime = new HeavyHitters(MONITORED_FINGERPRINTS);
+  
+  private final TimeSeries queries = new TimeSeries("Queries", false);
+  private final TimeSeries meanQTime = new TimeSeries("Mean QTime (ms)", true);
   
   private MinMaxPriorityQueue<Query> queryQueue;
   
-  private final AtomicInteger queryCount = new AtomicInteger();
+  private int queryCount;
   
-  private Date oldestDate;
+  private long oldestTime = TimestampParser.NO_TIMESTAMP;
   
-  private Date latestDate;
+  private long latestTime = TimestampParser.NO_TIMESTAMP;
+
+  private ReportWriter fullOutput;
 
-  private PrintWriter fullOutput;
+  // the full output is shared with partials, so what they write is gathered up first
+  private static final int PENDING_OUTPUT_SIZE = 64 * 1024;
+  private final StringBuilder pendingOutput = new StringBuilder();
   
   public static class Query implements Comparable<Query> {
     String timestamp;
@@ -55,7 +76,16 @@ public class QueryAspect extends Aspect {
     
     @Override
     public int compareTo(Query o) {
-      return o.qtime.compareTo(this.qtime);
+      int c = o.qtime.compareTo(this.qtime);
+      // break ties so the slowest queries don't depend on the order they were found in
+      if (c == 0) {
+        c = headLine.compareTo(o.headLine);
+      }
+      if (c == 0 && timestamp != null && o.timestamp != null) {
+        // the same request logged at another time
+        c = timestamp.compareTo(o.timestamp);
+      }
+      return c;
     }
     
     @Override
@@ -75,16 +105,20 @@ public class QueryAspect extends Aspect {
     prepare(outputDir);
   }
 
+  private QueryAspect(ReportWriter fullOutput) {
+    queryQueue = MinMaxPriorityQueue.maximumSize(NUM_SLOWEST_QUERIES).create();
+    this.fullOutput = fullOutput;
+  }
+
   private void prepare(String outputDir) {
     queryQueue = MinMaxPriorityQueue.maximumSize(NUM_SLOWEST_QUERIES).create();
     if (outputDir != null) {
       try {
-        fullOutput = new PrintWriter(
-                new BufferedWriter(new FileWriter(outputDir + File.separator + "query-report.txt"), 2 ^ 20));
+        fullOutput = new ReportWriter(outputDir + File.separator + "query-report.txt");
         StringBuilder sb = new StringBuilder();
         sb.append("Query Report" + "\n");
         sb.append("-----------------" + "\n\n");
-        fullOutput.write(sb.toString());
+        fullOutput.write(sb);
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
@@ -92,47 +126,116 @@ public class QueryAspect extends Aspect {
   }
   
   @Override
-  public boolean process(String filename, String timestamp, Date dateTs, String headLine, String entry) {
-    Matcher m = QUERY.matcher(headLine);
-    if (m.matches()) {
-      String query = m.group(1);
-      Integer results = Integer.parseInt(m.group(2));
-      Integer qtime = Integer.parseInt(m.group(3));
-      // out.println("add match");
-      Query q = new Query();
-      q.timestamp = timestamp;
-      q.query = query;
-      q.results = results;
-      q.qtime = qtime;
-      q.headLine = headLine;
-  
-      synchronized (queryQueue) {
-        trackOldestLatestTimestamp(dateTs);
-        
-        queryQueue.add(q);
-        queryCount.incrementAndGet();
-        if (fullOutput != null) {
-          fullOutput.write(q.toString() + "\n");
-          fullOutput.write("Log: " + q.headLine + "\n\n");
-        }
+  public String[] getTriggers() {
+    // every request Solr logs ends with a QTime
+    return new String[] {"QTime="};
+  }
+  
+  @Override
+  public boolean process(LogRecord record) {
+    CharSequence headLine = record.getHeadLine();
+    try {
+      if (request.parse(headLine)) {
+        processRequest(record, headLine);
       }
-      return false;
-     
-    } 
+    } finally {
+      // the headline may be a view of the log, which is gone once this returns
+      request.clear();
+    }
     return false;
   }
 
-  private void trackOldestLatestTimestamp(Date dateTs) {
-    if (oldestDate == null) {
-      oldestDate = dateTs;
-    } else if (dateTs != null && dateTs.before(oldestDate)) {
-      oldestDate = dateTs;
+  private void processRequest(LogRecord record, CharSequence headLine) {
+    latencies(request).record(request.getQTime());
+    // only searches log the hits, whether or not there is a q
+    if (request.getHits() == -1) {
+      return;
+    }
+    queryLatencies.record(request.getQTime());
+    String fingerprint = request.getFingerprint();
+    fingerprintsByCount.add(fingerprint, 1, request.getQTime());
+    fingerprintsByQTime.add(fingerprint, request.getQTime(), request.getQTime());
+    queries.add(record.getTime());
+    meanQTime.add(record.getTime(), request.getQTime());
+    trackOldestLatestTimestamp(record.getTime());
+    queryCount++;
+    if (fullOutput == null && !isSlowest(request.getQTime())) {
+      // only the slowest queries are kept, no need to build the strings of this one
+      return;
+    }
+    String query = request.getParam("q");
+    if (query == null) {
+      query = request.getPath() + " {" + request.getParamString() + "}";
+    }
+    Query q = new Query();
+    q.timestamp = record.getTimestamp();
+    q.query = query;
+    q.results = (int) Math.min(request.getHits(), Integer.MAX_VALUE);
+    q.qtime = request.getQTime();
+    q.headLine = headLine.toString();
+
+    queryQueue.add(q);
+    if (fullOutput != null) {
+      pendingOutput.append(q.toString()).append("\n");
+      pendingOutput.append("Log: ").append(q.headLine).append("\n\n");
+      if (pendingOutput.length() >= PENDING_OUTPUT_SIZE) {
+        flushPendingOutput();
+      }
+    }
+  }
+
+  /**
+   * @return true if a query that took this long gets into the slowest queries, the
+   *         tie with the fastest of them is broken by the headline
+   */
+  private boolean isSlowest(int qTime) {
+    return queryQueue.size() < NUM_SLOWEST_QUERIES || qTime >= queryQueue.peekLast().qtime;
+  }
+
+  private LatencyHistogram latencies(SolrRequest request) {
+    if (lastLatencies == null || !request.isCore(lastCore) || !request.isPath(lastPath)) {
+      lastCore = request.getCore();
+      lastPath = request.getPath();
+      lastLatencies = latencies(lastCore == null ? "" : lastCore, lastPath == null ? "" : lastPath);
+    }
+    return lastLatencies;
+  }
+  
+  private LatencyHistogram latencies(String core, String path) {
+    Map<String,LatencyHistogram> handlers = latencies.get(core);
+    if (handlers == null) {
+      handlers = new TreeMap<String,LatencyHistogram>();
+      latencies.put(core, handlers);
+    }
+    LatencyHistogram histogram = handlers.get(path);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      handlers.put(path, histogram);
+    }
+    return histogram;
+  }
+  
+  /**
+   * @return the latencies of all requests, by core and then handler
+   */
+  public Map<String,Map<String,LatencyHistogram>> getLatencies() {
+    return latencies;
+  }
+  
+  public LatencyHistogram getQueryLatencies() {
+    return queryLatencies;
+  }
+  
+  private void trackOldestLatestTimestamp(long time) {
+    if (time == TimestampParser.NO_TIMESTAMP) {
+      return;
+    }
+    if (oldestTime == TimestampParser.NO_TIMESTAMP || time < oldestTime) {
+      oldestTime = time;
     }
     
-    if (latestDate == null) {
-      latestDate = dateTs;
-    } else if (dateTs != null && dateTs.after(latestDate)) {
-      latestDate = dateTs;
+    if (latestTime == TimestampParser.NO_TIMESTAMP || time > latestTime) {
+      latestTime = time;
     }
   }
   
@@ -141,43 +244,189 @@ public class QueryAspect extends Aspect {
     out.println("Query Report");
     out.println("-----------------");
     out.println();
-    if (oldestDate != null && latestDate != null) {
+    if (oldestTime != TimestampParser.NO_TIMESTAMP && latestTime != TimestampParser.NO_TIMESTAMP) {
       float qps = getQPS();
       out.println("Approx QPS:" + qps);
     }
+    queries.printPeaks(out, 3);
+    meanQTime.printPeaks(out, 3);
     out.println();
+    if (queryLatencies.getCount() > 0) {
+      out.println("Query QTime: " + queryLatencies.toSummary());
+      out.println();
+    }
+    if (!latencies.isEmpty()) {
+      out.println("QTime by core and handler:");
+      for (Entry<String,Map<String,LatencyHistogram>> core : latencies.entrySet()) {
+        for (Entry<String,LatencyHistogram> handler : core.getValue().entrySet()) {
+          out.println("  " + core.getKey() + " " + handler.getKey() + " " + handler.getValue().toSummary());
+        }
+      }
+      out.println();
+    }
+    List<HeavyHitters.Counter> top = fingerprintsByCount.top(NUM_SLOWEST_QUERIES);
+    if (!top.isEmpty()) {
+      out.println(top.size() + " most frequent query shapes:");
+      for (HeavyHitters.Counter counter : top) {
+        out.println("  count=" + counter.getWeight() + error(counter) + " avg QTime="
+            + counter.getSum() / counter.getCount() + "ms: " + counter.getKey());
+      }
+      out.println();
+    }
+    top = fingerprintsByQTime.top(NUM_SLOWEST_QUERIES);
+    if (!top.isEmpty()) {
+      out.println(top.size() + " query shapes with the most QTime:");
+      for (HeavyHitters.Counter counter : top) {
+        out.println("  QTime=" + counter.getWeight() + "ms" + error(counter) + " in " + counter.getCount()
+            + " searches: " + counter.getKey());
+      }
+      out.println();
+    }
     out.println(NUM_SLOWEST_QUERIES + " slowest queries:");
     out.println();
     Query q;
     
-    synchronized (queryQueue) {
-      while ((q = queryQueue.poll()) != null) {
-        out.println(q);
-        out.println("Log: " + q.headLine);
-        out.println();
-      }
+    while ((q = queryQueue.poll()) != null) {
+      out.println(q);
+      out.println("Log: " + q.headLine);
+      out.println();
     }
   }
+  
+  private static String error(HeavyHitters.Counter counter) {
+    // only once more query shapes were seen than are monitored
+    return counter.getError() == 0 ? "" : " (+-" + counter.getError() + ")";
+  }
 
   private float getQPS() {
-    if (latestDate == null || oldestDate == null) {
+    if (latestTime == TimestampParser.NO_TIMESTAMP || oldestTime == TimestampParser.NO_TIMESTAMP) {
       return -1;
     }
-    long diff = latestDate.getTime() - oldestDate.getTime();
+    long diff = latestTime - oldestTime;
     long seconds = TimeUnit.SECONDS.convert(diff, TimeUnit.MILLISECONDS);
     
-    float qps = queryCount.get() / (float) seconds;
+    float qps = queryCount / (float) seconds;
     return qps;
   }
   
   @Override
   public String getSummaryLine() {
+    if (queryLatencies.getCount() > 0) {
+      return "QPS: " + getQPS() + " p50/p99/p999: " + queryLatencies.getValueAtPercentile(50) + "/"
+          + queryLatencies.getValueAtPercentile(99) + "/" + queryLatencies.getValueAtPercentile(99.9) + "ms";
+    }
     return "QPS: " + getQPS();
   }
   
+  @Override
+  public List<TimeSeries> getTimeSeries() {
+    return Arrays.asList(queries, meanQTime);
+  }
+  
+  @Override
+  public Aspect newPartial() {
+    return new QueryAspect(fullOutput);
+  }
+
+  @Override
+  public void merge(Aspect partial) {
+    QueryAspect other = (QueryAspect) partial;
+    other.flushPendingOutput();
+    queryQueue.addAll(other.queryQueue);
+    queryCount += other.queryCount;
+    queryLatencies.merge(other.queryLatencies);
+    fingerprintsByCount.merge(other.fingerprintsByCount);
+    fingerprintsByQTime.merge(other.fingerprintsByQTime);
+    queries.merge(other.queries);
+    meanQTime.merge(other.meanQTime);
+    for (Entry<String,Map<String,LatencyHistogram>> core : other.latencies.entrySet()) {
+      for (Entry<String,LatencyHistogram> handler : core.getValue().entrySet()) {
+        latencies(core.getKey(), handler.getKey()).merge(handler.getValue());
+      }
+    }
+    trackOldestLatestTimestamp(other.oldestTime);
+    trackOldestLatestTimestamp(other.latestTime);
+  }
+
+  @Override
+  public void writeState(DataOutput out) throws IOException {
+    out.writeInt(queryCount);
+    out.writeLong(oldestTime);
+    out.writeLong(latestTime);
+    out.writeInt(queryQueue.size());
+    for (Query q : queryQueue) {
+      writeString(out, q.timestamp);
+      writeString(out, q.query);
+      out.writeInt(q.qtime);
+      out.writeInt(q.results);
+      writeString(out, q.headLine);
+    }
+    queryLatencies.write(out);
+    fingerprintsByCount.write(out);
+    fingerprintsByQTime.write(out);
+    queries.write(out);
+    meanQTime.write(out);
+    int handlers = 0;
+    for (Map<String,LatencyHistogram> core : latencies.values()) {
+      handlers += core.size();
+    }
+    out.writeInt(handlers);
+    for (Entry<String,Map<String,LatencyHistogram>> core : latencies.entrySet()) {
+      for (Entry<String,LatencyHistogram> handler : core.getValue().entrySet()) {
+        writeString(out, core.getKey());
+        writeString(out, handler.getKey());
+        handler.getValue().write(out);
+      }
+    }
+  }
+
+  @Override
+  public void readState(DataInput in) throws IOException {
+    queryCount = in.readInt();
+    oldestTime = in.readLong();
+    latestTime = in.readLong();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      Query q = new Query();
+      q.timestamp = readString(in);
+      q.query = readString(in);
+      q.qtime = in.readInt();
+      q.results = in.readInt();
+      q.headLine = readString(in);
+      queryQueue.add(q);
+    }
+    queryLatencies.read(in);
+    fingerprintsByCount.read(in);
+    fingerprintsByQTime.read(in);
+    queries.read(in);
+    meanQTime.read(in);
+    int handlers = in.readInt();
+    for (int i = 0; i < handlers; i++) {
+      String core = readString(in);
+      latencies(core, readString(in)).read(in);
+    }
+  }
+
+  private void flushPendingOutput() {
+    if (pendingOutput.length() > 0) {
+      fullOutput.write(pendingOutput);
+      pendingOutput.setLength(0);
+    }
+  }
+  
+  @Override
+  public void endOfFile() {
+    if (fullOutput != null) {
+      flushPendingOutput();
+    }
+  }
+  
   @Override
   public void close() {
-    if (fullOutput != null) fullOutput.close();
+    if (fullOutput != null) {
+      flushPendingOutput();
+      fullOutput.close();
+    }
   }
   
 }
@@ -19,161 +19,131 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-public class ReaderThread extends Thread {
-  private List<Aspect> aspects;
+/**
+ * Reads the log entries of one chunk of a file. Chunks start on the first line of
+ * an entry (see {@link ChunkSplitter}), so a reader never has to look past its end.
+ *
+ * The chunk is mapped a window at a time, so neither chunk nor file size is limited
+ * by what a single mapping can hold. An entry that runs past the end of a window is
+ * read again from the start of the next one, and each window is unmapped as soon as
+ * it has been read.
+ */
+public class ReaderThread implements Runnable {
+  public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private AspectDispatcher aspects;
   private File file;
+  private String name;
   private long start;
   private long end;
-  private long length;
-  private boolean last;
-  private Pattern[] patterns;
-  private Pattern pattern;
-  private String[] dfPatterns;
-  private int patternIndex;
+  private LogFormat format;
   private SolrLogReader.Range range;
+  private int windowSize;
+
+  private LogRecord record;
+  private boolean foundAtLeastOneTimeStamp = false;
+
+  private boolean holdBackLastEntry;
+  private long heldBackOffset = -1;
+  private boolean failed;
+
+  public ReaderThread(File file, long start, long end, List<Aspect> aspects, LogFormat format,
+      SolrLogReader.Range range) {
+    this(file, file.getName(), start, end, aspects, format, range, DEFAULT_WINDOW_SIZE);
+  }
 
-  public ReaderThread(File file, long start, long end, long length, boolean endOfFileThread, List<Aspect> aspects,
-      Pattern[] patterns, String[] dfPatterns, SolrLogReader.Range range)
-      throws IOException {
-    this.aspects = aspects;
+  /**
+   * @param name the name of the log, differs from the file name for archive entries
+   */
+  public ReaderThread(File file, String name, long start, long end, List<Aspect> aspects, LogFormat format,
+      SolrLogReader.Range range, int windowSize) {
+    this.aspects = new AspectDispatcher(aspects);
     this.start = start;
     this.end = end;
     // System.out.println("create thread start:" + start + " end:" + end);
     this.file = file;
-    this.last = endOfFileThread;
-    this.length = length;
-    this.patterns = patterns;
-    this.dfPatterns = dfPatterns;
+    this.name = name;
+    this.format = format;
     this.range = range;
+    this.windowSize = windowSize;
+    this.record = new LogRecord(name, format.getTimestampParser());
+  }
+
+  /**
+   * Creates a reader that is fed windows by the caller through
+   * {@link #readWindow(ByteBuffer, boolean)} rather than mapping a file.
+   */
+  ReaderThread(String name, List<Aspect> aspects, LogFormat format, SolrLogReader.Range range) {
+    this(null, name, 0, 0, aspects, format, range, DEFAULT_WINDOW_SIZE);
   }
   
+  /**
+   * Leaves the last entry of the chunk unprocessed, for a log that is still being
+   * written and may get more lines of that entry.
+   */
+  public void setHoldBackLastEntry(boolean holdBackLastEntry) {
+    this.holdBackLastEntry = holdBackLastEntry;
+  }
+
+  /**
+   * @return the file offset to read on from once more has been written, the start
+   *         of the held back entry, or -1 if the last entry was not held back
+   */
+  public long getHeldBackOffset() {
+    return heldBackOffset;
+  }
+
+  /**
+   * @return true if the chunk could not be read to its end
+   */
+  public boolean hasFailed() {
+    return failed;
+  }
+
+  @Override
   public void run() {
     RandomAccessFile raf = null;
     FileChannel channel = null;
-    // System.out.println("map size:" + (end - start) + " start:" + start + " length:" + length);
-    long readEnd = end;
-    if (!last) {
-      // we over read so that we don't miss a line
-      readEnd += 10000;
-      readEnd = Math.min(readEnd, length);
-    }
-    
-    String dfString = null;
     try {
       raf = new RandomAccessFile(file, "r");
       channel = raf.getChannel();
-      MappedByteBuffer map = channel.map(
-          FileChannel.MapMode.READ_ONLY, start, readEnd - start);
-
-      if (start > end) {
-        return;
-      }
-      
-      String timestamp = null;
-      String pline = null;
-      boolean foundAtLeastOneTimeStamp = false;
-      while (map.position() < end - start) {
-
-        pline = readLine(map);
-        if (pline == null) {
-          break;
+      long windowStart = start;
+      int size = windowSize;
+      while (windowStart < end) {
+        long mapSize = Math.min(size, end - windowStart);
+        boolean lastWindow = windowStart + mapSize == end;
+        // System.out.println("map size:" + mapSize + " start:" + windowStart);
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, mapSize);
+        int consumed;
+        try {
+          consumed = readWindow(map, lastWindow);
+        } finally {
+          Unmapper.unmap(map);
         }
-        // System.out.println(Thread.currentThread().getId() + " lineis:" + pline);
-        
-        int cnt = 0;
-        
-        do {
-          patternIndex = cnt;
-          pattern = patterns[cnt++];
-          Matcher tm = pattern.matcher(pline);
-          // System.out.println(start + " " + "Try timestamp pattern: " +
-          // pattern + " on line: " + pline);
-          if (tm.matches()) {
-            // found start of line
-            foundAtLeastOneTimeStamp = true;
-            timestamp = tm.group(1);
-            dfString = dfPatterns[patternIndex];
-            break;
-          } else {
-            // System.out.println("Failed " + pattern + " " + pline);
+        if (lastWindow) {
+          if (holdBackLastEntry) {
+            heldBackOffset = windowStart + consumed;
           }
-        } while (cnt < patterns.length);
-
-        if (foundAtLeastOneTimeStamp) {
           break;
         }
-      }
-      if (!foundAtLeastOneTimeStamp) {
-        // no log entries found, could not match on timestamp
-        return;
-      }
-      // System.out.println("Using timestamp pattern:" + pattern);
-      StringBuilder entry = new StringBuilder();
-      boolean done = false;
-      String headline = null;
-      Date dateTs = null;
-      do {
-        // System.out.println(Thread.currentThread().getId() +  " readlineis:" + pline);
-
-        // System.out.println("look at line" + cnt++);
-        Matcher tm = pattern.matcher(pline);
-        if (tm.matches()) {
-          timestamp = tm.group(1);
-          if (timestamp != null) {
-            // System.out.println("Check df:" + dfString + " for " +
-            // patternIndex + " in " + Arrays.asList(dfPatterns));
-            if (dfString != null) {
-              if (dfString.equals("seconds")) {
-                dateTs = new Date(Integer.parseInt(timestamp));
-              } else {
-                
-                SimpleDateFormat format = new SimpleDateFormat(dfString);
-                try {
-                  dateTs = format.parse(timestamp);
-                } catch (ParseException e) {
-                  e.printStackTrace();
-                }
-              }
-            }
-            if (headline != null) {
-              process(file.getName(), timestamp, entry, headline, dateTs);
-              headline = null;
-            }
-            if (done) {
-              break;
-            }
-            headline = tm.group(2);
-          }
-          entry.setLength(0);
-          if (map.position() >= end - start) {
-            done = true;
+        if (consumed == 0) {
+          if (size == Integer.MAX_VALUE) {
+            System.err.println("Log entry larger than 2GB at offset " + windowStart + " in " + name
+                + ", skipping the rest of the chunk");
+            break;
           }
-        } else {
-          // building an entry
-          // System.out.println("building:" + pline);
-          entry.append(pline + "\n");
+          // a single entry does not fit, try again with a bigger window
+          size = (int) Math.min(2L * size, Integer.MAX_VALUE);
         }
-        
-      } while ((pline = readLine(map)) != null);
-      
-      // process any final entry
-      if (headline != null) {
-        process(file.getName(), timestamp, entry, headline, dateTs);
-        headline = null;
+        windowStart += consumed;
       }
-      
     } catch (IOException e) {
-      // TODO Auto-generated catch block
+      failed = true;
       e.printStackTrace();
     } finally {
       try {
@@ -184,58 +154,95 @@ public class ReaderThread extends Thread {
         e.printStackTrace();
       }
       try {
-        raf.close();
+        if (raf != null) {
+          raf.close();
+        }
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
   }
 
-  private void process(String filename, String timestamp, StringBuilder entry, String headline, Date dateTs) {
-    if (range != null && dateTs != null) {
-      if (dateTs.before(range.start) || dateTs.after(range.end)) {
-        return;
-      }
+  /**
+   * Processes the entries of a window that are known to be complete. Windows are
+   * read in order, each starting where the last one stopped.
+   * 
+   * @param map the window, from position 0 to its limit
+   * @return the number of bytes consumed, the next window starts after them
+   */
+  int readWindow(ByteBuffer map, boolean lastWindow) {
+    try {
+      return readEntries(map, lastWindow);
+    } finally {
+      // the window is unmapped or reused once this returns
+      record.invalidate();
     }
-    for (Aspect aspect : aspects) {
-      // System.out.println("process entry:" + pline + "\n" + entry.toString());
-      boolean result = aspect.process(filename, timestamp, dateTs, headline, entry.toString());
-      if (result) {
-        break;
+  }
+
+  private int readEntries(ByteBuffer map, boolean lastWindow) {
+    LineReader reader = new LineReader(map, lastWindow);
+    LogFormat.Match match = new LogFormat.Match();
+    if (!foundAtLeastOneTimeStamp) {
+      // only the first chunk of a file can start with lines that are not part of an entry
+      while (reader.next()) {
+        if (format.match(reader, match)) {
+          // found start of line
+          foundAtLeastOneTimeStamp = true;
+          break;
+        }
+      }
+      if (!foundAtLeastOneTimeStamp) {
+        // no log entries found in this window, could not match on timestamp
+        return reader.position();
       }
+    } else if (!reader.next()) {
+      return 0;
     }
-  }
-  
-  public final String readLine(MappedByteBuffer map) throws IOException {
-    StringBuilder input = new StringBuilder();
-    int c = -1;
-    boolean eol = false;
-    try {
-      while (!eol) {
-        switch (c = map.get()) {
-          case -1:
-          case '\n':
-            eol = true;
-            break;
-          case '\r':
-            eol = true;
-            long cur = map.position();
-            if ((map.get()) != '\n') {
-              map.position((int) cur);
-            }
-            break;
-          default:
-            input.append((char) c);
-            break;
+
+    // the entry in progress is only kept as offsets into the window, lines that do
+    // not start an entry just make it longer
+    boolean inEntry = false;
+    int entryStart = 0;
+    int timestampStart = 0;
+    int timestampEnd = 0;
+    int headLineStart = 0;
+    int headLineEnd = 0;
+    int bodyStart = 0;
+    do {
+      if (format.match(reader, match)) {
+        if (inEntry) {
+          record.reset(map, timestampStart, timestampEnd, headLineStart, headLineEnd, bodyStart,
+              reader.lineStart());
+          process();
         }
+        inEntry = true;
+        entryStart = reader.lineStart();
+        timestampStart = match.timestampStart;
+        timestampEnd = match.timestampEnd;
+        headLineStart = match.headLineStart;
+        headLineEnd = match.headLineEnd;
+        bodyStart = reader.position();
       }
-    } catch (BufferUnderflowException e) {
-      return null;
+    } while (reader.next());
+
+    if (lastWindow && !holdBackLastEntry) {
+      // process the final entry
+      record.reset(map, timestampStart, timestampEnd, headLineStart, headLineEnd, bodyStart, reader.position());
+      process();
+      return reader.position();
     }
-    
-    if ((c == -1) && (input.length() == 0)) {
-      return null;
+    // the entry in progress may go on in the next window, or in what is written to
+    // the log next, read it again from there
+    return entryStart;
+  }
+
+  private void process() {
+    if (range != null) {
+      long time = record.getTime();
+      if (time != TimestampParser.NO_TIMESTAMP && (time < range.start || time > range.end)) {
+        return;
+      }
     }
-    return input.toString();
+    aspects.process(record);
   }
 }
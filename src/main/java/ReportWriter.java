@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Writes a report file off the threads that parse the logs. What is written is
+ * encoded into a large buffer, and full buffers are queued for a single writer
+ * thread, shared by all reports, that writes them out in batches and hands the
+ * buffers back to be reused. The queue is bounded, so writing only waits when the
+ * disk can't keep up.
+ *
+ * A report can be written by many threads, the order of what each of them writes
+ * is kept.
+ */
+public class ReportWriter implements Appendable {
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final int QUEUE_SIZE = 64;
+
+  private static final BlockingQueue<Block> queue = new ArrayBlockingQueue<Block>(QUEUE_SIZE);
+  private static final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+  private static Thread writerThread;
+
+  /**
+   * A buffer to write to a report, or with no buffer, the end of the report.
+   */
+  private static class Block {
+    final ReportWriter report;
+    final ByteBuffer buffer;
+
+    Block(ReportWriter report, ByteBuffer buffer) {
+      this.report = report;
+      this.buffer = buffer;
+    }
+  }
+
+  private final String file;
+  private final FileChannel channel;
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private ByteBuffer buffer;
+  private boolean closed;
+  private final CountDownLatch written = new CountDownLatch(1);
+  // set by the writer thread
+  private volatile IOException failure;
+
+  /**
+   * Creates the file, or empties it if it exists.
+   */
+  public ReportWriter(String file) throws IOException {
+    this.file = file;
+    this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    startWriterThread();
+  }
+
+  public synchronized void write(CharSequence s) {
+    if (closed) {
+      throw new IllegalStateException(file + " is closed");
+    }
+    checkFailure();
+    CharBuffer chars = CharBuffer.wrap(s);
+    while (true) {
+      if (buffer == null) {
+        buffer = newBuffer();
+      }
+      CoderResult result = encoder.encode(chars, buffer, true);
+      if (!result.isOverflow()) {
+        break;
+      }
+      queue(buffer);
+      buffer = null;
+    }
+    encoder.reset();
+  }
+
+  @Override
+  public ReportWriter append(CharSequence s) {
+    write(s == null ? "null" : s);
+    return this;
+  }
+
+  @Override
+  public ReportWriter append(CharSequence s, int start, int end) {
+    write((s == null ? "null" : s).subSequence(start, end));
+    return this;
+  }
+
+  @Override
+  public ReportWriter append(char c) {
+    write(String.valueOf(c));
+    return this;
+  }
+
+  /**
+   * Queues what was written so far, without waiting for it to be written.
+   */
+  public synchronized void flush() {
+    checkFailure();
+    if (buffer != null && buffer.position() > 0) {
+      queue(buffer);
+      buffer = null;
+    }
+  }
+
+  /**
+   * Waits for everything to be written and closes the file.
+   */
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      flush();
+      closed = true;
+      put(new Block(this, null));
+    }
+    boolean interrupted = false;
+    while (true) {
+      try {
+        written.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() {
+    if (failure != null) {
+      throw new RuntimeException("Could not write " + file, failure);
+    }
+  }
+
+  private void queue(ByteBuffer buffer) {
+    buffer.flip();
+    put(new Block(this, buffer));
+  }
+
+  private static void put(Block block) {
+    try {
+      queue.put(block);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static ByteBuffer newBuffer() {
+    ByteBuffer buffer = freeBuffers.poll();
+    return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  private static synchronized void startWriterThread() {
+    if (writerThread != null) {
+      return;
+    }
+    writerThread = new Thread("ReportWriter") {
+      @Override
+      public void run() {
+        List<Block> batch = new ArrayList<Block>(QUEUE_SIZE);
+        while (true) {
+          try {
+            batch.add(queue.take());
+          } catch (InterruptedException e) {
+            return;
+          }
+          queue.drainTo(batch);
+          writeBatch(batch);
+          batch.clear();
+        }
+      }
+    };
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Writes the buffers in a batch with one write per run of buffers for the same
+   * report.
+   */
+  private static void writeBatch(List<Block> batch) {
+    int i = 0;
+    while (i < batch.size()) {
+      ReportWriter report = batch.get(i).report;
+      int end = i;
+      while (end < batch.size() && batch.get(end).report == report && batch.get(end).buffer != null) {
+        end++;
+      }
+      if (end > i) {
+        ByteBuffer[] buffers = new ByteBuffer[end - i];
+        for (int j = i; j < end; j++) {
+          buffers[j - i] = batch.get(j).buffer;
+        }
+        report.write(buffers);
+        for (ByteBuffer buffer : buffers) {
+          buffer.clear();
+          freeBuffers.add(buffer);
+        }
+        i = end;
+      } else {
+        report.closeChannel();
+        i++;
+      }
+    }
+  }
+
+  private void write(ByteBuffer[] buffers) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      ByteBuffer last = buffers[buffers.length - 1];
+      while (last.hasRemaining()) {
+        channel.write(buffers);
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  private void closeChannel() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    written.countDown();
+  }
+}
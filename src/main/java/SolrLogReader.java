@@ -23,7 +23,6 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.io.RandomAccessFile;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -42,14 +41,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * A fast Solr log reader.
  */
 public class SolrLogReader {
   private static final String REPORT_FILENAME = "logs-report.txt";
+  private static final String METRICS_CHART_FILENAME = "metrics-chart.html";
+  private static final String TIMELINE_FILENAME = "cluster-timeline.txt";
+  // the most common errors of all instances in the summary
+  private static final int CLUSTER_ERRORS = 10;
   public static Pattern END_DIGITS = Pattern.compile("(.*?)(\\d+)$", Pattern.DOTALL);
   public static Pattern END_DIGITS2 = Pattern.compile("(.*?)(\\.\\d+)$", Pattern.DOTALL);
   public static Pattern DIGITS = Pattern.compile("(\\d+)", Pattern.DOTALL);
@@ -57,16 +62,28 @@ public class SolrLogReader {
   private static Range range;
   private static int nSlowQueries = 10;
   private static int nSlowLoadTimes = 5;
+  private static long searcherWindow;
+  private static long chunkSize;
+  private static int threads;
+  private static int mapWindow;
+  private static boolean follow;
+  private static long refreshMillis;
+  private static String cacheDir;
+  private static boolean timeline;
+  private static Range timelineRange;
+  private static Pattern skewEvent;
+  private static Map<String,Long> givenSkews;
 
   public static class Range {
-    Date start;
-    Date end;
+    long start;
+    long end;
   }
   
   public static void main(String[] args) throws IOException {
     if (args.length < 1) {
       System.out.println("Usage: SolrLogReader [file or folder path] {TextMatchAspect} {TextMatchAspect} ...");
       System.out.println("Example: SolrLogReader /solr/logs org.apache.solr.cloud");
+      System.out.println("A TextMatchAspect between slashes is a regex, /regex/, or /regex/i to ignore case");
       System.exit(1);
     }
     
@@ -76,6 +93,21 @@ public class SolrLogReader {
 
   public static Map<String,LogInstance> summarize(String[] args) throws FileNotFoundException, IOException {
     PrintStream out = System.out;
+    outputDir = null;
+    range = null;
+    nSlowQueries = 10;
+    nSlowLoadTimes = 5;
+    chunkSize = 0;
+    threads = Runtime.getRuntime().availableProcessors();
+    mapWindow = ReaderThread.DEFAULT_WINDOW_SIZE;
+    follow = false;
+    refreshMillis = 10000;
+    cacheDir = null;
+    timeline = false;
+    timelineRange = null;
+    skewEvent = null;
+    givenSkews = new TreeMap<String,Long>();
+    searcherWindow = OpenSearcherAspect.DEFAULT_WINDOW;
     Properties props = new Properties();
     FileInputStream fis = new FileInputStream(new File("config.txt"));
     try {
@@ -107,9 +139,10 @@ public class SolrLogReader {
     out.println("# Configured date format patterns:" +  dfPatterns);
     out.println();
     
-    Pattern[] patterns = new Pattern[tsPatterns.size()];
-    for (int i = 0; i < patterns.length; i++) {
-      patterns[i] = Pattern.compile(tsPatterns.get(i), Pattern.DOTALL);
+    LogFormat[] formats = new LogFormat[tsPatterns.size()];
+    for (int i = 0; i < formats.length; i++) {
+      String df = dfPatterns.get(i);
+      formats[i] = LogFormat.create(tsPatterns.get(i), df == null ? null : new TimestampParser(df));
     }
     
     List<String> textAspects = new ArrayList<String>();
@@ -121,28 +154,7 @@ public class SolrLogReader {
       } else if (args[i].equals("-r")) {
         String startDate = args[++i];
         String endDate = args[++i];
-        
-        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        Date start = null;
-        try {
-          start = format.parse(startDate);
-        } catch (ParseException e) {
-          e.printStackTrace();
-        }
-        
-        Date end = null;
-        try {
-          end = format.parse(endDate);
-        } catch (ParseException e) {
-          e.printStackTrace();
-        }
-        
-        if (start != null && end != null) {
-          range = new Range();
-          range.start = start;
-          range.end = end;
-        }
-        
+        range = parseRange(startDate, endDate);
         out.println("# Range:" + startDate + ", " + endDate);
       } else if (args[i].equals("-nSlowQueries")) {
         String count = args[++i];
@@ -154,6 +166,58 @@ public class SolrLogReader {
         if(count != null && !count.isEmpty()) {
           nSlowLoadTimes = Integer.parseInt(count);
         }
+      } else if (args[i].equals("-searcherWindow")) {
+        searcherWindow = (long) (Double.parseDouble(args[++i]) * 1000);
+      } else if (args[i].equals("-threads")) {
+        String count = args[++i];
+        try {
+          threads = Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+          threads = 0;
+        }
+        if (threads < 1) {
+          System.out.println();
+          System.out.println("The number of -threads has to be at least 1: " + count);
+          System.exit(1);
+        }
+        out.println("# Threads: " + threads);
+      } else if (args[i].equals("-chunkSize")) {
+        chunkSize = parseSize(args[++i]);
+        out.println("# Chunk size: " + chunkSize);
+      } else if (args[i].equals("-mapWindow")) {
+        mapWindow = (int) Math.min(Integer.MAX_VALUE, Math.max(1, parseSize(args[++i])));
+        out.println("# Map window: " + mapWindow);
+      } else if (args[i].equals("--follow") || args[i].equals("-follow")) {
+        follow = true;
+        out.println("# Following logs");
+      } else if (args[i].equals("-refresh")) {
+        refreshMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+        out.println("# Summary refresh: " + refreshMillis + "ms");
+      } else if (args[i].equals("-cache")) {
+        cacheDir = args[++i];
+        out.println("# Cache: " + cacheDir);
+      } else if (args[i].equals("-timeline")) {
+        timeline = true;
+        out.println("# Writing cluster timeline");
+      } else if (args[i].equals("-timelineRange")) {
+        String startDate = args[++i];
+        String endDate = args[++i];
+        timelineRange = parseRange(startDate, endDate);
+        out.println("# Timeline range:" + startDate + ", " + endDate);
+      } else if (args[i].equals("-skew")) {
+        String instance = args[++i];
+        givenSkews.put(instance, Long.parseLong(args[++i]));
+        out.println("# Clock skew of " + instance + ": " + givenSkews.get(instance) + "ms");
+      } else if (args[i].equals("-skewEvent")) {
+        String regex = args[++i];
+        try {
+          skewEvent = Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+          System.out.println();
+          System.out.println("Not a valid skewEvent regex: " + e.getMessage());
+          System.exit(1);
+        }
+        out.println("# Clock skew event: " + regex);
       } else {
         out.println("# Using Text Aspect: " + args[i]);
         textAspects.add(args[i]);
@@ -165,6 +229,18 @@ public class SolrLogReader {
       System.out.println("TextAspects only work with the -o output directory option.");
       System.exit(1);
     }
+    if (timeline && outputDir == null) {
+      System.out.println();
+      System.out.println("The cluster timeline only works with the -o output directory option.");
+      System.exit(1);
+    }
+    try {
+      new TextMatcher(textAspects);
+    } catch (PatternSyntaxException e) {
+      System.out.println();
+      System.out.println("Not a valid TextAspect regex: " + e.getMessage());
+      System.exit(1);
+    }
     
     long timeStart = new Date().getTime();
     List<File> files = new ArrayList<File>();
@@ -188,8 +264,17 @@ public class SolrLogReader {
     
     getFiles(files, srcDir, matchText);
     
-    Pattern pattern = DIGITS;
+    List<LogSource> sources = new ArrayList<LogSource>();
     for (File f : files) {
+      try {
+        LogSource.expand(f, sources);
+      } catch (IOException e) {
+        out.println("# Could not read archive: " + f + " " + e);
+      }
+    }
+    
+    Pattern pattern = DIGITS;
+    for (LogSource f : sources) {
       Matcher m = END_DIGITS.matcher(f.getName());
       if (m.matches()) {
         pattern = END_DIGITS;
@@ -198,7 +283,7 @@ public class SolrLogReader {
     }
     
     final Pattern digitPattern = pattern;
-    Collections.sort(files, new DigitComparator(digitPattern, true));
+    Collections.sort(sources, new DigitComparator(digitPattern, true));
     
     Map<String,LogInstance> logInstances = new HashMap<String,LogInstance>();
     
@@ -211,38 +296,32 @@ public class SolrLogReader {
     
     Map<String,LogInstance> hostToLogInstance = new LinkedHashMap<>();
     
-    for (File f : files) {
-      String k;
-      Matcher m = END_DIGITS2.matcher(f.getName());
-      if (m.matches()) {
-        k = m.group(1);
+    for (LogSource f : sources) {
+      LogInstance logInstance = getLogInstance(instanceKey(f.getName()), logInstances, hostToLogInstance, textAspects);
+      logInstance.track(f);
+      totalBytes += f.getLength();
+    }
+    
+    LogScheduler scheduler = new LogScheduler(threads, formats, chunkSize, mapWindow, range, out);
+    scheduler.setHoldBack(follow);
+    if (cacheDir != null) {
+      if (outputDir != null) {
+        // the file reports list every entry, which is more than is worth caching
+        out.println("# Not using the cache, it does not work with -o");
       } else {
-        k = f.getName();
+        scheduler.setCache(new AspectCache(new File(cacheDir), cacheFingerprint(tsPatterns, dfPatterns)));
       }
-      LogInstance logInstance = logInstances.get(k);
-      if (logInstance == null) {
-        String intanceOutputDir = null;
-        if (outputDir != null) {
-          intanceOutputDir = outputDir + File.separator + k;
-          createDir(intanceOutputDir);
-        }
-        
-        List<Aspect> aspects = new ArrayList<Aspect>();
-        aspects.add(new OpenSearcherAspect(nSlowLoadTimes));
-        aspects.add(new CommitAspect());
-        aspects.add(new QueryAspect(intanceOutputDir, nSlowQueries));
-        aspects.add(new ErrorAspect(intanceOutputDir));
-        aspects.add(new OutputCoreLoggingAspect(intanceOutputDir));
-        for (String aspect : textAspects) {
-          aspects.add(new TextMatchAspect(aspect, intanceOutputDir));
-        }
-        logInstance = new LogInstance(aspects);
-        hostToLogInstance.put(k, logInstance);
-        logInstances.put(k, logInstance);
+    }
+    try {
+      for (LogInstance logInstance : logInstances.values()) {
+        scheduler.schedule(logInstance, logInstance.getSources());
       }
-      logInstance.track(f);
-      totalBytes += f.length();
-      processFile(f, logInstance.getAspects(), patterns, dfPatterns.toArray(new String[0]), out);
+      scheduler.awaitCompletion();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      scheduler.shutdown();
     }
     
     long timeEnd = new Date().getTime();
@@ -250,9 +329,181 @@ public class SolrLogReader {
     DecimalFormat df = new DecimalFormat("#.00");
     
     out.println();
-    out.println("Took " + df.format((timeEnd - timeStart) / 1000.0 / 60.0) + "min to crunch " + df.format(totalBytes / 1024.0 / 1024.0) + "MB  AVG(" + df.format(totalBytes / (float) files.size() / 1024.0 / 1024.0) + ")");
+    out.println("Took " + df.format((timeEnd - timeStart) / 1000.0 / 60.0) + "min to crunch " + df.format(totalBytes / 1024.0 / 1024.0) + "MB  AVG(" + df.format(totalBytes / (float) sources.size() / 1024.0 / 1024.0) + ")");
     out.println();
     
+    if (follow) {
+      follow(out, formats, srcDir, matchText, textAspects, logInstances, hostToLogInstance,
+          scheduler.getHeldBackOffsets());
+    }
+    
+    printSummary(out, logInstances);
+    
+    for (Entry<String,LogInstance> liEntry : logInstances.entrySet()) {
+      PrintStream entryOut = out;
+      if (outputDir != null) {
+        entryOut = new PrintStream(new BufferedOutputStream(
+            new FileOutputStream(outputDir + File.separator + instanceDirName(liEntry.getKey()) + File.separator
+                + REPORT_FILENAME)));
+      }
+      entryOut.println("* Instance Report: " + liEntry.getKey());
+      for (Aspect aspect : liEntry.getValue().getAspects()) {
+        entryOut.print("  " + aspect.getSummaryLine());
+      }
+      
+      liEntry.getValue().printResults(entryOut);
+      if (outputDir != null) {
+        entryOut.close();
+        writeMetricsChart(outputDir + File.separator + instanceDirName(liEntry.getKey()), liEntry.getValue());
+      }
+      liEntry.getValue().close();
+    }
+    
+    if (timeline) {
+      writeTimeline(out, formats, logInstances);
+    }
+    
+    return hostToLogInstance;
+  }
+
+  /**
+   * Writes the entries of all instances merged into one timeline, with the clock
+   * skew of each instance taken off its times.
+   */
+  private static void writeTimeline(PrintStream out, LogFormat[] formats, Map<String,LogInstance> logInstances)
+      throws IOException {
+    ClusterTimeline clusterTimeline = new ClusterTimeline(formats, mapWindow, out);
+    for (Entry<String,Long> skew : getSkews(logInstances).entrySet()) {
+      clusterTimeline.setSkew(skew.getKey(), skew.getValue());
+    }
+    clusterTimeline.setRange(timelineRange != null ? timelineRange : range);
+    Map<String,List<LogSource>> sources = new TreeMap<String,List<LogSource>>();
+    for (Entry<String,LogInstance> liEntry : logInstances.entrySet()) {
+      sources.put(liEntry.getKey(), liEntry.getValue().getSources());
+    }
+    String file = outputDir + File.separator + TIMELINE_FILENAME;
+    ReportWriter writer = new ReportWriter(file);
+    long entries;
+    try {
+      entries = clusterTimeline.write(sources, writer);
+    } finally {
+      writer.close();
+    }
+    out.println("# Wrote " + entries + " entries to the cluster timeline: " + file);
+  }
+
+  /**
+   * @return the clock skew of each instance in ms, as given or else as estimated
+   *         from the clock skew events
+   */
+  private static Map<String,Long> getSkews(Map<String,LogInstance> logInstances) {
+    Map<String,ClockSkewAspect> events = new HashMap<String,ClockSkewAspect>();
+    for (Entry<String,LogInstance> liEntry : logInstances.entrySet()) {
+      for (Aspect aspect : liEntry.getValue().getAspects()) {
+        if (aspect instanceof ClockSkewAspect) {
+          events.put(liEntry.getKey(), (ClockSkewAspect) aspect);
+        }
+      }
+    }
+    Map<String,Long> skews = ClockSkewAspect.estimateSkews(events);
+    skews.putAll(givenSkews);
+    return skews;
+  }
+
+  /**
+   * Charts the time series of all the aspects of an instance together.
+   */
+  private static void writeMetricsChart(String instanceDir, LogInstance logInstance) throws IOException {
+    List<TimeSeries> series = new ArrayList<TimeSeries>();
+    for (Aspect aspect : logInstance.getAspects()) {
+      series.addAll(aspect.getTimeSeries());
+    }
+    Charts.write(instanceDir + File.separator + METRICS_CHART_FILENAME, "Metrics", "", 150, Charts.NO_TIMELINE, series);
+  }
+
+  /**
+   * @return the instance a log belongs to, created if this is the first log of it
+   */
+  private static LogInstance getLogInstance(String k, Map<String,LogInstance> logInstances,
+      Map<String,LogInstance> hostToLogInstance, List<String> textAspects) throws IOException {
+    LogInstance logInstance = logInstances.get(k);
+    if (logInstance == null) {
+      String intanceOutputDir = null;
+      if (outputDir != null) {
+        intanceOutputDir = outputDir + File.separator + instanceDirName(k);
+        createDir(intanceOutputDir);
+      }
+      
+      List<Aspect> aspects = new ArrayList<Aspect>();
+      aspects.add(new OpenSearcherAspect(nSlowLoadTimes, searcherWindow));
+      aspects.add(new CommitAspect());
+      aspects.add(new QueryAspect(intanceOutputDir, nSlowQueries));
+      aspects.add(new ErrorAspect(intanceOutputDir));
+      aspects.add(new OutputCoreLoggingAspect(intanceOutputDir));
+      if (skewEvent != null) {
+        aspects.add(new ClockSkewAspect(skewEvent));
+      }
+      if (!textAspects.isEmpty()) {
+        aspects.add(new TextMatchAspect(textAspects, intanceOutputDir));
+      }
+      logInstance = new LogInstance(aspects);
+      hostToLogInstance.put(k, logInstance);
+      logInstances.put(k, logInstance);
+    }
+    return logInstance;
+  }
+
+  /**
+   * @return what the results of a log depend on besides the log itself
+   */
+  private static String cacheFingerprint(List<String> tsPatterns, List<String> dfPatterns) {
+    return "timestamps=" + tsPatterns + " dateformats=" + dfPatterns + " nSlowQueries=" + nSlowQueries
+        + " nSlowLoadTimes=" + nSlowLoadTimes + " searcherWindow=" + searcherWindow + " range="
+        + (range == null ? "none" : range.start + "-" + range.end) + (skewEvent == null ? "" : " skewEvent=" + skewEvent);
+  }
+
+  /**
+   * @return the range between two dates in the format yyyy-MM-dd HH:mm:ss, or null
+   *         if either can't be parsed
+   */
+  private static Range parseRange(String startDate, String endDate) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    Date start = null;
+    try {
+      start = format.parse(startDate);
+    } catch (ParseException e) {
+      e.printStackTrace();
+    }
+    
+    Date end = null;
+    try {
+      end = format.parse(endDate);
+    } catch (ParseException e) {
+      e.printStackTrace();
+    }
+    
+    if (start == null || end == null) {
+      return null;
+    }
+    Range range = new Range();
+    range.start = start.getTime();
+    range.end = end.getTime();
+    return range;
+  }
+
+  /**
+   * @return the instance key of a log, its name without the rotation number
+   */
+  private static String instanceKey(String logName) {
+    Matcher m = END_DIGITS2.matcher(logName);
+    if (m.matches()) {
+      return m.group(1);
+    }
+    return logName;
+  }
+
+  private static void printSummary(PrintStream out, Map<String,LogInstance> logInstances)
+      throws FileNotFoundException {
     StringBuilder summary = new StringBuilder();
     summary.append("- Summary Report -\n\n");
     for (Entry<String,LogInstance> liEntry : logInstances.entrySet()) {
@@ -262,6 +513,11 @@ public class SolrLogReader {
       }
       summary.append("\n");
     }
+    if (logInstances.size() > 1) {
+      printClusterLatencies(summary, logInstances);
+      printClusterErrors(summary, logInstances);
+      printClusterSkews(summary, logInstances);
+    }
     out.print(summary + "\n\n");
     if (outputDir != null) {
       PrintStream summaryOut = new PrintStream(
@@ -269,26 +525,155 @@ public class SolrLogReader {
       summaryOut.print(summary);
       summaryOut.close();
     }
-    
-    for (Entry<String,LogInstance> liEntry : logInstances.entrySet()) {
-      PrintStream entryOut = out;
-      if (outputDir != null) {
-        entryOut = new PrintStream(new BufferedOutputStream(
-            new FileOutputStream(outputDir + File.separator + liEntry.getKey() + File.separator + REPORT_FILENAME)));
+  }
+
+  /**
+   * Adds the QTime percentiles of all instances together to the summary, for
+   * searches and for each handler.
+   */
+  private static void printClusterLatencies(StringBuilder summary, Map<String,LogInstance> logInstances) {
+    LatencyHistogram queries = new LatencyHistogram();
+    Map<String,LatencyHistogram> handlers = new TreeMap<String,LatencyHistogram>();
+    for (LogInstance logInstance : logInstances.values()) {
+      for (Aspect aspect : logInstance.getAspects()) {
+        if (!(aspect instanceof QueryAspect)) {
+          continue;
+        }
+        QueryAspect queryAspect = (QueryAspect) aspect;
+        queries.merge(queryAspect.getQueryLatencies());
+        for (Map<String,LatencyHistogram> core : queryAspect.getLatencies().values()) {
+          for (Entry<String,LatencyHistogram> handler : core.entrySet()) {
+            LatencyHistogram histogram = handlers.get(handler.getKey());
+            if (histogram == null) {
+              histogram = new LatencyHistogram();
+              handlers.put(handler.getKey(), histogram);
+            }
+            histogram.merge(handler.getValue());
+          }
+        }
       }
-      entryOut.println("* Instance Report: " + liEntry.getKey());
+    }
+    if (handlers.isEmpty()) {
+      return;
+    }
+    summary.append("Cluster:\n");
+    if (queries.getCount() > 0) {
+      summary.append("  Query QTime: " + queries.toSummary() + "\n");
+    }
+    for (Entry<String,LatencyHistogram> handler : handlers.entrySet()) {
+      summary.append("  " + handler.getKey() + " " + handler.getValue().toSummary() + "\n");
+    }
+    summary.append("\n");
+  }
+
+  /**
+   * Adds the errors with the same signature on all instances together to the
+   * summary, with how many of them each instance had.
+   */
+  private static void printClusterErrors(StringBuilder summary, Map<String,LogInstance> logInstances) {
+    Map<String,ErrorGroup> groups = new HashMap<String,ErrorGroup>();
+    Map<String,Map<String,Long>> instanceCounts = new HashMap<String,Map<String,Long>>();
+    for (Entry<String,LogInstance> liEntry : logInstances.entrySet()) {
       for (Aspect aspect : liEntry.getValue().getAspects()) {
-        entryOut.print("  " + aspect.getSummaryLine());
+        if (!(aspect instanceof ErrorAspect)) {
+          continue;
+        }
+        for (ErrorGroup group : ((ErrorAspect) aspect).getErrors().values()) {
+          ErrorGroup clusterGroup = groups.get(group.getSignature());
+          if (clusterGroup == null) {
+            clusterGroup = new ErrorGroup(group.getSignature());
+            groups.put(group.getSignature(), clusterGroup);
+            instanceCounts.put(group.getSignature(), new TreeMap<String,Long>());
+          }
+          clusterGroup.merge(group);
+          instanceCounts.get(group.getSignature()).put(liEntry.getKey(), group.getCount());
+        }
       }
-      
-      liEntry.getValue().printResults(entryOut);
-      if (outputDir != null) {
-        entryOut.close();
+    }
+    if (groups.isEmpty()) {
+      return;
+    }
+    List<ErrorGroup> sorted = new ArrayList<ErrorGroup>(groups.values());
+    Collections.sort(sorted, ErrorGroup.BY_COUNT);
+    summary.append("Cluster errors:\n");
+    for (ErrorGroup group : sorted.subList(0, Math.min(CLUSTER_ERRORS, sorted.size()))) {
+      summary.append("  " + group.getCount() + " x " + group.getSignature() + "\n");
+      summary.append("    " + instanceCounts.get(group.getSignature()) + "\n");
+    }
+    summary.append("\n");
+  }
+
+  /**
+   * Adds the clock skew of each instance to the summary, if any were given or
+   * estimated.
+   */
+  private static void printClusterSkews(StringBuilder summary, Map<String,LogInstance> logInstances) {
+    Map<String,Long> skews = getSkews(logInstances);
+    if (skews.isEmpty()) {
+      return;
+    }
+    summary.append("Clock skew (ms):\n");
+    for (Entry<String,Long> skew : skews.entrySet()) {
+      summary.append("  " + skew.getKey() + " " + skew.getValue() + (givenSkews.containsKey(skew.getKey()) ? " (given)" : "")
+          + "\n");
+    }
+    summary.append("\n");
+  }
+
+  /**
+   * Keeps reading what is written to the logs until stopped, printing the summary
+   * every refresh interval when there is something new. Returns once the logs have
+   * been read to their ends, for the final reports.
+   */
+  private static void follow(PrintStream out, LogFormat[] formats, File srcDir, String matchText,
+      final List<String> textAspects, final Map<String,LogInstance> logInstances,
+      final Map<String,LogInstance> hostToLogInstance, Map<File,Long> heldBackOffsets) throws IOException {
+    final LogFollower follower = new LogFollower(srcDir, matchText, formats, range, mapWindow,
+        new LogFollower.InstanceLookup() {
+          @Override
+          public LogInstance getLogInstance(String logName) throws IOException {
+            synchronized (logInstances) {
+              return SolrLogReader.getLogInstance(instanceKey(logName), logInstances, hostToLogInstance, textAspects);
+            }
+          }
+        }, out);
+    final Thread followThread = Thread.currentThread();
+    Thread stopOnExit = new Thread() {
+      @Override
+      public void run() {
+        // Ctrl-C, let the follow loop read the logs to their ends and write the reports
+        follower.stop();
+        try {
+          followThread.join(60000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(stopOnExit);
+    try {
+      follower.start(logInstances.values(), heldBackOffsets);
+      printSummary(out, logInstances);
+      long lastRefresh = System.currentTimeMillis();
+      boolean changed = false;
+      while (!follower.isStopped()) {
+        long untilRefresh = lastRefresh + refreshMillis - System.currentTimeMillis();
+        changed |= follower.poll(Math.max(1, Math.min(LogFollower.POLL_MILLIS, untilRefresh)));
+        if (changed && System.currentTimeMillis() - lastRefresh >= refreshMillis) {
+          printSummary(out, logInstances);
+          lastRefresh = System.currentTimeMillis();
+          changed = false;
+        }
+      }
+      follower.finish();
+    } finally {
+      follower.close();
+      try {
+        Runtime.getRuntime().removeShutdownHook(stopOnExit);
+      } catch (IllegalStateException e) {
+        // already shutting down
       }
-      liEntry.getValue().close();
     }
-    
-    return hostToLogInstance;
   }
 
   private static void createDir(String dir) throws IOException {
@@ -300,7 +685,15 @@ public class SolrLogReader {
     }
   }
 
-  private static void getFiles(List<File> files, File file, String matchText) {
+  /**
+   * @return the name of the output folder of an instance, entries in archives can
+   *         be in folders of their own
+   */
+  private static String instanceDirName(String instance) {
+    return instance.replace('/', '_').replace('\\', '_');
+  }
+
+  static void getFiles(List<File> files, File file, String matchText) {
     if (file.isDirectory()) {
       File[] listFiles = file.listFiles();
       for (File f : listFiles) {
@@ -319,42 +712,23 @@ public class SolrLogReader {
     }
   }
 
-  private static void processFile(File file, List<Aspect> aspects, Pattern[] patterns, String[] dfPatterns, PrintStream out)
-      throws IOException {
-    out.println("Processing file: " + file.getName());
-    
-    int threads = Runtime.getRuntime().availableProcessors();
-    RandomAccessFile raf = new RandomAccessFile(file, "r");
-    long length = raf.length();
-    raf.close();
-    long chunkSize = length / threads;
-    long start = 0;
-    long end = chunkSize;
-    List<ReaderThread> threadReaders = new ArrayList<ReaderThread>();
-    for (int i = 0; i < threads; i++) {
-      ReaderThread rt = new ReaderThread(file, start, end, length, i == threads - 1, aspects, patterns, dfPatterns,
-          range);
-      threadReaders.add(rt);
-      rt.start();
-      start = start + chunkSize;
-      end = end + chunkSize;
-      if (i == threads - 1) {
-        end = length;
-      }
+  /**
+   * @return a byte count given as a number with an optional k, m or g suffix
+   */
+  static long parseSize(String size) {
+    String lower = size.trim().toLowerCase();
+    long multiplier = 1;
+    if (lower.endsWith("k")) {
+      multiplier = 1024;
+    } else if (lower.endsWith("m")) {
+      multiplier = 1024 * 1024;
+    } else if (lower.endsWith("g")) {
+      multiplier = 1024 * 1024 * 1024;
     }
-    
-    for (Thread thread : threadReaders) {
-      try {
-        thread.join();
-      } catch (InterruptedException e) {
-        Thread.interrupted();
-        e.printStackTrace();
-      }
-    }
-    
-    for (Aspect aspect : aspects) {
-      aspect.endOfFile();
+    if (multiplier != 1) {
+      lower = lower.substring(0, lower.length() - 1);
     }
+    return Long.parseLong(lower) * multiplier;
   }
   
   private static final class DigitComparator implements Comparator<Object> {
@@ -0,0 +1,473 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A request as Solr logs it once it is done, for example
+ *
+ * <pre>
+ * [c:collection1 s:shard1 x:collection1_shard1_replica_n1] o.a.s.c.S.Request [collection1_shard1_replica_n1]
+ *   webapp=/solr path=/select params={q=*:*&amp;wt=javabin} hits=10 status=0 QTime=3
+ * </pre>
+ *
+ * The headline is parsed in a single pass, without backtracking. Parameter values
+ * are kept as Solr writes them, URL encoded, and only decoded when asked for. A
+ * request is reused for parsing headline after headline, and only keeps the
+ * headline until {@link #clear()}.
+ */
+public class SolrRequest {
+  private static final String WEBAPP = "webapp=";
+  // params that differ from request to request without changing what is asked for
+  private static final Set<String> NOISE = new HashSet<String>(
+      Arrays.asList("_", "NOW", "rid", "version", "wt", "shard.url"));
+  private static final Set<String> OPERATORS = new HashSet<String>(Arrays.asList("AND", "OR", "NOT", "TO", "*"));
+
+  private CharSequence line;
+  // start and end of each part, -1 if it is not there
+  private int coreStart;
+  private int coreEnd;
+  private int collectionStart;
+  private int collectionEnd;
+  private int webappStart;
+  private int webappEnd;
+  private int pathStart;
+  private int pathEnd;
+  private int paramsStart;
+  private int paramsEnd;
+  // name start, name end (the '=') and value end of each param
+  private int[] params = new int[3 * 16];
+  private int paramCount;
+  private long hits;
+  private int status;
+  private int qTime;
+
+  /**
+   * Lets go of the headline, which may be a view of the bytes of a log. Nothing
+   * more can be read from the request until the next parse.
+   */
+  public void clear() {
+    line = null;
+  }
+
+  /**
+   * @return true if the headline is a request, with at least a webapp and a QTime
+   */
+  public boolean parse(CharSequence line) {
+    this.line = line;
+    coreStart = collectionStart = webappStart = pathStart = -1;
+    paramsStart = paramsEnd = 0;
+    paramCount = 0;
+    hits = -1;
+    status = -1;
+    qTime = -1;
+
+    int length = line.length();
+    int pos = 0;
+    // the core is in the brackets right before webapp=, the collection may be in the
+    // logging context in brackets earlier on
+    int bracketStart = -1;
+    int bracketEnd = -1;
+    for (;; pos++) {
+      if (pos >= length) {
+        return false;
+      }
+      char c = line.charAt(pos);
+      if (c == '[') {
+        bracketStart = pos;
+        bracketEnd = -1;
+      } else if (c == ']') {
+        bracketEnd = pos;
+      } else if (c == ':' && bracketStart != -1 && bracketEnd == -1 && collectionStart == -1 && pos >= 1
+          && line.charAt(pos - 1) == 'c' && (pos - 1 == bracketStart + 1 || line.charAt(pos - 2) == ' ')) {
+        collectionStart = pos + 1;
+        collectionEnd = endOfToken(line, collectionStart, ']');
+      } else if (c == 'w' && startsWith(line, pos, WEBAPP) && (pos == 0 || line.charAt(pos - 1) == ' ')) {
+        break;
+      } else if (c != ' ' && bracketEnd != -1) {
+        bracketStart = bracketEnd = -1;
+      }
+    }
+    if (bracketStart != -1 && bracketEnd != -1) {
+      coreStart = bracketStart + 1;
+      coreEnd = bracketEnd;
+    }
+
+    webappStart = pos + WEBAPP.length();
+    webappEnd = endOfToken(line, webappStart, ' ');
+    pos = webappEnd;
+    int end;
+
+    while (pos < length) {
+      if (line.charAt(pos) == ' ') {
+        pos++;
+      } else if (startsWith(line, pos, "params={")) {
+        pos = parseParams(pos + "params={".length());
+      } else if (startsWith(line, pos, "path=")) {
+        pathStart = pos + "path=".length();
+        pathEnd = endOfToken(line, pathStart, ' ');
+        pos = pathEnd;
+      } else if (startsWith(line, pos, "hits=")) {
+        end = endOfToken(line, pos + "hits=".length(), ' ');
+        hits = parseNumber(pos + "hits=".length(), end);
+        pos = end;
+      } else if (startsWith(line, pos, "status=")) {
+        end = endOfToken(line, pos + "status=".length(), ' ');
+        status = (int) parseNumber(pos + "status=".length(), end);
+        pos = end;
+      } else if (startsWith(line, pos, "QTime=")) {
+        end = endOfToken(line, pos + "QTime=".length(), ' ');
+        qTime = (int) parseNumber(pos + "QTime=".length(), end);
+        pos = end;
+      } else {
+        // something else Solr was asked to log
+        pos = endOfToken(line, pos, ' ');
+      }
+    }
+    return qTime != -1;
+  }
+
+  /**
+   * Solr encodes spaces in parameter values, so the params end at the first closing
+   * brace that is followed by a space or the end of the line. Values may have braces
+   * of their own, local params for one.
+   *
+   * @return the position after the params
+   */
+  private int parseParams(int pos) {
+    int length = line.length();
+    paramsStart = pos;
+    int nameStart = pos;
+    int nameEnd = -1;
+    for (;; pos++) {
+      char c = pos < length ? line.charAt(pos) : ' ';
+      boolean end = pos >= length || (c == '}' && (pos + 1 == length || line.charAt(pos + 1) == ' '));
+      if (end || c == '&') {
+        if (pos > nameStart) {
+          addParam(nameStart, nameEnd == -1 ? pos : nameEnd, pos);
+        }
+        if (end) {
+          paramsEnd = Math.min(pos, length);
+          return Math.min(pos + 1, length);
+        }
+        nameStart = pos + 1;
+        nameEnd = -1;
+      } else if (c == '=' && nameEnd == -1) {
+        nameEnd = pos;
+      }
+    }
+  }
+
+  private void addParam(int nameStart, int nameEnd, int valueEnd) {
+    if (3 * paramCount + 3 > params.length) {
+      int[] grown = new int[params.length * 2];
+      System.arraycopy(params, 0, grown, 0, params.length);
+      params = grown;
+    }
+    params[3 * paramCount] = nameStart;
+    params[3 * paramCount + 1] = nameEnd;
+    params[3 * paramCount + 2] = valueEnd;
+    paramCount++;
+  }
+
+  private long parseNumber(int start, int end) {
+    long n = 0;
+    for (int i = start; i < end; i++) {
+      char c = line.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      n = 10 * n + (c - '0');
+    }
+    return start == end ? -1 : n;
+  }
+
+  private static int endOfToken(CharSequence s, int pos, char stop) {
+    int length = s.length();
+    while (pos < length && s.charAt(pos) != stop && s.charAt(pos) != ' ') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean startsWith(CharSequence s, int pos, String prefix) {
+    if (pos + prefix.length() > s.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (s.charAt(pos + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the name in the brackets before webapp=, a core or "admin", or null
+   */
+  public String getCore() {
+    return part(coreStart, coreEnd);
+  }
+
+  /**
+   * @return the collection from the logging context, or null if it was not logged
+   */
+  public String getCollection() {
+    return part(collectionStart, collectionEnd);
+  }
+
+  public String getWebapp() {
+    return part(webappStart, webappEnd);
+  }
+
+  /**
+   * @return the path of the handler, or null
+   */
+  public String getPath() {
+    return part(pathStart, pathEnd);
+  }
+
+  private String part(int start, int end) {
+    return start == -1 ? null : line.subSequence(start, end).toString();
+  }
+
+  /**
+   * @return true if the core is the given one, without making a string of it
+   */
+  public boolean isCore(String core) {
+    return partEquals(coreStart, coreEnd, core);
+  }
+
+  public boolean isPath(String path) {
+    return partEquals(pathStart, pathEnd, path);
+  }
+
+  private boolean partEquals(int start, int end, String s) {
+    if (start == -1 || s == null) {
+      return start == -1 && s == null;
+    }
+    return end - start == s.length() && startsWith(line, start, s);
+  }
+
+  /**
+   * @return the params as Solr logged them, without the braces
+   */
+  public String getParamString() {
+    return line.subSequence(paramsStart, paramsEnd).toString();
+  }
+
+  public int getParamCount() {
+    return paramCount;
+  }
+
+  public String getParamName(int i) {
+    return line.subSequence(params[3 * i], params[3 * i + 1]).toString();
+  }
+
+  /**
+   * @return the value of the i-th param as Solr logged it, URL encoded
+   */
+  public String getRawParamValue(int i) {
+    int nameEnd = params[3 * i + 1];
+    int valueEnd = params[3 * i + 2];
+    return nameEnd == valueEnd ? "" : line.subSequence(nameEnd + 1, valueEnd).toString();
+  }
+
+  public String getParamValue(int i) {
+    return decode(getRawParamValue(i));
+  }
+
+  /**
+   * @return the decoded value of the first param with the name, or null
+   */
+  public String getParam(String name) {
+    for (int i = 0; i < paramCount; i++) {
+      int nameStart = params[3 * i];
+      if (params[3 * i + 1] - nameStart == name.length() && startsWith(line, nameStart, name)) {
+        return getParamValue(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the number of documents found, or -1 if the handler did not log it
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return the status of the response, or -1 if it was not logged
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  public int getQTime() {
+    return qTime;
+  }
+
+  /**
+   * @return the handler and the params sorted by name, with all literal values
+   *         replaced by '?', so requests that only differ in what they look for
+   *         have the same fingerprint. Field, function and local param names and
+   *         query operators are kept, and so are the args of functions that are
+   *         not numbers, as those are fields.
+   */
+  public String getFingerprint() {
+    List<String> shape = new ArrayList<String>(paramCount);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < paramCount; i++) {
+      String name = getParamName(i);
+      if (NOISE.contains(name)) {
+        continue;
+      }
+      sb.setLength(0);
+      sb.append(name).append('=');
+      normalize(getParamValue(i), sb);
+      shape.add(sb.toString());
+    }
+    Collections.sort(shape);
+    sb.setLength(0);
+    sb.append(pathStart == -1 ? "" : getPath());
+    for (String param : shape) {
+      sb.append(' ').append(param);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Appends the value with literals replaced by '?'. Literals that only have spaces
+   * between them become a single '?'.
+   */
+  static void normalize(String value, StringBuilder sb) {
+    // where the last '?' ends, -1 if something else came after it
+    int literalEnd = -1;
+    // for each open paren, whether it holds the args of a function
+    BitSet functions = new BitSet();
+    int depth = 0;
+    boolean function = false;
+    int n = value.length();
+    int i = 0;
+    while (i < n) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        i++;
+        while (i < n && value.charAt(i) != '"') {
+          i += value.charAt(i) == '\\' ? 2 : 1;
+        }
+        i++;
+        literalEnd = appendLiteral(sb, literalEnd);
+      } else if (isTermChar(c)) {
+        int start = i;
+        i = endOfTerm(value, i);
+        String term = value.substring(start, i);
+        char next = i < n ? value.charAt(i) : ' ';
+        // a function's args are fields, unless they are numbers
+        boolean arg = depth > 0 && functions.get(depth - 1) && (next == ',' || next == ')');
+        boolean name = (next == ':' || next == '=' || next == '(' || arg) && startsName(term);
+        if (name || OPERATORS.contains(term) || endsWith(sb, "{!")) {
+          sb.append(term);
+          literalEnd = -1;
+          function = next == '(';
+        } else {
+          // dates and times have colons of their own
+          while (i + 1 < n && value.charAt(i) == ':' && isTermChar(value.charAt(i + 1))) {
+            i = endOfTerm(value, i + 1);
+          }
+          literalEnd = appendLiteral(sb, literalEnd);
+        }
+      } else if (Character.isWhitespace(c)) {
+        if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') {
+          sb.append(' ');
+        }
+        i++;
+      } else {
+        if (c == '(') {
+          functions.set(depth++, function);
+        } else if (c == ')' && depth > 0) {
+          depth--;
+        }
+        function = false;
+        sb.append(c);
+        literalEnd = -1;
+        i++;
+      }
+    }
+    if (sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ') {
+      sb.setLength(sb.length() - 1);
+    }
+  }
+
+  private static int appendLiteral(StringBuilder sb, int literalEnd) {
+    if (literalEnd != -1) {
+      sb.setLength(literalEnd);
+    } else {
+      sb.append('?');
+    }
+    return sb.length();
+  }
+
+  private static boolean isTermChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-' || c == '+' || c == '*' || c == '?'
+        || c == '\\';
+  }
+
+  private static int endOfTerm(String value, int i) {
+    while (i < value.length() && isTermChar(value.charAt(i))) {
+      i += value.charAt(i) == '\\' ? 2 : 1;
+    }
+    return Math.min(i, value.length());
+  }
+
+  private static boolean startsName(String term) {
+    int i = 0;
+    while (i < term.length() && (term.charAt(i) == '+' || term.charAt(i) == '-')) {
+      i++;
+    }
+    return i < term.length() && (Character.isLetter(term.charAt(i)) || term.charAt(i) == '_'
+        || term.charAt(i) == '*');
+  }
+
+  private static boolean endsWith(StringBuilder sb, String suffix) {
+    int start = sb.length() - suffix.length();
+    return start >= 0 && sb.indexOf(suffix, start) == start;
+  }
+
+  private static String decode(String value) {
+    if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+      return value;
+    }
+    try {
+      return URLDecoder.decode(value, "UTF-8");
+    } catch (IllegalArgumentException e) {
+      // not encoded after all
+      return value;
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
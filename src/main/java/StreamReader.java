@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads the log entries of a compressed log. Blocks come off a
+ * {@link DecompressionPipeline} into a window that is parsed the same way as a
+ * mapped window of a plain file, an entry that runs past the end of the window is
+ * carried over to the next one.
+ */
+public class StreamReader implements Runnable {
+  // compressed logs can't be split, so there is no point in big windows
+  private static final int MAX_WINDOW_SIZE = 4 * 1024 * 1024;
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private final LogSource.Stream source;
+  private final List<Aspect> aspects;
+  private final LogFormat[] formats;
+  private final SolrLogReader.Range range;
+  private final int windowSize;
+  private final PrintStream out;
+
+  private ByteBuffer pending;
+  private boolean endOfData;
+  private boolean failed;
+
+  public StreamReader(LogSource.Stream source, List<Aspect> aspects, LogFormat[] formats, SolrLogReader.Range range,
+      int windowSize, PrintStream out) {
+    this.source = source;
+    this.aspects = aspects;
+    this.formats = formats;
+    this.range = range;
+    this.windowSize = Math.min(windowSize, MAX_WINDOW_SIZE);
+    this.out = out;
+  }
+
+  /**
+   * @return true if the log could not be read to its end
+   */
+  public boolean hasFailed() {
+    return failed;
+  }
+
+  @Override
+  public void run() {
+    DecompressionPipeline pipeline = new DecompressionPipeline(source);
+    try {
+      ByteBuffer window = ByteBuffer.allocate(windowSize);
+      window.limit(0);
+      ReaderThread reader = null;
+      while (true) {
+        window.compact();
+        fill(pipeline, window);
+        window.flip();
+
+        int consumed = 0;
+        if (reader == null) {
+          LogFormat format = LogFormat.sniff(window, endOfData, formats);
+          if (format != null) {
+            reader = new ReaderThread(source.getName(), aspects, format, range);
+          } else if (endOfData || window.limit() >= LogFormat.sniffLength(Long.MAX_VALUE)) {
+            // no log entries found, could not match on timestamp
+            out.println("No configured timestamp pattern matched file: " + source.getName());
+            return;
+          }
+        }
+        if (reader != null) {
+          consumed = reader.readWindow(window, endOfData);
+        }
+        if (endOfData) {
+          return;
+        }
+        if (consumed == 0 && window.limit() == window.capacity()) {
+          if (window.capacity() == MAX_CAPACITY) {
+            System.err.println("Log entry larger than 2GB in " + source.getName() + ", skipping the rest of the file");
+            return;
+          }
+          // a single entry does not fit, go again with a bigger window
+          ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(2L * window.capacity(), MAX_CAPACITY));
+          bigger.put(window);
+          bigger.flip();
+          window = bigger;
+        } else {
+          window.position(consumed);
+        }
+      }
+    } catch (IOException e) {
+      failed = true;
+      e.printStackTrace();
+    } finally {
+      pipeline.close();
+    }
+  }
+
+  /**
+   * Fills the window from the pipeline until it is full or the log has ended.
+   */
+  private void fill(DecompressionPipeline pipeline, ByteBuffer window) throws IOException {
+    while (window.hasRemaining()) {
+      if (pending == null) {
+        pending = pipeline.take();
+        if (pending == null) {
+          endOfData = true;
+          return;
+        }
+      }
+      int n = Math.min(window.remaining(), pending.remaining());
+      window.put(pending.array(), pending.arrayOffset() + pending.position(), n);
+      pending.position(pending.position() + n);
+      if (!pending.hasRemaining()) {
+        pipeline.recycle(pending);
+        pending = null;
+      }
+    }
+  }
+}
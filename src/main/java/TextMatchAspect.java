@@ -16,73 +16,133 @@
  * limitations under the License.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.File;
 import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.Collections;
-import java.util.Date;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
 
+/**
+ * Pulls out the entries with any of the search terms in them, into a file per
+ * term. All terms are looked for in a single scan of each entry, see
+ * {@link TextMatcher}.
+ */
 public class TextMatchAspect extends Aspect {
-  private SortedSet<Text> texts = Collections.synchronizedSortedSet(new TreeSet<Text>());
-  private final String text;
+  private final ExternalSorter<Text> texts;
+  private final TextMatcher matcher;
   private String outputDir;
-  private String filename;
+  private ReportWriter[] outputs;
   
-  static class Text implements Comparable<Text> {
+  static class Text {
     String text;
-    Date date;
+    long time;
     String filename;
     String timestamp;
+    // the terms found in the entry
+    BitSet terms;
+    
+    static final Comparator<Text> BY_TIME = new Comparator<Text>() {
+      @Override
+      public int compare(Text t1, Text t2) {
+        int c = Long.compare(t1.time, t2.time);
+        if (c == 0) c = t1.text.compareTo(t2.text);
+        if (c == 0) c = t1.filename.compareTo(t2.filename);
+        return c != 0 ? c : String.valueOf(t1.timestamp).compareTo(String.valueOf(t2.timestamp));
+      }
+    };
     
-    @Override
-    public int compareTo(Text o) {
-      int rslt;
-      try {
-        rslt = this.date.compareTo(o.date);
-      } catch (Exception e) {
-        throw new RuntimeException("Problem with data:" + text, e);
+    static final ExternalSorter.Codec<Text> CODEC = new ExternalSorter.Codec<Text>() {
+      @Override
+      public void write(DataOutput out, Text t) throws IOException {
+        writeString(out, t.text);
+        out.writeLong(t.time);
+        writeString(out, t.filename);
+        writeString(out, t.timestamp);
+        long[] terms = t.terms.toLongArray();
+        out.writeInt(terms.length);
+        for (long word : terms) {
+          out.writeLong(word);
+        }
       }
       
-      return rslt;
-    }
+      @Override
+      public Text read(DataInput in) throws IOException {
+        Text t = new Text();
+        t.text = readString(in);
+        t.time = in.readLong();
+        t.filename = readString(in);
+        t.timestamp = readString(in);
+        long[] terms = new long[in.readInt()];
+        for (int i = 0; i < terms.length; i++) {
+          terms[i] = in.readLong();
+        }
+        t.terms = BitSet.valueOf(terms);
+        return t;
+      }
+      
+      @Override
+      public long size(Text t) {
+        return 2L * (t.text.length() + t.filename.length()) + 256;
+      }
+    };
   }
   
-  public TextMatchAspect(String text, String outputDir) {
-    this.text = text;
+  public TextMatchAspect(List<String> terms, String outputDir) {
+    this.matcher = new TextMatcher(terms);
+    this.texts = new ExternalSorter<Text>(Text.BY_TIME, Text.CODEC, ExternalSorter.DEFAULT_MEMORY);
     this.outputDir = outputDir;
     
     if (this.outputDir != null) {
-      filename = text.replaceAll("[^a-zA-Z0-9.-]", "_") + ".txt";
-      StringBuilder sb = new StringBuilder();
-      sb.append("TextMatch Report: " + text + "\n");
-      sb.append("-----------------\n\n");
-      
-      try {
-        Files.write(Paths.get(outputDir, filename), sb.toString().getBytes("UTF-8"), StandardOpenOption.CREATE);
-      } catch (UnsupportedEncodingException e) {
-        // UTF-8
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+      outputs = new ReportWriter[terms.size()];
+      for (int i = 0; i < terms.size(); i++) {
+        String term = terms.get(i);
+        String filename = term.replaceAll("[^a-zA-Z0-9.-]", "_") + ".txt";
+        StringBuilder sb = new StringBuilder();
+        sb.append("TextMatch Report: " + term + "\n");
+        sb.append("-----------------\n\n");
+        
+        try {
+          outputs[i] = new ReportWriter(outputDir + File.separator + filename);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        outputs[i].write(sb);
       }
     }
   }
   
+  private TextMatchAspect(TextMatcher matcher, ExternalSorter<Text> texts) {
+    this.matcher = matcher;
+    this.texts = texts;
+  }
+  
   @Override
-  public boolean process(String filename, String timestamp, Date dateTs, String headLine, String entry) {
-    if (dateTs == null) {
-      dateTs = new Date(0);
-    }
-    if (headLine.contains(text) || entry.contains(text)){
+  public String[] getTriggers() {
+    // the text may be in the rest of the entry
+    return null;
+  }
+  
+  @Override
+  public boolean process(LogRecord record) {
+    CharSequence headLine = record.getHeadLine();
+    CharSequence entry = record.getBody();
+    BitSet terms = new BitSet();
+    matcher.match(headLine, terms);
+    matcher.match(entry, terms);
+    if (!terms.isEmpty()) {
+      long time = record.getTime();
+      if (time == TimestampParser.NO_TIMESTAMP) {
+        time = 0;
+      }
       Text text = new Text();
       text.text = headLine + (entry != null && entry.length() > 0 ? ":" + entry : "");
-      text.date = dateTs;
-      text.timestamp = timestamp;
-      text.filename = filename;
+      text.time = time;
+      text.timestamp = record.getTimestamp();
+      text.filename = record.getFilename();
+      text.terms = terms;
       texts.add(text);
     }
     return false;
@@ -91,27 +151,62 @@ public class TextMatchAspect extends Aspect {
   @Override
   public void endOfFile() {
     if (outputDir != null) {
-      flushSS();
+      flushTexts();
     }
   }
   
-  private void flushSS() {
-    synchronized (texts) {
-      StringBuilder sb = new StringBuilder();
-      for (Text t : texts) {
-        sb.append("(" + t.timestamp + " : " + t.filename + ")\n");
-        sb.append("  " + t.text + "\n\n");
-        
-        try {
-          Files.write(Paths.get(outputDir, filename), sb.toString().getBytes("UTF-8"), StandardOpenOption.APPEND);
-        } catch (UnsupportedEncodingException e) {
-          // UTF-8
-        } catch (IOException e) {
-          throw new RuntimeException(e);
+  private void flushTexts() {
+    try {
+      texts.visit(new ExternalSorter.Visitor<Text>() {
+        @Override
+        public void visit(Text t) {
+          String match = "(" + t.timestamp + " : " + t.filename + ")\n  " + t.text + "\n\n";
+          for (int i = t.terms.nextSetBit(0); i >= 0; i = t.terms.nextSetBit(i + 1)) {
+            outputs[i].write(match);
+          }
         }
-        sb.setLength(0);
+      });
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    for (ReportWriter output : outputs) {
+      output.flush();
+    }
+    texts.clear();
+  }
+  
+  @Override
+  public Aspect newPartial() {
+    return new TextMatchAspect(matcher, texts.newPartial());
+  }
+  
+  @Override
+  public void endOfChunk() {
+    texts.spill();
+  }
+  
+  @Override
+  public void merge(Aspect partial) {
+    TextMatchAspect other = (TextMatchAspect) partial;
+    texts.merge(other.texts);
+  }
+  
+  @Override
+  public void writeState(final DataOutput out) throws IOException {
+    out.writeLong(texts.size());
+    texts.visit(new ExternalSorter.Visitor<Text>() {
+      @Override
+      public void visit(Text t) throws IOException {
+        Text.CODEC.write(out, t);
       }
-      texts.clear();
+    });
+  }
+  
+  @Override
+  public void readState(DataInput in) throws IOException {
+    long size = in.readLong();
+    for (long i = 0; i < size; i++) {
+      texts.add(Text.CODEC.read(in));
     }
   }
   
@@ -122,7 +217,12 @@ public class TextMatchAspect extends Aspect {
   
   @Override
   public void close() {
-  
+    texts.clear();
+    if (outputs != null) {
+      for (ReportWriter output : outputs) {
+        output.close();
+      }
+    }
   }
   
 }
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds which of many search terms are in a text. A term is plain text, or a
+ * regex between slashes, /regex/, which is case insensitive with an i after the
+ * last slash, /regex/i.
+ *
+ * Plain text terms, and regexes that are really plain text, are compiled into a
+ * single Aho-Corasick automaton over case folded chars, so the text is scanned
+ * once for all of them. What it finds is checked against the term itself, which
+ * only takes a compare for the terms that end where the automaton found one. The
+ * other regexes are compiled into a single alternation and each place it matches
+ * at is checked for the regexes not found yet. Regexes that refer to groups by
+ * number or name don't work inside the alternation, where their groups are not
+ * the same, and are looked for one by one.
+ *
+ * A TextMatcher can be shared by any number of threads.
+ */
+public class TextMatcher {
+  // ASCII, and one symbol for all other chars
+  private static final int ALPHABET = 129;
+  private static final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+
+  private final List<String> terms;
+  private final String[] texts;
+  private final boolean[] ignoreCase;
+
+  // transitions of the automaton, complete so scanning never follows failure links
+  private final int[][] next;
+  // the text terms that end on reaching each state
+  private final int[][] found;
+  private final int textCount;
+
+  // the regex terms, on their own and as one alternation
+  private final int[] regexTerms;
+  private final Pattern[] regexes;
+  private final int[] regexGroups;
+  private final Pattern anyRegex;
+  // the regex terms looked for on their own
+  private final int[] ownTerms;
+  private final Pattern[] ownRegexes;
+
+  public TextMatcher(List<String> terms) {
+    this.terms = new ArrayList<String>(terms);
+    texts = new String[terms.size()];
+    ignoreCase = new boolean[terms.size()];
+    List<Integer> regexTerms = new ArrayList<Integer>();
+    List<Pattern> regexes = new ArrayList<Pattern>();
+    List<Integer> ownTerms = new ArrayList<Integer>();
+    List<Pattern> ownRegexes = new ArrayList<Pattern>();
+    int textCount = 0;
+    for (int i = 0; i < terms.size(); i++) {
+      String term = terms.get(i);
+      String regex = null;
+      if (term.length() > 2 && term.startsWith("/") && term.endsWith("/")) {
+        regex = term.substring(1, term.length() - 1);
+      } else if (term.length() > 3 && term.startsWith("/") && term.endsWith("/i")) {
+        regex = term.substring(1, term.length() - 2);
+        ignoreCase[i] = true;
+      }
+      if (regex == null || isText(regex)) {
+        texts[i] = regex == null ? term : regex;
+        textCount++;
+      } else {
+        Pattern pattern = Pattern.compile(regex, ignoreCase[i] ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+        if (refersToGroups(regex)) {
+          ownTerms.add(i);
+          ownRegexes.add(pattern);
+        } else {
+          regexTerms.add(i);
+          regexes.add(pattern);
+        }
+      }
+    }
+    this.textCount = textCount;
+    this.ownTerms = new int[ownTerms.size()];
+    for (int i = 0; i < this.ownTerms.length; i++) {
+      this.ownTerms[i] = ownTerms.get(i);
+    }
+    this.ownRegexes = ownRegexes.toArray(new Pattern[ownRegexes.size()]);
+
+    this.regexTerms = new int[regexTerms.size()];
+    this.regexes = regexes.toArray(new Pattern[regexes.size()]);
+    this.regexGroups = new int[regexes.size()];
+    StringBuilder any = new StringBuilder();
+    int group = 1;
+    for (int i = 0; i < this.regexes.length; i++) {
+      this.regexTerms[i] = regexTerms.get(i);
+      if (i > 0) {
+        any.append('|');
+      }
+      // a group around each regex tells which one matched
+      any.append(ignoreCase[regexTerms.get(i)] ? "((?iu:" : "((?:").append(this.regexes[i].pattern()).append("))");
+      regexGroups[i] = group;
+      group += 1 + this.regexes[i].matcher("").groupCount();
+    }
+    anyRegex = this.regexes.length == 0 ? null : Pattern.compile(any.toString());
+
+    List<int[]> trie = new ArrayList<int[]>();
+    List<int[]> outputs = new ArrayList<int[]>();
+    trie.add(new int[ALPHABET]);
+    outputs.add(new int[0]);
+    for (int i = 0; i < texts.length; i++) {
+      if (texts[i] == null || texts[i].isEmpty()) {
+        continue;
+      }
+      int state = 0;
+      for (int j = 0; j < texts[i].length(); j++) {
+        int c = fold(texts[i].charAt(j));
+        if (trie.get(state)[c] == 0) {
+          trie.get(state)[c] = trie.size();
+          trie.add(new int[ALPHABET]);
+          outputs.add(new int[0]);
+        }
+        state = trie.get(state)[c];
+      }
+      outputs.set(state, add(outputs.get(state), i));
+    }
+
+    // breadth first, so the failure state of a state is always done before it
+    int[] fail = new int[trie.size()];
+    Queue<Integer> queue = new LinkedList<Integer>();
+    int[] root = trie.get(0);
+    for (int c = 0; c < ALPHABET; c++) {
+      if (root[c] != 0) {
+        queue.add(root[c]);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      int[] transitions = trie.get(state);
+      // a term that ends in the middle of a longer one counts too
+      for (int term : outputs.get(fail[state])) {
+        outputs.set(state, add(outputs.get(state), term));
+      }
+      for (int c = 0; c < ALPHABET; c++) {
+        int child = transitions[c];
+        if (child != 0) {
+          fail[child] = trie.get(fail[state])[c];
+          queue.add(child);
+        } else {
+          transitions[c] = trie.get(fail[state])[c];
+        }
+      }
+    }
+    next = trie.toArray(new int[trie.size()][]);
+    found = outputs.toArray(new int[outputs.size()][]);
+  }
+
+  public List<String> getTerms() {
+    return terms;
+  }
+
+  /**
+   * Adds the terms found in the text to the hits, bit i for term i. Terms that
+   * are already hits are not looked for.
+   */
+  public void match(CharSequence s, BitSet hits) {
+    if (s == null || hits.cardinality() == terms.size()) {
+      return;
+    }
+    matchTexts(s, hits);
+    if (anyRegex != null) {
+      matchRegexes(s, hits);
+    }
+    for (int i = 0; i < ownRegexes.length; i++) {
+      if (!hits.get(ownTerms[i]) && ownRegexes[i].matcher(s).find()) {
+        hits.set(ownTerms[i]);
+      }
+    }
+  }
+
+  private void matchTexts(CharSequence s, BitSet hits) {
+    int remaining = textCount;
+    for (int i = 0; i < texts.length; i++) {
+      if (texts[i] != null && (texts[i].isEmpty() || hits.get(i))) {
+        hits.set(i);
+        remaining--;
+      }
+    }
+    int state = 0;
+    for (int i = 0, length = s.length(); i < length && remaining > 0; i++) {
+      state = next[state][fold(s.charAt(i))];
+      for (int term : found[state]) {
+        if (!hits.get(term) && regionMatches(s, i + 1 - texts[term].length(), texts[term], ignoreCase[term])) {
+          hits.set(term);
+          remaining--;
+        }
+      }
+    }
+  }
+
+  private void matchRegexes(CharSequence s, BitSet hits) {
+    int remaining = 0;
+    for (int term : regexTerms) {
+      if (!hits.get(term)) {
+        remaining++;
+      }
+    }
+    Matcher any = anyRegex.matcher(s);
+    int from = 0;
+    // every place a regex matches at is a place the alternation matches at, but
+    // there it may match another regex first
+    while (remaining > 0 && from <= s.length() && any.find(from)) {
+      int start = any.start();
+      for (int i = 0; i < regexes.length; i++) {
+        int term = regexTerms[i];
+        if (hits.get(term)) {
+          continue;
+        }
+        if (any.start(regexGroups[i]) != -1 || lookingAt(regexes[i], s, start)) {
+          hits.set(term);
+          remaining--;
+        }
+      }
+      from = start + 1;
+    }
+  }
+
+  private static boolean lookingAt(Pattern regex, CharSequence s, int start) {
+    Matcher m = regex.matcher(s);
+    m.region(start, s.length());
+    m.useTransparentBounds(true);
+    m.useAnchoringBounds(false);
+    return m.lookingAt();
+  }
+
+  private static boolean regionMatches(CharSequence s, int start, String text, boolean ignoreCase) {
+    for (int i = 0; i < text.length(); i++) {
+      char c1 = s.charAt(start + i);
+      char c2 = text.charAt(i);
+      if (c1 != c2 && (!ignoreCase || !sameIgnoringCase(c1, c2))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameIgnoringCase(char c1, char c2) {
+    return Character.toUpperCase(c1) == Character.toUpperCase(c2)
+        || Character.toLowerCase(c1) == Character.toLowerCase(c2);
+  }
+
+  private static int fold(char c) {
+    if (c >= 'A' && c <= 'Z') {
+      return c + ('a' - 'A');
+    }
+    return c < ALPHABET - 1 ? c : ALPHABET - 1;
+  }
+
+  private static boolean isText(String regex) {
+    for (int i = 0; i < regex.length(); i++) {
+      if (REGEX_CHARS.indexOf(regex.charAt(i)) != -1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the regex has a back reference, \1 or \k&lt;name&gt;, or a
+   *         named group, whose name another regex may have too
+   */
+  private static boolean refersToGroups(String regex) {
+    for (int i = 0; i < regex.length() - 1; i++) {
+      char c = regex.charAt(i);
+      char next = regex.charAt(i + 1);
+      if (c == '\\') {
+        if ((next >= '1' && next <= '9') || next == 'k') {
+          return true;
+        }
+        // the escaped char
+        i++;
+      } else if (c == '(' && regex.startsWith("?<", i + 1) && i + 3 < regex.length()
+          && regex.charAt(i + 3) != '=' && regex.charAt(i + 3) != '!') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int[] add(int[] terms, int term) {
+    for (int t : terms) {
+      if (t == term) {
+        return terms;
+      }
+    }
+    int[] added = new int[terms.length + 1];
+    System.arraycopy(terms, 0, added, 0, terms.length);
+    added[terms.length] = term;
+    return added;
+  }
+}
@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Counts events, or sums up a value of them, by the second, minute and hour they
+ * happened in. Each resolution is a fixed ring of buckets, allocated once with the
+ * first event, that only covers the latest part of the logs: an hour by the second,
+ * a day by the minute and 90 days by the hour. Events are added to all resolutions,
+ * so what falls out of a finer one is still in the coarser ones.
+ *
+ * A counter is charted as the number of events per bucket, a gauge as the mean of
+ * the values of the events in each bucket, the mean QTime say.
+ */
+public class TimeSeries {
+  public static final long[] RESOLUTIONS = {1000L, 60 * 1000L, 60 * 60 * 1000L};
+  public static final String[] UNITS = {"second", "minute", "hour"};
+  private static final int[] CAPACITIES = {60 * 60, 24 * 60, 90 * 24};
+
+  /**
+   * A bucket of a series.
+   */
+  public static class Point {
+    public final long time;
+    public final double value;
+
+    Point(long time, double value) {
+      this.time = time;
+      this.value = value;
+    }
+  }
+
+  private final String name;
+  private final boolean gauge;
+  private final Level[] levels = new Level[RESOLUTIONS.length];
+
+  /**
+   * @param gauge true to chart the mean of the values of the events, false to
+   *        count them
+   */
+  public TimeSeries(String name, boolean gauge) {
+    this.name = name;
+    this.gauge = gauge;
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = new Level(RESOLUTIONS[i], CAPACITIES[i], gauge);
+    }
+  }
+
+  /**
+   * @return a new, empty series like this one, for a partial of an aspect
+   */
+  public TimeSeries newPartial() {
+    return new TimeSeries(name, gauge);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isGauge() {
+    return gauge;
+  }
+
+  /**
+   * Adds an event, events without a known time are ignored.
+   */
+  public void add(long time) {
+    add(time, 0);
+  }
+
+  public void add(long time, long value) {
+    if (time == TimestampParser.NO_TIMESTAMP) {
+      return;
+    }
+    for (Level level : levels) {
+      level.add(floorDiv(time, level.resolution), 1, value);
+    }
+  }
+
+  public void merge(TimeSeries other) {
+    for (int i = 0; i < levels.length; i++) {
+      levels[i].merge(other.levels[i]);
+    }
+  }
+
+  public boolean isEmpty() {
+    return levels[0].head == Long.MIN_VALUE;
+  }
+
+  /**
+   * @return the finest resolution that still has all events, or the coarsest one
+   */
+  public int getLevel() {
+    for (int i = 0; i < levels.length; i++) {
+      if (!levels[i].overflowed) {
+        return i;
+      }
+    }
+    return levels.length - 1;
+  }
+
+  /**
+   * @return the buckets of a resolution from the first to the last one with events,
+   *         empty counter buckets are 0 and empty gauge buckets are left out
+   */
+  public List<Point> getPoints(int level) {
+    return levels[level].points();
+  }
+
+  /**
+   * @return up to n buckets with more than both of their neighbors, the most first
+   */
+  public List<Point> getPeaks(int level, int n) {
+    return extremes(getPoints(level), n, true);
+  }
+
+  /**
+   * @return up to n buckets with less than both of their neighbors, the least first
+   */
+  public List<Point> getTroughs(int level, int n) {
+    return extremes(getPoints(level), n, false);
+  }
+
+  /**
+   * Prints the peaks and troughs of the series, if it has any, at the finest
+   * resolution that has all of it.
+   */
+  public void printPeaks(PrintStream out, int n) {
+    if (isEmpty()) {
+      return;
+    }
+    int level = getLevel();
+    String prefix = name + (gauge ? " by " : " per ") + UNITS[level];
+    String pattern = level == 0 ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd HH:mm";
+    List<Point> peaks = getPeaks(level, n);
+    if (!peaks.isEmpty()) {
+      out.println(prefix + ", peaks: " + format(peaks, pattern));
+    }
+    List<Point> troughs = getTroughs(level, n);
+    if (!troughs.isEmpty()) {
+      out.println(prefix + ", troughs: " + format(troughs, pattern));
+    }
+  }
+
+  private String format(List<Point> points, String pattern) {
+    SimpleDateFormat df = new SimpleDateFormat(pattern);
+    StringBuilder sb = new StringBuilder();
+    for (Point point : points) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(gauge ? String.format("%.1f", point.value) : Long.toString((long) point.value));
+      sb.append(" at ").append(df.format(new Date(point.time)));
+    }
+    return sb.toString();
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return x % y != 0 && (x < 0) != (y < 0) ? q - 1 : q;
+  }
+
+  private static List<Point> extremes(List<Point> points, int n, final boolean peaks) {
+    List<Point> extremes = new ArrayList<Point>();
+    for (int i = 0; i < points.size(); i++) {
+      double value = points.get(i).value;
+      double before = i > 0 ? points.get(i - 1).value : Double.NaN;
+      double after = i < points.size() - 1 ? points.get(i + 1).value : Double.NaN;
+      // a plateau counts once, at its start
+      boolean beforeOk = Double.isNaN(before) || (peaks ? value > before : value < before);
+      boolean afterOk = Double.isNaN(after) || (peaks ? value >= after : value <= after);
+      if (beforeOk && afterOk && points.size() > 1) {
+        extremes.add(points.get(i));
+      }
+    }
+    Collections.sort(extremes, new Comparator<Point>() {
+      @Override
+      public int compare(Point p1, Point p2) {
+        int c = peaks ? Double.compare(p2.value, p1.value) : Double.compare(p1.value, p2.value);
+        return c != 0 ? c : Long.compare(p1.time, p2.time);
+      }
+    });
+    return extremes.subList(0, Math.min(n, extremes.size()));
+  }
+
+  public void write(DataOutput out) throws IOException {
+    for (Level level : levels) {
+      level.write(out);
+    }
+  }
+
+  /**
+   * Adds what {@link #write(DataOutput)} wrote to this series.
+   */
+  public void read(DataInput in) throws IOException {
+    TimeSeries read = newPartial();
+    for (Level level : read.levels) {
+      level.read(in);
+    }
+    merge(read);
+  }
+
+  /**
+   * The buckets of one resolution. Bucket b is kept in slot b % capacity, for the
+   * capacity buckets up to the latest one with events, the head.
+   */
+  private static class Level {
+    final long resolution;
+    final int capacity;
+    final boolean gauge;
+    // only allocated once there are events
+    long[] counts;
+    long[] sums;
+    long head = Long.MIN_VALUE;
+    long first = Long.MAX_VALUE;
+    // whether events were dropped for being too old
+    boolean overflowed;
+
+    Level(long resolution, int capacity, boolean gauge) {
+      this.resolution = resolution;
+      this.capacity = capacity;
+      this.gauge = gauge;
+    }
+
+    void add(long bucket, long count, long sum) {
+      if (head == Long.MIN_VALUE) {
+        if (counts == null) {
+          counts = new long[capacity];
+          sums = gauge ? new long[capacity] : null;
+        }
+        head = bucket;
+      } else if (bucket > head) {
+        // clear the buckets that are moved past
+        long clear = Math.min(bucket - head, capacity);
+        for (long b = head + 1; b <= head + clear; b++) {
+          int slot = slot(b);
+          counts[slot] = 0;
+          if (sums != null) {
+            sums[slot] = 0;
+          }
+        }
+        head = bucket;
+      } else if (bucket <= head - capacity) {
+        overflowed = true;
+        return;
+      }
+      if (bucket < first) {
+        first = bucket;
+      }
+      if (first <= head - capacity) {
+        overflowed = true;
+        first = head - capacity + 1;
+      }
+      int slot = slot(bucket);
+      counts[slot] += count;
+      if (sums != null) {
+        sums[slot] += sum;
+      }
+    }
+
+    private int slot(long bucket) {
+      int slot = (int) (bucket % capacity);
+      return slot < 0 ? slot + capacity : slot;
+    }
+
+    void merge(Level other) {
+      if (other.head == Long.MIN_VALUE) {
+        overflowed |= other.overflowed;
+        return;
+      }
+      for (long b = other.first; b <= other.head; b++) {
+        int slot = other.slot(b);
+        if (other.counts[slot] != 0) {
+          add(b, other.counts[slot], other.sums == null ? 0 : other.sums[slot]);
+        }
+      }
+      overflowed |= other.overflowed;
+    }
+
+    List<Point> points() {
+      List<Point> points = new ArrayList<Point>();
+      if (head == Long.MIN_VALUE) {
+        return points;
+      }
+      for (long b = first; b <= head; b++) {
+        int slot = slot(b);
+        if (sums == null) {
+          points.add(new Point(b * resolution, counts[slot]));
+        } else if (counts[slot] != 0) {
+          points.add(new Point(b * resolution, sums[slot] / (double) counts[slot]));
+        }
+      }
+      return points;
+    }
+
+    void write(DataOutput out) throws IOException {
+      out.writeBoolean(overflowed);
+      int used = 0;
+      for (int i = 0; counts != null && i < capacity; i++) {
+        if (counts[i] != 0) {
+          used++;
+        }
+      }
+      out.writeInt(used);
+      if (used == 0) {
+        return;
+      }
+      for (long b = first; b <= head; b++) {
+        int slot = slot(b);
+        if (counts[slot] != 0) {
+          out.writeLong(b);
+          out.writeLong(counts[slot]);
+          out.writeLong(sums == null ? 0 : sums[slot]);
+        }
+      }
+    }
+
+    void read(DataInput in) throws IOException {
+      overflowed |= in.readBoolean();
+      int used = in.readInt();
+      for (int i = 0; i < used; i++) {
+        long bucket = in.readLong();
+        long count = in.readLong();
+        add(bucket, count, in.readLong());
+      }
+    }
+  }
+}
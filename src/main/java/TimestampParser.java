@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * Parses raw timestamps in one of the configured date formats into epoch millis.
+ *
+ * A parser is compiled once per date format and can be shared by all reader
+ * threads. Each thread remembers the epoch of the last second it parsed, so a
+ * timestamp in the same second as the one before it in the same chunk only has its
+ * millis re-parsed, however many threads parse other chunks at the same time.
+ */
+public class TimestampParser {
+  public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  private static final String SECONDS = "seconds";
+
+  private final String dateFormat;
+  private final boolean rawMillis;
+  private final boolean trailingMillis;
+  // each reader thread parses a chunk of its own, so each remembers its own last second
+  private final ThreadLocal<State> states;
+
+  private static final class State {
+    final SimpleDateFormat format;
+    // the part of the timestamp that changes at most once a second, and its epoch millis
+    final StringBuilder prefix = new StringBuilder();
+    long epoch;
+
+    State(SimpleDateFormat format) {
+      this.format = format;
+    }
+  }
+
+  /**
+   * @param dateFormat a {@link SimpleDateFormat} pattern or "seconds" for a timestamp
+   *          that is just a number
+   */
+  public TimestampParser(final String dateFormat) {
+    this.dateFormat = dateFormat;
+    this.rawMillis = dateFormat.equals(SECONDS);
+    this.trailingMillis = endsWithSeparatedMillis(dateFormat);
+    if (rawMillis) {
+      states = null;
+    } else {
+      // fail on a bad pattern now rather than on the first matched line
+      new SimpleDateFormat(dateFormat);
+      states = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+          return new State(new SimpleDateFormat(dateFormat));
+        }
+      };
+    }
+  }
+
+  /**
+   * @return the timestamp in epoch millis or {@link #NO_TIMESTAMP} if it could not be parsed
+   */
+  public long parse(CharSequence timestamp) {
+    int length = timestamp.length();
+    if (rawMillis) {
+      return parseDigits(timestamp, 0, length);
+    }
+
+    // the part of the timestamp that changes at most once a second
+    int prefixEnd = length;
+    if (trailingMillis) {
+      while (prefixEnd > 0 && isDigit(timestamp.charAt(prefixEnd - 1))) {
+        prefixEnd--;
+      }
+      if (prefixEnd == 0) {
+        prefixEnd = length;
+      }
+    }
+    long millis = prefixEnd < length ? parseDigits(timestamp, prefixEnd, length) : 0;
+
+    State state = states.get();
+    if (state.prefix.length() > 0 && regionMatches(state.prefix, timestamp, prefixEnd)) {
+      return state.epoch + millis;
+    }
+
+    long epoch;
+    try {
+      epoch = state.format.parse(timestamp.toString()).getTime();
+    } catch (ParseException e) {
+      e.printStackTrace();
+      return NO_TIMESTAMP;
+    }
+    state.prefix.setLength(0);
+    state.prefix.append(timestamp, 0, prefixEnd);
+    state.epoch = epoch - millis;
+    return epoch;
+  }
+
+  public String getDateFormat() {
+    return dateFormat;
+  }
+
+  private static boolean regionMatches(CharSequence prefix, CharSequence timestamp, int prefixEnd) {
+    if (prefix.length() != prefixEnd) {
+      return false;
+    }
+    // the most significant chars are the least likely to differ
+    for (int i = prefixEnd - 1; i >= 0; i--) {
+      if (prefix.charAt(i) != timestamp.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long parseDigits(CharSequence cs, int start, int end) {
+    if (start == end) {
+      return NO_TIMESTAMP;
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      char c = cs.charAt(i);
+      if (!isDigit(c)) {
+        return NO_TIMESTAMP;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * The millis can only be split off when they end the format and are not run
+   * together with another numeric field, e.g. "HH:mm:ss,SSS" but not "HHmmssSSS".
+   */
+  private static boolean endsWithSeparatedMillis(String dateFormat) {
+    int i = dateFormat.length();
+    while (i > 0 && dateFormat.charAt(i - 1) == 'S') {
+      i--;
+    }
+    if (i == dateFormat.length() || i == 0) {
+      return false;
+    }
+    char separator = dateFormat.charAt(i - 1);
+    return !Character.isLetter(separator) && separator != '\'';
+  }
+}
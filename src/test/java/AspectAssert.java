@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+
+/**
+ * Assertions shared by the tests of aspects.
+ */
+public class AspectAssert {
+  private AspectAssert() {}
+
+  /**
+   * Checks that the report is the same when the records are split up anywhere, even
+   * between entries that belong together, read into partials and merged in order.
+   *
+   * @param aspects makes the aspect the partials are merged into
+   */
+  public static void assertSplits(Callable<Aspect> aspects, List<LogRecord> records, String report)
+      throws Exception {
+    for (int split = 1; split < records.size(); split += 3) {
+      Aspect merged = aspects.call();
+      for (int from = 0; from < records.size(); from += split) {
+        Aspect partial = merged.newPartial();
+        for (LogRecord record : records.subList(from, Math.min(records.size(), from + split))) {
+          partial.process(record);
+        }
+        merged.merge(partial);
+      }
+      Assert.assertEquals(report, report(merged));
+    }
+  }
+
+  /**
+   * @return the report the aspect prints
+   */
+  public static String report(Aspect aspect) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    aspect.printReport(new PrintStream(bytes, true, "UTF-8"));
+    return bytes.toString("UTF-8");
+  }
+}
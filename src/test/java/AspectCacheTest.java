@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AspectCacheTest extends Assert {
+  private static final File LOG = new File("logs/solr7-console/example-ship.txt");
+
+  @Test
+  public void sameResultsAsColdRunTest() throws Exception {
+    File dir = Files.createTempDirectory("cache").toFile();
+    try {
+      String cache = new File(dir, "cache").getPath();
+      String[] args = {"logs/multiple-hosts", "-cache", cache, "-chunkSize", "100"};
+      Map<String,LogInstance> cold = SolrLogReader.summarize(new String[] {"logs/multiple-hosts"});
+      Map<String,LogInstance> first = SolrLogReader.summarize(args);
+      assertTrue(new File(cache).list().length > 0);
+      Map<String,LogInstance> cached = SolrLogReader.summarize(args);
+      for (String instance : cold.keySet()) {
+        assertSameResults(cold.get(instance), first.get(instance));
+        assertSameResults(cold.get(instance), cached.get(instance));
+      }
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void optionsInFingerprintTest() throws Exception {
+    File dir = Files.createTempDirectory("cache").toFile();
+    try {
+      String cache = new File(dir, "cache").getPath();
+      // what was cached with other searcher options can't be used
+      SolrLogReader.summarize(new String[] {LOG.getPath(), "-cache", cache, "-nSlowLoadTimes", "1",
+          "-searcherWindow", "0.001"});
+      Map<String,LogInstance> cached = SolrLogReader.summarize(new String[] {LOG.getPath(), "-cache", cache});
+      Map<String,LogInstance> cold = SolrLogReader.summarize(new String[] {LOG.getPath()});
+      assertSameResults(cold.get(LOG.getName()), cached.get(LOG.getName()));
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void resumeGrownLogTest() throws Exception {
+    File dir = Files.createTempDirectory("cache").toFile();
+    try {
+      byte[] bytes = Files.readAllBytes(LOG.toPath());
+      File log = new File(dir, "solr.log");
+      String[] args = {log.getPath(), "-cache", new File(dir, "cache").getPath(), "-chunkSize", "10000"};
+      // grows mid entry too
+      int[] ends = {bytes.length / 3, bytes.length / 2 + 7, bytes.length};
+      int written = 0;
+      for (int end : ends) {
+        append(log, Arrays.copyOfRange(bytes, written, end));
+        written = end;
+        Map<String,LogInstance> cached = SolrLogReader.summarize(args);
+        Map<String,LogInstance> cold = SolrLogReader.summarize(new String[] {log.getPath()});
+        assertSameResults(cold.get("solr.log"), cached.get("solr.log"));
+      }
+    } finally {
+      delete(dir);
+    }
+  }
+
+  private void assertSameResults(LogInstance expected, LogInstance actual) throws IOException {
+    List<Aspect> expectedAspects = expected.getAspects();
+    List<Aspect> actualAspects = actual.getAspects();
+    for (int i = 0; i < expectedAspects.size(); i++) {
+      assertEquals(expectedAspects.get(i).getSummaryLine(), actualAspects.get(i).getSummaryLine());
+      if (expectedAspects.get(i) instanceof ErrorAspect) {
+        assertEquals(((ErrorAspect) expectedAspects.get(i)).getErrors(),
+            ((ErrorAspect) actualAspects.get(i)).getErrors());
+      } else if (expectedAspects.get(i) instanceof OpenSearcherAspect) {
+        assertEquals(AspectAssert.report(expectedAspects.get(i)), AspectAssert.report(actualAspects.get(i)));
+      } else if (expectedAspects.get(i) instanceof CommitAspect) {
+        assertEquals(((CommitAspect) expectedAspects.get(i)).getCommits().get(),
+            ((CommitAspect) actualAspects.get(i)).getCommits().get());
+      }
+    }
+  }
+
+  private static void append(File file, byte[] bytes) throws IOException {
+    OutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AspectDispatcherTest extends Assert {
+
+  @Test
+  public void matchTest() throws Exception {
+    AspectDispatcher dispatcher = new AspectDispatcher(Arrays.<Aspect> asList(
+        new Triggered("he", "she"), new Triggered("hers"), new Triggered("his"), new Triggered()));
+
+    assertEquals(0, dispatcher.match("nothing to see"));
+    assertEquals(1, dispatcher.match("usher"));
+    assertEquals(1 | 2, dispatcher.match("hers"));
+    // only found by following a failure link
+    assertEquals(1 | 2, dispatcher.match("shers"));
+    assertEquals(4, dispatcher.match("\u00e9his\u00e9"));
+  }
+
+  @Test
+  public void dispatchTest() throws Exception {
+    Triggered commits = new Triggered("start commit{");
+    Triggered everything = new Triggered((String[]) null);
+    Triggered errors = new Triggered("Exception", " ERROR ");
+    AspectDispatcher dispatcher = new AspectDispatcher(Arrays.<Aspect> asList(commits, everything, errors));
+
+    dispatcher.process(new LogRecord("solr.log", "ts", 0, "INFO start commit{,optimize=false}", ""));
+    dispatcher.process(new LogRecord("solr.log", "ts", 0, "WARN nothing", ""));
+    dispatcher.process(new LogRecord("solr.log", "ts", 0, "ERROR SolrException: failed", "\tat x"));
+    dispatcher.process(new LogRecord("solr.log", "ts", 0, "2015 ERROR failed", ""));
+
+    assertEquals(Arrays.asList("INFO start commit{,optimize=false}"), commits.seen);
+    assertEquals(4, everything.seen.size());
+    assertEquals(Arrays.asList("ERROR SolrException: failed", "2015 ERROR failed"), errors.seen);
+  }
+
+  private static class Triggered extends Aspect {
+    private final String[] triggers;
+    final List<String> seen = new ArrayList<String>();
+
+    Triggered(String... triggers) {
+      this.triggers = triggers;
+    }
+
+    @Override
+    public String[] getTriggers() {
+      return triggers;
+    }
+
+    @Override
+    public boolean process(LogRecord record) {
+      seen.add(record.getHeadLine().toString());
+      return false;
+    }
+
+    @Override
+    public void printReport(PrintStream out) {}
+  }
+}
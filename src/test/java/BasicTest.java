@@ -19,7 +19,6 @@
 import java.io.File;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -44,7 +43,7 @@ public class BasicTest extends Assert {
     }
     
     assertNotNull(errorAspect);
-    assertEquals("Should be no errors", 0, errorAspect.getErrors().size());
+    assertEquals("Should be no errors", 0, errorAspect.getErrorCount());
     assertEquals("Should be no OOMs", 0, errorAspect.getOoms().get());
     assertNull("outputdir not set", errorAspect.getOutputDir());
     
@@ -78,17 +77,18 @@ public class BasicTest extends Assert {
     
     assertNotNull(errorAspect);
     
-    assertEquals("Wrong number of errors found", 2, errorAspect.getErrors().size());
+    assertEquals("Wrong number of errors found", 2, errorAspect.getErrorCount());
     assertEquals("Should be no OOMs", 0, errorAspect.getOoms().get());
     assertNull("outputdir not set", errorAspect.getOutputDir());
     
-    Set<LogEntry> errors = errorAspect.getErrors();
-    for (LogEntry error : errors) {
-      assertTrue(error.headLine.contains("simple.log"));
-      assertTrue("Could not find expected text on first line of exception",
-          error.entry.contains("org.apache.solr.common.SolrException"));
-      assertTrue("Could not find expected text on last line of exception",
-          error.entry.contains("java.lang.Thread.run"));
+    for (ErrorGroup group : errorAspect.getErrors().values()) {
+      for (LogEntry error : group.getExemplars()) {
+        assertTrue(error.headLine.contains("simple.log"));
+        assertTrue("Could not find expected text on first line of exception",
+            error.entry.contains("org.apache.solr.common.SolrException"));
+        assertTrue("Could not find expected text on last line of exception",
+            error.entry.contains("java.lang.Thread.run"));
+      }
     }
     
   }
@@ -115,7 +115,7 @@ public class BasicTest extends Assert {
     assertEquals("Wrong number of soft commits found", 1, commitAspect.getSoftCommit().get());
     assertEquals("Wrong number of commits with openSearcher found", 1, commitAspect.getOpenSearcher().get());
     
-    assertEquals("Wrong number of errors found: " + errorAspect.getErrors(), 0, errorAspect.getErrors().size());
+    assertEquals("Wrong number of errors found: " + errorAspect.getErrors(), 0, errorAspect.getErrorCount());
     assertEquals("Should be no OOMs", 0, errorAspect.getOoms().get());
     assertNull("outputdir not set", errorAspect.getOutputDir());
   }
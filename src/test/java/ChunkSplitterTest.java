@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChunkSplitterTest extends Assert {
+
+  @Test
+  public void chunksStartOnEntriesTest() throws Exception {
+    LogFormat format = LogFormat.create(LogFormat.SOLR4_PATTERN, null);
+    RandomAccessFile raf = new RandomAccessFile("logs/exceptions/simple.log", "r");
+    try {
+      long length = raf.length();
+      long[] chunks = new ChunkSplitter(raf.getChannel(), length, format).split(100);
+      assertTrue("Expected several chunks: " + chunks.length, chunks.length > 3);
+      assertEquals(0, chunks[0]);
+      assertEquals(length, chunks[chunks.length - 1]);
+      for (int i = 1; i < chunks.length - 1; i++) {
+        assertTrue(chunks[i] > chunks[i - 1]);
+        ByteBuffer chunk = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, chunks[i],
+            length - chunks[i]);
+        LineReader reader = new LineReader(chunk, true);
+        assertTrue(reader.next());
+        assertTrue("Chunk does not start on an entry: " + reader.line(), format.match(reader, new LogFormat.Match()));
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  @Test
+  public void sameResultsForAnyChunkSizeTest() throws Exception {
+    String exampleLog = "logs/solr7-console/example-ship.txt";
+    ErrorAspect expected = errorAspect(SolrLogReader.summarize(new String[] {exampleLog}));
+    for (String chunkSize : new String[] {"200", "3k", "64k"}) {
+      ErrorAspect errorAspect = errorAspect(SolrLogReader.summarize(new String[] {exampleLog, "-chunkSize", chunkSize}));
+      assertEquals("Wrong number of errors for chunk size " + chunkSize, expected.getErrors(), errorAspect.getErrors());
+      assertEquals(expected.getSummaryLine(), errorAspect.getSummaryLine());
+    }
+  }
+
+  @Test
+  public void sameResultsForAnyMapWindowTest() throws Exception {
+    String exampleLog = "logs/solr7-console/example-ship.txt";
+    ErrorAspect expected = errorAspect(SolrLogReader.summarize(new String[] {exampleLog}));
+    // 50 bytes is smaller than most entries, so windows have to grow to fit them
+    for (String mapWindow : new String[] {"50", "1k", "5k"}) {
+      ErrorAspect errorAspect = errorAspect(SolrLogReader.summarize(new String[] {exampleLog, "-mapWindow", mapWindow}));
+      assertEquals("Wrong number of errors for map window " + mapWindow, expected.getErrors(), errorAspect.getErrors());
+      assertEquals(expected.getSummaryLine(), errorAspect.getSummaryLine());
+    }
+  }
+
+  private ErrorAspect errorAspect(Map<String,LogInstance> hostToLogInstance) {
+    List<Aspect> aspects = hostToLogInstance.values().iterator().next().getAspects();
+    for (Aspect aspect : aspects) {
+      if (aspect instanceof ErrorAspect) {
+        return (ErrorAspect) aspect;
+      }
+    }
+    throw new AssertionError("No ErrorAspect");
+  }
+}
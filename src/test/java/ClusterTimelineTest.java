@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClusterTimelineTest extends Assert {
+  private static final String PATTERN = "^(\\d\\d\\d\\d\\-\\d\\d\\-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d,\\d\\d\\d)(.*)$";
+  private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss,SSS";
+
+  @Test
+  public void mergeTest() throws Exception {
+    // node2's clock is 2 seconds ahead
+    Map<String,List<LogSource>> instances = new HashMap<String,List<LogSource>>();
+    instances.put("node1", sources(
+        "2015-04-24 09:00:00,000 INFO live nodes changed (3) -> (2)\n"
+        + "2015-04-24 09:00:01,000 INFO node1 query\n",
+        "2015-04-24 09:00:05,000 ERROR node1 failed\n"
+        + "java.lang.RuntimeException\n"
+        + "\tat Foo.bar\n"
+        + "2015-04-24 09:00:10,000 INFO live nodes changed (2) -> (3)\n"));
+    instances.put("node2", sources(
+        "2015-04-24 09:00:02,100 INFO live nodes changed (3) -> (2)\n"
+        + "2015-04-24 09:00:04,000 INFO node2 query\n"
+        + "2015-04-24 09:00:11,900 INFO live nodes changed (2) -> (3)\n"));
+
+    Map<String,ClockSkewAspect> events = new HashMap<String,ClockSkewAspect>();
+    for (String instance : instances.keySet()) {
+      ClockSkewAspect aspect = new ClockSkewAspect(Pattern.compile("live nodes changed (.*)"));
+      for (LogSource source : instances.get(instance)) {
+        new ReaderThread(source.getFile(), 0, source.getLength(), Collections.<Aspect> singletonList(aspect),
+            format(), null).run();
+      }
+      events.put(instance, aspect);
+    }
+    Map<String,Long> skews = ClockSkewAspect.estimateSkews(events);
+    assertEquals(Long.valueOf(0), skews.get("node1"));
+    // the lower of the two differences
+    assertEquals(Long.valueOf(1900), skews.get("node2"));
+
+    ClusterTimeline timeline = new ClusterTimeline(new LogFormat[] {format()}, ReaderThread.DEFAULT_WINDOW_SIZE,
+        new PrintStream(new ByteArrayOutputStream()));
+    timeline.setSkew("node2", 2000);
+    StringBuilder sb = new StringBuilder();
+    assertEquals(7, timeline.write(instances, sb));
+    assertEquals("2015-04-24 09:00:00.000 node1 2015-04-24 09:00:00,000 INFO live nodes changed (3) -> (2)\n"
+        + "2015-04-24 09:00:00.100 node2 2015-04-24 09:00:02,100 INFO live nodes changed (3) -> (2)\n"
+        + "2015-04-24 09:00:01.000 node1 2015-04-24 09:00:01,000 INFO node1 query\n"
+        + "2015-04-24 09:00:02.000 node2 2015-04-24 09:00:04,000 INFO node2 query\n"
+        + "2015-04-24 09:00:05.000 node1 2015-04-24 09:00:05,000 ERROR node1 failed\n"
+        + "java.lang.RuntimeException\n"
+        + "\tat Foo.bar\n"
+        + "2015-04-24 09:00:09.900 node2 2015-04-24 09:00:11,900 INFO live nodes changed (2) -> (3)\n"
+        + "2015-04-24 09:00:10.000 node1 2015-04-24 09:00:10,000 INFO live nodes changed (2) -> (3)\n", sb.toString());
+
+    // the range is on the times with the skew taken off
+    SolrLogReader.Range range = new SolrLogReader.Range();
+    range.start = format().getTimestampParser().parse("2015-04-24 09:00:01,500");
+    range.end = format().getTimestampParser().parse("2015-04-24 09:00:09,950");
+    timeline.setRange(range);
+    sb.setLength(0);
+    assertEquals(3, timeline.write(instances, sb));
+    assertTrue(sb.toString(), sb.toString().startsWith("2015-04-24 09:00:02.000 node2"));
+    assertTrue(sb.toString(), sb.toString().endsWith("\tat Foo.bar\n2015-04-24 09:00:09.900 node2 "
+        + "2015-04-24 09:00:11,900 INFO live nodes changed (2) -> (3)\n"));
+  }
+
+  @Test
+  public void skewTest() throws Exception {
+    // an hourly event, node2 is 2 seconds ahead and its log starts an hour later
+    ClockSkewAspect node1 = new ClockSkewAspect(Pattern.compile("live nodes changed"));
+    ClockSkewAspect node2 = new ClockSkewAspect(Pattern.compile("live nodes changed"));
+    for (int hour = 0; hour < 5; hour++) {
+      long time = hour * 3600 * 1000L;
+      node1.process(new LogRecord("solr.log", "", time, "INFO live nodes changed", ""));
+      if (hour > 0) {
+        node2.process(new LogRecord("solr.log", "", time + 2000, "INFO live nodes changed", ""));
+      }
+    }
+    // only logged by node2, nowhere near an event of node1
+    node2.process(new LogRecord("solr.log", "", 5 * 3600 * 1000L, "INFO live nodes changed", ""));
+
+    Map<String,ClockSkewAspect> events = new HashMap<String,ClockSkewAspect>();
+    events.put("node1", node1);
+    events.put("node2", node2);
+    assertEquals(Long.valueOf(2000), ClockSkewAspect.estimateSkews(events).get("node2"));
+  }
+
+  private static LogFormat format() {
+    return LogFormat.create(PATTERN, new TimestampParser(DATE_FORMAT));
+  }
+
+  /**
+   * @return a log for each of the contents, oldest first
+   */
+  private static List<LogSource> sources(String... logs) throws IOException {
+    List<LogSource> sources = new ArrayList<LogSource>();
+    for (String log : logs) {
+      File file = File.createTempFile("timeline", ".log");
+      file.deleteOnExit();
+      Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+      try {
+        writer.write(log);
+      } finally {
+        writer.close();
+      }
+      LogSource.expand(file, sources);
+    }
+    return sources;
+  }
+}
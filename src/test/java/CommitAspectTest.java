@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CommitAspectTest extends Assert {
+
+  @Test
+  public void commitTimesTest() throws Exception {
+    List<LogRecord> records = new ArrayList<LogRecord>();
+    for (int i = 0; i < 10; i++) {
+      long time = i * 1000L;
+      // two cores commit at the same time, the soft commits take 10ms and the hard ones 200ms
+      records.add(start(time, "commitScheduler-1", "c1", "softCommit=true,openSearcher=true"));
+      records.add(start(time + 1, "commitScheduler-2", "c2", "softCommit=false,openSearcher=false"));
+      records.add(end(time + 10, "commitScheduler-1", "c1"));
+      records.add(end(time + 201, "commitScheduler-2", "c2"));
+    }
+    // never ends
+    records.add(start(20000, "qtp-1", "c1", "softCommit=false,openSearcher=true"));
+
+    CommitAspect aspect = new CommitAspect();
+    for (LogRecord record : records) {
+      aspect.process(record);
+    }
+    String report = AspectAssert.report(aspect);
+    assertTrue(report, report.contains("Commits Found: 21"));
+    assertTrue(report, report.contains("  hard count=10 p50=200 p90=200 p99=200 p999=200 max=200\n"));
+    assertTrue(report, report.contains("  soft count=10 p50=10 p90=10 p99=10 p999=10 max=10\n"));
+    assertTrue(report, report.contains("Found 1 commit starts and ends that could not be paired"));
+
+    // split up anywhere, even between a start and its end
+    AspectAssert.assertSplits(new Callable<Aspect>() {
+      @Override
+      public Aspect call() {
+        return new CommitAspect();
+      }
+    }, records, report);
+  }
+
+  private static LogRecord start(long time, String thread, String core, String params) {
+    return new LogRecord("solr.log", Long.toString(time), time, "INFO  (" + thread + ") [c:c s:shard1 x:" + core
+        + "] o.a.s.u.DirectUpdateHandler2 start commit{,optimize=false," + params + ",prepareCommit=false}", "");
+  }
+
+  private static LogRecord end(long time, String thread, String core) {
+    return new LogRecord("solr.log", Long.toString(time), time, "INFO  (" + thread + ") [c:c s:shard1 x:" + core
+        + "] o.a.s.u.DirectUpdateHandler2 end_commit_flush", "");
+  }
+}
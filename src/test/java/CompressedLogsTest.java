@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressedLogsTest extends Assert {
+
+  @Test
+  public void instancesTest() throws Exception {
+    Map<String,LogInstance> hostToLogInstance = SolrLogReader.summarize(new String[] {"logs/compressed"});
+    assertEquals("Wrong instances: " + hostToLogInstance.keySet(), 5, hostToLogInstance.size());
+    assertTrue(hostToLogInstance.containsKey("example.log"));
+    assertTrue(hostToLogInstance.containsKey("bundle.zip!exceptions/simple.log"));
+    assertTrue(hostToLogInstance.containsKey("node.tar!exceptions/cutoff.log"));
+    assertTrue(hostToLogInstance.containsKey("node.tar.gz!multiple-hosts/host1.log"));
+    assertTrue(hostToLogInstance.containsKey("node.tar.gz!multiple-hosts/host2.log"));
+
+    List<File> files = hostToLogInstance.get("example.log").getFiles();
+    assertEquals(new File("logs/compressed/example.log.1.gz"), files.get(0));
+    assertEquals(new File("logs/compressed/example.log.0.gz"), files.get(1));
+    assertEquals(2, hostToLogInstance.get("node.tar.gz!multiple-hosts/host1.log").getSources().size());
+  }
+
+  @Test
+  public void sameResultsAsPlainLogsTest() throws Exception {
+    Map<String,LogInstance> compressed = SolrLogReader.summarize(new String[] {"logs/compressed"});
+    assertSameResults(SolrLogReader.summarize(new String[] {"logs/exceptions/simple.log"}).get("simple.log"),
+        compressed.get("bundle.zip!exceptions/simple.log"));
+    assertSameResults(SolrLogReader.summarize(new String[] {"logs/exceptions/cutoff.log"}).get("cutoff.log"),
+        compressed.get("node.tar!exceptions/cutoff.log"));
+    Map<String,LogInstance> hosts = SolrLogReader.summarize(new String[] {"logs/multiple-hosts"});
+    assertSameResults(hosts.get("host1.log"), compressed.get("node.tar.gz!multiple-hosts/host1.log"));
+    assertSameResults(hosts.get("host2.log"), compressed.get("node.tar.gz!multiple-hosts/host2.log"));
+  }
+
+  @Test
+  public void singlePassTest() throws Exception {
+    List<LogSource> entries = new ArrayList<LogSource>();
+    LogSource.expand(new File("logs/compressed/node.tar.gz"), entries);
+    assertEquals(3, entries.size());
+    final List<String> expected = new ArrayList<String>();
+    for (LogSource entry : entries) {
+      assertTrue(entry.isInCompressedArchive());
+      expected.add(read((LogSource.Stream) entry));
+    }
+
+    final List<String> visited = new ArrayList<String>();
+    List<LogSource> reversed = new ArrayList<LogSource>(entries);
+    Collections.reverse(reversed);
+    LogSource.readCompressedArchive(new File("logs/compressed/node.tar.gz"), reversed, new LogSource.EntryVisitor() {
+      @Override
+      public void visit(LogSource.Stream entry, LogSource.Stream content) throws IOException {
+        visited.add(entry.getName());
+        // the pass goes on past an entry that is not opened
+        if (visited.size() != 2) {
+          assertEquals(expected.get(visited.size() - 1), read(content));
+        }
+      }
+    });
+    List<String> names = new ArrayList<String>();
+    for (LogSource entry : entries) {
+      names.add(entry.getName());
+    }
+    assertEquals("entries are visited in archive order", names, visited);
+  }
+
+  private static String read(LogSource.Stream source) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    InputStream in = source.open();
+    try {
+      byte[] buffer = new byte[100];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return bytes.toString("UTF-8");
+  }
+
+  private void assertSameResults(LogInstance expected, LogInstance actual) {
+    List<Aspect> expectedAspects = expected.getAspects();
+    List<Aspect> actualAspects = actual.getAspects();
+    for (int i = 0; i < expectedAspects.size(); i++) {
+      assertEquals(expectedAspects.get(i).getSummaryLine(), actualAspects.get(i).getSummaryLine());
+      if (expectedAspects.get(i) instanceof ErrorAspect) {
+        assertEquals(((ErrorAspect) expectedAspects.get(i)).getErrors(),
+            ((ErrorAspect) actualAspects.get(i)).getErrors());
+      }
+    }
+  }
+}
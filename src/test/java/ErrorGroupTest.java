@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ErrorGroupTest extends Assert {
+
+  @Test
+  public void signatureTest() throws Exception {
+    String trace = "org.apache.solr.common.SolrException: Will not load SolrCore 12\n"
+        + "\tat org.apache.solr.cloud.CloudUtil.checkSharedFSFailoverReplaced(CloudUtil.java:76)\n"
+        + "\tat org.apache.solr.core.CoreContainer.create(CoreContainer.java:812)\n"
+        + "\tat org.apache.solr.core.CoreContainer$1.call(CoreContainer.java:451)\n"
+        + "\tat java.util.concurrent.FutureTask.run(FutureTask.java:266)\n";
+    String signature = ErrorGroup.signature("ERROR org.apache.solr.core.CoreContainer: failed", trace);
+    assertEquals("org.apache.solr.common.SolrException < org.apache.solr.cloud.CloudUtil.checkSharedFSFailoverReplaced"
+        + " < org.apache.solr.core.CoreContainer.create < org.apache.solr.core.CoreContainer$1.call", signature);
+    // another core, another release
+    assertEquals(signature, ErrorGroup.signature("ERROR org.apache.solr.core.CoreContainer: failed",
+        trace.replace("12", "7").replace(":76", ":80")));
+
+    // without a stack trace, the message is the signature
+    String line = " ERROR (qtp-64) [c:c1 s:shard1 r:core_node22 x:c1_shard1_replica_n21] o.a.s.h.RequestHandlerBase"
+        + " org.apache.solr.common.SolrException: undefined field id17";
+    assertEquals("org.apache.solr.common.SolrException: ERROR o.a.s.h.RequestHandlerBase"
+        + " org.apache.solr.common.SolrException: undefined field id#", ErrorGroup.signature(line, ""));
+    assertEquals(ErrorGroup.signature(line, ""), ErrorGroup.signature(line.replace("qtp-64", "qtp-12")
+        .replace("c1_shard1_replica_n21", "c1_shard2_replica_n3").replace("id17", "id3"), ""));
+    assertEquals("ERROR o.a.s.c.s.i.HttpClient done @#[phase = #]",
+        ErrorGroup.signature(" ERROR (Thread-5) [   ] o.a.s.c.s.i.HttpClient done @5ff5142c[phase = 1]", ""));
+  }
+
+  @Test
+  public void exemplarsTest() throws Exception {
+    ErrorGroup a = new ErrorGroup("x");
+    ErrorGroup b = new ErrorGroup("x");
+    for (int i = 0; i < 10; i++) {
+      (i % 2 == 0 ? a : b).add(error(1000 - i, "error " + i));
+    }
+    a.add(error(990, "error 9"));
+    a.add(error(TimestampParser.NO_TIMESTAMP, "error without a time"));
+    assertEquals(ErrorGroup.MAX_EXEMPLARS, a.getExemplars().size());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    b.write(new DataOutputStream(bytes));
+    a.merge(ErrorGroup.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+    assertEquals(12, a.getCount());
+    assertEquals(990, a.getFirst().timestamp);
+    assertEquals(1000, a.getLast().timestamp);
+    assertEquals(3, a.getExemplars().size());
+    assertEquals("error without a time", a.getExemplars().get(0).entry);
+    assertEquals("error 9", a.getExemplars().get(1).entry);
+    assertEquals("error 8", a.getExemplars().get(2).entry);
+  }
+
+  @Test
+  public void timelineTest() throws Exception {
+    ErrorGroup few = new ErrorGroup("x");
+    few.add(error(5000, "a"));
+    few.add(error(5000, "b"));
+    few.add(error(7000, "c"));
+    List<ErrorGroup.Span> spans = few.getTimeline();
+    assertEquals(2, spans.size());
+    assertEquals(5000, spans.get(0).start);
+    assertEquals(2, spans.get(0).count);
+
+    // an error every second for an hour, added in one group or split across two
+    ErrorGroup all = new ErrorGroup("x");
+    ErrorGroup a = new ErrorGroup("x");
+    ErrorGroup b = new ErrorGroup("x");
+    for (int i = 0; i < 3600; i++) {
+      LogEntry error = error(i * 1000L, "error");
+      all.add(error);
+      (i < 50 ? a : b).add(error);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    b.write(new DataOutputStream(bytes));
+    a.merge(ErrorGroup.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+    spans = all.getTimeline();
+    assertTrue(spans.size() <= ErrorGroup.MAX_BUCKETS);
+    long total = 0;
+    for (ErrorGroup.Span span : spans) {
+      total += span.count;
+    }
+    assertEquals(3600, total);
+    assertEquals(spans.size(), a.getTimeline().size());
+    assertEquals(all, a);
+  }
+
+  @Test
+  public void recordsTest() throws Exception {
+    ErrorGroup fromRecords = new ErrorGroup("x");
+    ErrorGroup fromEntries = new ErrorGroup("x");
+    for (int i = 0; i < 100; i++) {
+      long time = (i % 10) * 1000L + i;
+      String headLine = "ERROR failed " + i;
+      fromRecords.add(new LogRecord("solr.log", Long.toString(time), time, headLine, "\tat Foo.bar\n"), headLine);
+      fromEntries.add(error(time, headLine + "\n\tat Foo.bar\n"));
+    }
+    assertEquals(fromEntries, fromRecords);
+    assertEquals(0, fromRecords.getFirst().timestamp);
+    assertEquals(9099, fromRecords.getLast().timestamp);
+    assertEquals("ERROR failed 0\n\tat Foo.bar\n", fromRecords.getExemplars().get(0).entry);
+    assertEquals("0 : solr.log", fromRecords.getExemplars().get(0).headLine);
+  }
+
+  private static LogEntry error(long time, String entry) {
+    LogEntry e = new LogEntry(time + " : solr.log", entry);
+    e.timestamp = time;
+    e.rawTimestamp = Long.toString(time);
+    return e;
+  }
+}
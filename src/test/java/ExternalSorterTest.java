@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExternalSorterTest extends Assert {
+
+  @Test
+  public void sortTest() throws Exception {
+    // small enough to spill every few entries
+    ExternalSorter<LogEntry> a = new ExternalSorter<LogEntry>(LogEntry.BY_TIME, LogEntry.CODEC, 2000);
+    ExternalSorter<LogEntry> b = new ExternalSorter<LogEntry>(LogEntry.BY_TIME, LogEntry.CODEC, 2000);
+    List<LogEntry> expected = new ArrayList<LogEntry>();
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      LogEntry e = new LogEntry("ts", "entry " + i);
+      e.timestamp = random.nextInt(50) == 0 ? TimestampParser.NO_TIMESTAMP : random.nextInt(100);
+      e.rawTimestamp = Long.toString(e.timestamp);
+      (i % 3 == 0 ? b : a).add(e);
+      expected.add(e);
+    }
+    Collections.sort(expected, LogEntry.BY_TIME);
+    assertTrue(a.getRunCount() > 1);
+
+    a.merge(b);
+    assertEquals(0, b.size());
+    assertEquals(1000, a.size());
+    assertEquals(expected, visit(a));
+    // visiting keeps the entries
+    assertEquals(expected, visit(a));
+
+    a.clear();
+    assertEquals(0, a.size());
+    assertEquals(0, a.getRunCount());
+    assertTrue(visit(a).isEmpty());
+  }
+
+  @Test
+  public void inMemoryTest() throws Exception {
+    ExternalSorter<LogEntry> sorter = new ExternalSorter<LogEntry>(LogEntry.BY_TIME, LogEntry.CODEC,
+        ExternalSorter.DEFAULT_MEMORY);
+    for (int i = 9; i >= 0; i--) {
+      LogEntry e = new LogEntry("ts", "entry " + i);
+      e.timestamp = i;
+      sorter.add(e);
+    }
+    assertEquals(0, sorter.getRunCount());
+    List<LogEntry> entries = visit(sorter);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, entries.get(i).timestamp);
+    }
+  }
+
+  @Test
+  public void sharedMemoryTest() throws Exception {
+    ExternalSorter<LogEntry> sorter = new ExternalSorter<LogEntry>(LogEntry.BY_TIME, LogEntry.CODEC, 5000);
+    List<ExternalSorter<LogEntry>> partials = new ArrayList<ExternalSorter<LogEntry>>();
+    List<LogEntry> expected = new ArrayList<LogEntry>();
+    for (int i = 0; i < 200; i++) {
+      ExternalSorter<LogEntry> partial = sorter.newPartial();
+      // on their own, none of them would ever spill
+      for (int j = 0; j < 10; j++) {
+        LogEntry e = new LogEntry("ts", "entry " + i + " " + j);
+        e.timestamp = (i * 7 + j * 13) % 100;
+        partial.add(e);
+        expected.add(e);
+      }
+      partials.add(partial);
+    }
+    int runs = 0;
+    for (ExternalSorter<LogEntry> partial : partials) {
+      runs += partial.getRunCount();
+    }
+    assertTrue(runs > 0);
+
+    for (ExternalSorter<LogEntry> partial : partials) {
+      partial.spill();
+      assertEquals(10, partial.size());
+      sorter.merge(partial);
+    }
+    assertTrue(sorter.getRunCount() <= ExternalSorter.MAX_RUNS);
+    Collections.sort(expected, LogEntry.BY_TIME);
+    assertEquals(expected, visit(sorter));
+    sorter.clear();
+  }
+
+  private static List<LogEntry> visit(ExternalSorter<LogEntry> sorter) throws Exception {
+    final List<LogEntry> entries = new ArrayList<LogEntry>();
+    sorter.visit(new ExternalSorter.Visitor<LogEntry>() {
+      @Override
+      public void visit(LogEntry e) {
+        entries.add(e);
+      }
+    });
+    return entries;
+  }
+}
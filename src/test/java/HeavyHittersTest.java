@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeavyHittersTest extends Assert {
+
+  @Test
+  public void exactTest() throws Exception {
+    HeavyHitters hitters = new HeavyHitters(10);
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j <= i; j++) {
+        hitters.add("key" + i, 1, 10 * i);
+      }
+    }
+    List<HeavyHitters.Counter> top = hitters.top(3);
+    assertEquals(3, top.size());
+    assertEquals("key4", top.get(0).getKey());
+    assertEquals(5, top.get(0).getWeight());
+    assertEquals(0, top.get(0).getError());
+    assertEquals(200, top.get(0).getSum());
+    assertEquals("key2", top.get(2).getKey());
+  }
+
+  @Test
+  public void heavyHittersTest() throws Exception {
+    Random random = new Random(7);
+    HeavyHitters a = new HeavyHitters(50);
+    HeavyHitters b = new HeavyHitters(50);
+    Map<String,Long> exact = new HashMap<String,Long>();
+    long total = 0;
+    for (int i = 0; i < 200000; i++) {
+      // a few keys are heavy, thousands are not
+      int k = random.nextInt(10) < 5 ? random.nextInt(5) : random.nextInt(10000);
+      String key = "key" + k;
+      long weight = 1 + random.nextInt(10);
+      (i % 2 == 0 ? a : b).add(key, weight, 0);
+      Long w = exact.get(key);
+      exact.put(key, (w == null ? 0 : w) + weight);
+      total += weight;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    b.write(new DataOutputStream(bytes));
+    HeavyHitters merged = new HeavyHitters(50);
+    merged.merge(a);
+    merged.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    List<HeavyHitters.Counter> top = merged.top(5);
+    for (int k = 0; k < 5; k++) {
+      String key = "key" + k;
+      HeavyHitters.Counter found = null;
+      for (HeavyHitters.Counter counter : top) {
+        if (counter.getKey().equals(key)) {
+          found = counter;
+        }
+      }
+      assertNotNull(key, found);
+      assertTrue(found.getWeight() >= exact.get(key));
+      assertTrue(found.getWeight() - found.getError() <= exact.get(key));
+      assertTrue(found.getError() <= 2 * total / 50);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest extends Assert {
+
+  @Test
+  public void percentilesTest() throws Exception {
+    Random random = new Random(42);
+    long[] values = new long[100000];
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < values.length; i++) {
+      // mostly fast, with a long tail
+      values[i] = (long) Math.exp(random.nextGaussian() * 2 + 3);
+      histogram.record(values[i]);
+    }
+    Arrays.sort(values);
+    assertEquals(values.length, histogram.getCount());
+    assertEquals(values[0], histogram.getMin());
+    assertEquals(values[values.length - 1], histogram.getMax());
+    for (double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+      long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+      long estimate = histogram.getValueAtPercentile(percentile);
+      assertTrue(percentile + ": " + exact + " " + estimate, estimate >= exact && estimate <= exact * 1.02);
+    }
+  }
+
+  @Test
+  public void mergeTest() throws Exception {
+    LatencyHistogram all = new LatencyHistogram();
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    for (long v = 0; v < 5000; v += 7) {
+      all.record(v);
+      (v % 2 == 0 ? a : b).record(v);
+    }
+    all.record(Long.MAX_VALUE);
+    b.record(Long.MAX_VALUE);
+    a.merge(b);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    a.write(new DataOutputStream(bytes));
+    LatencyHistogram read = new LatencyHistogram();
+    read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    for (LatencyHistogram merged : new LatencyHistogram[] {a, read}) {
+      assertEquals(all.toSummary(), merged.toSummary());
+      assertEquals(all.getMean(), merged.getMean(), 0.0);
+      assertEquals(Integer.MAX_VALUE, merged.getMax());
+    }
+  }
+
+  @Test
+  public void bucketsTest() throws Exception {
+    for (long v = 0; v < 1 << 20; v++) {
+      int index = LatencyHistogram.index(v);
+      assertTrue(v + "", LatencyHistogram.highestInBucket(index) >= v);
+      assertTrue(v + "", index == 0 || LatencyHistogram.highestInBucket(index - 1) < v);
+    }
+    assertEquals(Integer.MAX_VALUE, LatencyHistogram.highestInBucket(LatencyHistogram.index(Integer.MAX_VALUE)));
+  }
+}
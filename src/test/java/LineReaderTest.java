@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineReaderTest extends Assert {
+
+  @Test
+  public void lineBreaksTest() throws Exception {
+    String text = "first line that is longer than a word\r\nsecond\rthird\n\nfifth has \u00fcn\u00efc\u00f6d\u00e9\nlast";
+    assertEquals("[first line that is longer than a word, second, third, , fifth has \u00fcn\u00efc\u00f6d\u00e9, last]",
+        lines(text, true).toString());
+    assertEquals("A cut off last line should not be returned",
+        "[first line that is longer than a word, second, third, , fifth has \u00fcn\u00efc\u00f6d\u00e9]",
+        lines(text, false).toString());
+  }
+
+  @Test
+  public void offsetsTest() throws Exception {
+    ByteBuffer buffer = ByteBuffer.wrap("abc\r\ndefghijklmnop\n".getBytes(StandardCharsets.UTF_8));
+    LineReader reader = new LineReader(buffer, true);
+    assertTrue(reader.next());
+    assertEquals(0, reader.lineStart());
+    assertEquals(3, reader.lineEnd());
+    assertEquals(5, reader.position());
+    assertTrue(reader.next());
+    assertEquals(5, reader.lineStart());
+    assertEquals(18, reader.lineEnd());
+    assertEquals("ghi", reader.decode(8, 11));
+    assertFalse(reader.next());
+  }
+
+  private List<String> lines(String text, boolean endOfData) {
+    LineReader reader = new LineReader(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), endOfData);
+    List<String> lines = new ArrayList<String>();
+    while (reader.next()) {
+      lines.add(reader.line());
+    }
+    return lines;
+  }
+}
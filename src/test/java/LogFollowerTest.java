@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogFollowerTest extends Assert {
+  private static final String INFO = "2015-04-24 15:26:10,016 INFO org.apache.solr.core.SolrCore: [collection1] open\n";
+
+  private final Map<String,LogInstance> instances = new HashMap<String,LogInstance>();
+  private int errorCount;
+
+  @Test
+  public void followAcrossRotationTest() throws Exception {
+    File dir = Files.createTempDirectory("follow").toFile();
+    File log = new File(dir, "solr.log");
+    append(log, error() + INFO + error());
+
+    LogFormat[] formats = {LogFormat.create(LogFormat.SOLR4_PATTERN, new TimestampParser("yyyy-MM-dd HH:mm:ss,SSS"))};
+    LogFollower follower = new LogFollower(dir, null, formats, null, ReaderThread.DEFAULT_WINDOW_SIZE,
+        new LogFollower.InstanceLookup() {
+          @Override
+          public LogInstance getLogInstance(String logName) {
+            String key = logName.replaceAll("\\.\\d+$", "");
+            LogInstance instance = instances.get(key);
+            if (instance == null) {
+              List<Aspect> aspects = new ArrayList<Aspect>();
+              aspects.add(new ErrorAspect(null));
+              instance = new LogInstance(aspects);
+              instances.put(key, instance);
+            }
+            return instance;
+          }
+        }, new PrintStream(new NullOutputStream()));
+    try {
+      follower.start(Collections.<LogInstance> emptyList(), Collections.<File,Long> emptyMap());
+      assertTrue(follower.scan());
+      // the last error may still get more lines, so it is held back
+      assertEquals(1, errors());
+
+      // more of the held back entry
+      append(log, "\tat java.lang.Thread.run(Thread.java:745)\n");
+      follower.scan();
+      assertEquals(1, errors());
+      assertFalse("Nothing new was written", follower.scan());
+
+      append(log, INFO + error());
+      assertTrue(follower.scan());
+      assertEquals(2, errors());
+
+      // rotate the way Solr does, by renaming
+      File rotated = new File(dir, "solr.log.1");
+      assertTrue(log.renameTo(rotated));
+      append(log, error() + INFO);
+      follower.scan();
+      assertEquals("Rotated log should be read to its end, the new one up to its last entry", 4, errors());
+      assertEquals(1, instances.size());
+
+      follower.finish();
+      assertEquals(4, errors());
+      boolean foundAppendedLine = false;
+      for (ErrorGroup group : ((ErrorAspect) instances.get("solr.log").getAspects().get(0)).getErrors().values()) {
+        for (LogEntry error : group.getExemplars()) {
+          foundAppendedLine |= error.entry.contains("Thread.java:745");
+        }
+      }
+      assertTrue("Lines appended to a held back entry were lost", foundAppendedLine);
+    } finally {
+      follower.close();
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private long errors() {
+    return ((ErrorAspect) instances.get("solr.log").getAspects().get(0)).getErrorCount();
+  }
+
+  /**
+   * @return an error entry, different from all others so none are deduplicated
+   */
+  private String error() {
+    errorCount++;
+    return "2015-04-24 15:26:09,027 ERROR org.apache.solr.cloud.CloudUtil: failed\n"
+        + "org.apache.solr.common.SolrException: Will not load SolrCore " + errorCount + "\n"
+        + "\tat org.apache.solr.cloud.CloudUtil.checkSharedFSFailoverReplaced(CloudUtil.java:76)\n";
+  }
+
+  private static void append(File file, String text) throws IOException {
+    OutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(text.getBytes(StandardCharsets.UTF_8));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {}
+  }
+}
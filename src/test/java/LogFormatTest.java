@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogFormatTest extends Assert {
+  private static final String[] PATTERNS = {LogFormat.SOLR4_PATTERN, LogFormat.SOLR51_PATTERN,
+      LogFormat.SOLR7_PATTERN, LogFormat.MILLIS_PATTERN};
+
+  private static final String[] LINES = {
+      "2015-04-24 09:42:55,473 INFO org.apache.solr.update.UpdateHandler: start commit{}",
+      "2015-04-24 09:42:55.473 INFO org.apache.solr.update.UpdateHandler: start commit{}",
+      "2015-04-24 09:42:55\u00e9473 INFO char before the millis is not ascii",
+      "2015-04-24 09:42:55,47",
+      "2015-04-24 09:42:55,473",
+      "INFO  - 2015-05-03 15:03:21.038; [   ] org.eclipse.jetty.util.log.Log; Logging initialized @329ms",
+      "WARN-2015-05-03 15:03:21.038;",
+      "X-2015-05-03 15:03:21.038;no space after the level",
+      "X-2015-05-03 2015-05-03 15:03:21.038;",
+      "--- 2015-05-03 15:03:21.038; dashes",
+      "-2015-05-03 15:03:21.038; just a dash",
+      "INFO  - 2015-05-03 15:03:21.038 no semicolon",
+      " INFO - 2015-05-03 15:03:21.038; leading space",
+      "2444 INFO  [] o.e.j.u.log Logging initialized",
+      "2444",
+      "2444\tINFO",
+      "\tat org.apache.solr.handler.RequestHandlerBase.handleRequest(RequestHandlerBase.java:143)",
+      "",
+  };
+
+  @Test
+  public void fastFormatsMatchRegexTest() throws Exception {
+    List<String> lines = new ArrayList<String>(Arrays.asList(LINES));
+    for (String log : new String[] {"logs/example.log", "logs/solr-default/sample.log",
+        "logs/solr7-console/example.log", "logs/solr7-console/example-ship.txt"}) {
+      lines.addAll(Files.readAllLines(Paths.get(log), StandardCharsets.UTF_8));
+    }
+
+    for (String pattern : PATTERNS) {
+      LogFormat fast = LogFormat.create(pattern, null);
+      LogFormat regex = new LogFormat.RegexFormat(pattern, null);
+      assertFalse(fast instanceof LogFormat.RegexFormat);
+      for (String line : lines) {
+        LineReader reader = new LineReader(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)), true);
+        if (!reader.next()) {
+          continue;
+        }
+        LogFormat.Match fastMatch = new LogFormat.Match();
+        LogFormat.Match regexMatch = new LogFormat.Match();
+        boolean matched = regex.match(reader, regexMatch);
+        assertEquals(pattern + " on " + line, matched, fast.match(reader, fastMatch));
+        if (matched) {
+          assertEquals(line, regexMatch.timestampStart, fastMatch.timestampStart);
+          assertEquals(line, regexMatch.timestampEnd, fastMatch.timestampEnd);
+          assertEquals(line, regexMatch.headLineStart, fastMatch.headLineStart);
+          assertEquals(line, regexMatch.headLineEnd, fastMatch.headLineEnd);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void sniffTest() throws Exception {
+    LogFormat[] formats = new LogFormat[PATTERNS.length];
+    for (int i = 0; i < formats.length; i++) {
+      formats[i] = LogFormat.create(PATTERNS[i], null);
+    }
+    byte[] log = Files.readAllBytes(Paths.get("logs/solr7-console/example.log"));
+    assertSame(formats[3], LogFormat.sniff(ByteBuffer.wrap(log), true, formats));
+    log = Files.readAllBytes(Paths.get("logs/solr-default/sample.log"));
+    assertSame(formats[1], LogFormat.sniff(ByteBuffer.wrap(log), true, formats));
+    assertNull(LogFormat.sniff(ByteBuffer.wrap("no\ntimestamps\n".getBytes(StandardCharsets.UTF_8)), true, formats));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogRecordTest extends Assert {
+
+  @Test
+  public void decodeTest() throws Exception {
+    String head = "2015-01-01 10:00:00.000 INFO caf\u00e9 open\n";
+    String log = head + "\tat one\n\tat two\n";
+    ByteBuffer buffer = ByteBuffer.wrap(log.getBytes(StandardCharsets.UTF_8));
+    int headEnd = head.getBytes(StandardCharsets.UTF_8).length;
+
+    LogRecord record = new LogRecord("solr.log", null);
+    record.reset(buffer, 0, 23, 24, headEnd - 1, headEnd, buffer.limit());
+    assertEquals("solr.log", record.getFilename());
+    assertEquals("2015-01-01 10:00:00.000", record.getTimestamp());
+    assertEquals(TimestampParser.NO_TIMESTAMP, record.getTime());
+    assertEquals("INFO caf\u00e9 open", record.getHeadLine());
+    assertEquals("\tat one\n\tat two\n", record.getBody().toString());
+    assertEquals("at", record.getBody().subSequence(1, 3).toString());
+    // the bytes of the multibyte character are chars of their own
+    assertEquals(headEnd - 1 - 24, record.getHeadLineBytes().length());
+  }
+
+  @Test
+  public void headLineViewTest() throws Exception {
+    String log = "2015-01-01 10:00:00.000 INFO open\n";
+    ByteBuffer buffer = ByteBuffer.wrap(log.getBytes(StandardCharsets.UTF_8));
+
+    LogRecord record = new LogRecord("solr.log", null);
+    record.reset(buffer, 0, 23, 24, log.length() - 1, log.length(), log.length());
+    CharSequence headLine = record.getHeadLine();
+    // plain ASCII is not decoded
+    assertFalse(headLine instanceof String);
+    assertEquals("INFO open", headLine.toString());
+    assertEquals("open", headLine.subSequence(5, 9).toString());
+  }
+
+  @Test
+  public void staleViewTest() throws Exception {
+    String log = "2015-01-01 10:00:00.000 INFO open\n\tat one\n";
+    ByteBuffer buffer = ByteBuffer.wrap(log.getBytes(StandardCharsets.UTF_8));
+
+    LogRecord record = new LogRecord("solr.log", null);
+    record.reset(buffer, 0, 23, 24, 33, 34, log.length());
+    CharSequence headLine = record.getHeadLine();
+    CharSequence body = record.getBody();
+    CharSequence part = body.subSequence(1, 3);
+    record.reset(buffer, 0, 23, 24, 33, 34, log.length());
+    assertStale(headLine);
+    assertStale(body);
+    assertStale(part);
+
+    // the views of the next entry end with the window
+    headLine = record.getHeadLine();
+    assertEquals("INFO open", headLine.toString());
+    record.invalidate();
+    assertStale(headLine);
+    assertNull(record.getHeadLine());
+  }
+
+  private static void assertStale(CharSequence view) {
+    try {
+      view.charAt(0);
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      view.toString();
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void normalizeBodyTest() throws Exception {
+    String log = "\tat caf\u00e9\r\n\tat two";
+    ByteBuffer buffer = ByteBuffer.wrap(log.getBytes(StandardCharsets.UTF_8));
+
+    LogRecord record = new LogRecord("solr.log", null);
+    record.reset(buffer, 0, 0, 0, 0, 0, buffer.limit());
+    assertEquals("\tat caf\u00e9\n\tat two\n", record.getBody().toString());
+
+    record.reset(buffer, 0, 0, 0, 0, 0, 0);
+    assertEquals("", record.getBody().toString());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OpenSearcherAspectTest extends Assert {
+
+  @Test
+  public void pairTest() throws Exception {
+    List<LogRecord> records = new ArrayList<LogRecord>();
+    // one searcher a minute, that takes 2 seconds to warm
+    for (int i = 0; i < 20; i++) {
+      long time = i * 60000L;
+      records.add(open(time, "s" + i));
+      if (i != 5) {
+        records.add(register(time + 2000, "s" + i));
+      }
+    }
+    // too late to count
+    records.add(register(21 * 60000L, "s5"));
+
+    OpenSearcherAspect aspect = new OpenSearcherAspect(3, 60000);
+    for (LogRecord record : records) {
+      aspect.process(record);
+    }
+    String report = AspectAssert.report(aspect);
+    assertTrue(report, report.contains("SolrIndexSearcher register events: 20"));
+    assertTrue(report, report.contains("count=19 p50=2000"));
+    assertTrue(report, report.contains("Found 1 searchers that were not registered within 60 seconds"));
+    assertFalse(report, report.contains("filterCache"));
+
+    assertSplits(records, report);
+  }
+
+  @Test
+  public void warmingTest() throws Exception {
+    List<LogRecord> records = new ArrayList<LogRecord>();
+    for (int i = 0; i < 10; i++) {
+      long time = i * 60000L;
+      records.add(open(time, "s" + i));
+      records.add(new LogRecord("solr.log", "", time + 100, "INFO org.apache.solr.search.SolrIndexSearcher:"
+          + " autowarming result for Searcher@s" + i + " main", "\tfilterCache{lookups=0,hits=0,hitratio=0.00,inserts=40,"
+          + "evictions=0,size=" + (40 + i) + ",warmupTime=" + (500 + i) + ",cumulative_lookups=2}"));
+      records.add(new LogRecord("solr.log", "", time + 200, "INFO org.apache.solr.search.SolrIndexSearcher:"
+          + " autowarming result for Searcher@s" + i + " main", "\tqueryResultCache{lookups=0, size=0, warmupTime=0}"));
+      records.add(new LogRecord("solr.log", "", time + 600, "INFO org.apache.solr.core.SolrCore: QuerySenderListener"
+          + " sending requests to Searcher@s" + i + " main{StandardDirectoryReader(segments_1:2)}", ""));
+      records.add(new LogRecord("solr.log", "", time + 900, "INFO org.apache.solr.core.SolrCore: QuerySenderListener done.",
+          ""));
+      records.add(register(time + 1000, "s" + i));
+    }
+
+    OpenSearcherAspect aspect = new OpenSearcherAspect(3, 60000);
+    for (LogRecord record : records) {
+      aspect.process(record);
+    }
+    String report = AspectAssert.report(aspect);
+    assertTrue(report, report.contains("  collection1\n"));
+    assertTrue(report, report.contains("filterCache count=10 ") && report.contains("max=509 avg entries=44.5 ms/entry=11.337"));
+    assertTrue(report, report.contains("queryResultCache count=10 p50=0"));
+    assertTrue(report, report.contains("newSearcher listeners count=10 p50=300 p90=300 p99=300 p999=300 max=300"));
+    assertTrue(report, report.contains("rest count=10 p50=195"));
+    assertSplits(records, report);
+  }
+
+  /**
+   * Splits anywhere, even between an open and its registration.
+   */
+  private static void assertSplits(List<LogRecord> records, String report) throws Exception {
+    AspectAssert.assertSplits(new Callable<Aspect>() {
+      @Override
+      public Aspect call() {
+        return new OpenSearcherAspect(3, 60000);
+      }
+    }, records, report);
+  }
+
+  private static LogRecord open(long time, String id) {
+    return new LogRecord("solr.log", Long.toString(time), time,
+        "INFO org.apache.solr.search.SolrIndexSearcher: Opening Searcher@" + id + " main", "");
+  }
+
+  private static LogRecord register(long time, String id) {
+    return new LogRecord("solr.log", Long.toString(time), time,
+        "INFO org.apache.solr.core.SolrCore: [collection1] Registered new searcher Searcher@" + id + " main{}", "");
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReportWriterTest extends Assert {
+
+  @Test
+  public void writeTest() throws Exception {
+    File a = File.createTempFile("report-a", ".txt");
+    File b = File.createTempFile("report-b", ".txt");
+    a.deleteOnExit();
+    b.deleteOnExit();
+    Files.write(a.toPath(), "left over from an earlier run".getBytes("UTF-8"));
+
+    ReportWriter reportA = new ReportWriter(a.getPath());
+    ReportWriter reportB = new ReportWriter(b.getPath());
+    StringBuilder expectedA = new StringBuilder();
+    StringBuilder expectedB = new StringBuilder();
+    // enough to fill many buffers, interleaved between the reports
+    for (int i = 0; i < 100000; i++) {
+      String line = "line " + i + " caf\u00e9\n";
+      reportA.write(line);
+      expectedA.append(line);
+      if (i % 3 == 0) {
+        reportB.write(line);
+        expectedB.append(line);
+      }
+    }
+    reportA.close();
+    reportB.close();
+    reportA.close();
+
+    assertEquals(expectedA.toString(), new String(Files.readAllBytes(a.toPath()), "UTF-8"));
+    assertEquals(expectedB.toString(), new String(Files.readAllBytes(b.toPath()), "UTF-8"));
+  }
+
+  @Test
+  public void threadsTest() throws Exception {
+    File file = File.createTempFile("report", ".txt");
+    file.deleteOnExit();
+    final ReportWriter report = new ReportWriter(file.getPath());
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final int thread = t;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 20000; i++) {
+            report.write(thread + ":" + i + "\n");
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    report.close();
+
+    // every line is whole and the lines of each thread are in order
+    int[] next = new int[threads.size()];
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      String[] parts = line.split(":");
+      int thread = Integer.parseInt(parts[0]);
+      assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+    }
+    for (int count : next) {
+      assertEquals(20000, count);
+    }
+  }
+}
@@ -42,7 +42,7 @@ public class SolrDefaultFormatTest extends Assert {
     }
     
     assertNotNull(errorAspect);
-    assertEquals("Found wrong number of errors", 1, errorAspect.getErrors().size());
+    assertEquals("Found wrong number of errors", 1, errorAspect.getErrorCount());
     assertEquals("Should be no OOMs", 0, errorAspect.getOoms().get());
     assertNull("outputdir not set", errorAspect.getOutputDir());
     assertFalse("We should have been able to parse all the timestamps", errorAspect.getSawUnknownTimestamp());
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Times {@link SolrRequest#parse(CharSequence)} against the regex QueryAspect used
+ * before it, over the request lines of the bundled logs. Not run as a test:
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes SolrRequestBenchmark [rounds] [log ...]
+ * </pre>
+ */
+public class SolrRequestBenchmark {
+  // QueryAspect.QUERY before SolrRequest
+  private static final Pattern QUERY = Pattern.compile(
+      "^.*?[\\&\\{]q\\=(.*?)(?:&|}).*?hits\\=(\\d+).*?QTime\\=(\\d+).*$", Pattern.DOTALL);
+  private static final String[] LOGS = {"logs/example.log", "logs/solr-default/sample.log",
+      "logs/solr7-console/example.log", "logs/solr7-console/example-ship.txt"};
+
+  // keeps the JIT from dropping what is parsed
+  static volatile long sink;
+
+  public static void main(String[] args) throws IOException {
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    String[] logs = LOGS;
+    if (args.length > 1) {
+      logs = new String[args.length - 1];
+      System.arraycopy(args, 1, logs, 0, logs.length);
+    }
+    List<String> lines = new ArrayList<String>();
+    for (String log : logs) {
+      readRequestLines(log, lines);
+    }
+    System.out.println("Request lines: " + lines.size());
+    if (lines.isEmpty()) {
+      return;
+    }
+
+    // the first half of the rounds warms up the JIT
+    for (int pass = 0; pass < 2; pass++) {
+      boolean report = pass == 1;
+      long regexFound = 0;
+      long start = System.nanoTime();
+      for (int round = 0; round < rounds / 2; round++) {
+        for (String line : lines) {
+          Matcher m = QUERY.matcher(line);
+          if (m.matches()) {
+            regexFound++;
+            sink += m.group(1).length() + Integer.parseInt(m.group(3));
+          }
+        }
+      }
+      long regexNanos = System.nanoTime() - start;
+
+      SolrRequest request = new SolrRequest();
+      long parserFound = 0;
+      start = System.nanoTime();
+      for (int round = 0; round < rounds / 2; round++) {
+        for (String line : lines) {
+          if (request.parse(line)) {
+            String q = request.getParam("q");
+            parserFound++;
+            sink += (q == null ? 0 : q.length()) + request.getQTime();
+          }
+        }
+      }
+      long parserNanos = System.nanoTime() - start;
+
+      if (report) {
+        long parsed = (long) (rounds / 2) * lines.size();
+        System.out.printf("QUERY regex:       %.3f us/line, %d lines matched%n", regexNanos / 1000.0 / parsed,
+            regexFound / (rounds / 2));
+        System.out.printf("SolrRequest.parse: %.3f us/line, %d lines parsed%n", parserNanos / 1000.0 / parsed,
+            parserFound / (rounds / 2));
+      }
+    }
+  }
+
+  private static void readRequestLines(String log, List<String> lines) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(log),
+        StandardCharsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.contains("QTime=")) {
+          lines.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SolrRequestTest extends Assert {
+
+  @Test
+  public void solr7Test() throws Exception {
+    SolrRequest request = new SolrRequest();
+    assertTrue(request.parse("INFO  (qtp-64) [c:collection1 s:shard1 r:core_node22 x:collection1_shard1_replica_n21]"
+        + " o.a.s.c.S.Request [collection1_shard1_replica_n21]  webapp=/solr path=/select"
+        + " params={q=name:(a+b)&fq={!tag%3Dx}id:1&rows=0&wt=javabin} hits=12 status=0 QTime=31"));
+    assertEquals("collection1", request.getCollection());
+    assertEquals("collection1_shard1_replica_n21", request.getCore());
+    assertEquals("/solr", request.getWebapp());
+    assertEquals("/select", request.getPath());
+    assertEquals(4, request.getParamCount());
+    assertEquals("fq", request.getParamName(1));
+    assertEquals("{!tag%3Dx}id:1", request.getRawParamValue(1));
+    assertEquals("{!tag=x}id:1", request.getParamValue(1));
+    assertEquals("name:(a b)", request.getParam("q"));
+    assertNull(request.getParam("start"));
+    assertEquals(12, request.getHits());
+    assertEquals(0, request.getStatus());
+    assertEquals(31, request.getQTime());
+  }
+
+  @Test
+  public void withoutQueryTest() throws Exception {
+    SolrRequest request = new SolrRequest();
+    assertTrue(request.parse("INFO org.apache.solr.core.SolrCore: [collection1_shard2_replica1] webapp=/solr"
+        + " path=/update params={distrib.from=http://host1:8983/solr/c/&wt=javabin&version=2} status=0 QTime=11 "));
+    assertNull(request.getCollection());
+    assertEquals("collection1_shard2_replica1", request.getCore());
+    assertEquals("/update", request.getPath());
+    assertEquals("http://host1:8983/solr/c/", request.getParam("distrib.from"));
+    assertEquals(-1, request.getHits());
+    assertEquals(11, request.getQTime());
+
+    // local params may end the params with a brace of their own
+    assertTrue(request.parse("[admin] webapp=null path=/admin/cores params={fq={!term+f%3Did}1} status=0 QTime=5"));
+    assertEquals("admin", request.getCore());
+    assertEquals("null", request.getWebapp());
+    assertEquals("fq={!term+f%3Did}1", request.getParamString());
+    assertEquals("{!term f=id}1", request.getParam("fq"));
+
+    assertTrue(request.parse("o.a.s.c.S.Request webapp=/solr path=/select params={} hits=0 status=0 QTime=0"));
+    assertNull(request.getCore());
+    assertEquals(0, request.getParamCount());
+
+    assertFalse(request.parse("start commit{,optimize=false,openSearcher=true}"));
+    assertFalse(request.parse("[x] webapp=/solr path=/select params={q=*:*}"));
+  }
+
+  @Test
+  public void fingerprintTest() throws Exception {
+    SolrRequest request = new SolrRequest();
+    assertTrue(request.parse("webapp=/solr path=/select params={wt=json&rows=10&q=name:\"ipod+mini\"+AND+price:[5+TO+*]"
+        + "&fq={!tag%3Dcat}cat:electronics&_=1433163812345} hits=1 status=0 QTime=3"));
+    String fingerprint = request.getFingerprint();
+    assertEquals("/select fq={!tag=?}cat:? q=name:? AND price:[? TO *] rows=?", fingerprint);
+
+    assertTrue(request.parse("webapp=/solr path=/select params={_=1&q=name:other+AND+price:[10+TO+*]"
+        + "&fq={!tag%3Dcat}cat:music&rows=20&wt=xml} hits=1 status=0 QTime=3"));
+    assertEquals(fingerprint, request.getFingerprint());
+
+    StringBuilder sb = new StringBuilder();
+    SolrRequest.normalize("{!func}log(popularity) big red dog -id:12 dt:[2015-04-24T09:43:05Z TO NOW-1DAY]", sb);
+    assertEquals("{!func}log(popularity) ? -id:? dt:[? TO ?]", sb.toString());
+
+    // only the args of functions are fields
+    sb.setLength(0);
+    SolrRequest.normalize("sum(popularity,10) title:(big dog) if(exists(price),1,0)", sb);
+    assertEquals("sum(popularity,?) title:(?) if(exists(price),?,?)", sb.toString());
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TextMatcherTest extends Assert {
+
+  @Test
+  public void textTest() throws Exception {
+    TextMatcher matcher = new TextMatcher(Arrays.asList("he", "she", "hers", "Solr", "/solr/i", "caf\u00e9"));
+
+    assertEquals(bits(), match(matcher, "nothing to see"));
+    assertEquals(bits(0, 1), match(matcher, "usher"));
+    // only found by following a failure link
+    assertEquals(bits(0, 1, 2), match(matcher, "ushers"));
+    assertEquals(bits(4), match(matcher, "SOLR"));
+    assertEquals(bits(3, 4), match(matcher, "my Solr"));
+    assertEquals(bits(5), match(matcher, "un caf\u00e9"));
+    assertEquals(bits(), match(matcher, "un cafe"));
+  }
+
+  @Test
+  public void regexTest() throws Exception {
+    TextMatcher matcher = new TextMatcher(Arrays.asList("/abc/", "/b(c)d?/", "/qtime=\\d{4,}/i", "/ab/",
+        "/^start/", "Timed out"));
+
+    assertEquals(bits(0, 1, 3), match(matcher, "xabc"));
+    assertEquals(bits(2), match(matcher, "status=0 QTime=12345"));
+    assertEquals(bits(), match(matcher, "status=0 QTime=123"));
+    assertEquals(bits(4, 5), match(matcher, "start: Timed out"));
+    assertEquals(bits(), match(matcher, "restart"));
+
+    // what the headline matched is not looked for again in the body
+    BitSet hits = new BitSet();
+    matcher.match("abc", hits);
+    matcher.match("Timed out", hits);
+    assertEquals(bits(0, 1, 3, 5), hits);
+  }
+
+  @Test
+  public void backReferenceTest() throws Exception {
+    TextMatcher matcher = new TextMatcher(Arrays.asList("/(b)c/", "/(a)\\1/", "/(?<x>z)\\k<x>/i", "/(?<x>y)/",
+        "/(?<=q)r/"));
+
+    assertEquals(bits(1), match(matcher, "xaa"));
+    assertEquals(bits(), match(matcher, "xab"));
+    assertEquals(bits(0, 1, 2, 3), match(matcher, "aa bc zZ y"));
+    assertEquals(bits(4), match(matcher, "qr"));
+  }
+
+  private static BitSet match(TextMatcher matcher, String s) {
+    BitSet hits = new BitSet();
+    matcher.match(s, hits);
+    return hits;
+  }
+
+  private static BitSet bits(int... terms) {
+    BitSet bits = new BitSet();
+    for (int term : terms) {
+      bits.set(term);
+    }
+    return bits;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimeSeriesTest extends Assert {
+  private static final long START = 1433163800000L;
+
+  @Test
+  public void counterTest() throws Exception {
+    TimeSeries series = new TimeSeries("Queries", false);
+    assertTrue(series.isEmpty());
+    series.add(TimestampParser.NO_TIMESTAMP);
+    assertTrue(series.isEmpty());
+
+    // 1, 5, 2, 0, 4 per second
+    int[] counts = {1, 5, 2, 0, 4};
+    for (int i = 0; i < counts.length; i++) {
+      for (int j = 0; j < counts[i]; j++) {
+        series.add(START + i * 1000 + j);
+      }
+    }
+    assertEquals(0, series.getLevel());
+    List<TimeSeries.Point> points = series.getPoints(0);
+    assertEquals(5, points.size());
+    for (int i = 0; i < counts.length; i++) {
+      assertEquals(START + i * 1000, points.get(i).time);
+      assertEquals(counts[i], points.get(i).value, 0);
+    }
+    assertEquals(12, series.getPoints(1).get(0).value, 0);
+
+    List<TimeSeries.Point> peaks = series.getPeaks(0, 3);
+    assertEquals(2, peaks.size());
+    assertEquals(5, peaks.get(0).value, 0);
+    assertEquals(4, peaks.get(1).value, 0);
+    List<TimeSeries.Point> troughs = series.getTroughs(0, 1);
+    assertEquals(1, troughs.size());
+    assertEquals(START + 3000, troughs.get(0).time);
+  }
+
+  @Test
+  public void gaugeTest() throws Exception {
+    TimeSeries series = new TimeSeries("Mean QTime", true);
+    series.add(START, 10);
+    series.add(START + 10, 20);
+    series.add(START + 5000, 7);
+    List<TimeSeries.Point> points = series.getPoints(0);
+    // empty seconds have no mean
+    assertEquals(2, points.size());
+    assertEquals(15, points.get(0).value, 0);
+    assertEquals(7, points.get(1).value, 0);
+    assertEquals(37 / 3.0, series.getPoints(1).get(0).value, 0.0001);
+  }
+
+  @Test
+  public void overflowTest() throws Exception {
+    TimeSeries series = new TimeSeries("Errors", false);
+    // two hours of one event a second is more than the seconds keep
+    for (int i = 0; i < 2 * 60 * 60; i++) {
+      series.add(START + i * 1000L);
+    }
+    assertEquals(1, series.getLevel());
+    assertEquals(60 * 60, series.getPoints(0).size());
+    assertEquals(START + 60 * 60 * 1000L, series.getPoints(0).get(0).time);
+    long total = 0;
+    for (TimeSeries.Point point : series.getPoints(1)) {
+      total += point.value;
+    }
+    assertEquals(2 * 60 * 60, total);
+
+    // events too old for the seconds still count in the minutes
+    double firstMinute = series.getPoints(1).get(0).value;
+    series.add(START);
+    assertEquals(firstMinute + 1, series.getPoints(1).get(0).value, 0);
+  }
+
+  @Test
+  public void mergeTest() throws Exception {
+    TimeSeries a = new TimeSeries("Commits", false);
+    TimeSeries b = a.newPartial();
+    a.add(START);
+    a.add(START + 2000);
+    b.add(START + 2000);
+    b.add(START - 3000);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    b.write(new DataOutputStream(bytes));
+    a.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    List<TimeSeries.Point> points = a.getPoints(0);
+    assertEquals(6, points.size());
+    assertEquals(START - 3000, points.get(0).time);
+    assertEquals(1, points.get(0).value, 0);
+    assertEquals(0, points.get(1).value, 0);
+    assertEquals(2, points.get(5).value, 0);
+  }
+}
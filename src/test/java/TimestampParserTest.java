@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimestampParserTest extends Assert {
+
+  @Test
+  public void matchesSimpleDateFormatTest() throws Exception {
+    String df = "yyyy-MM-dd HH:mm:ss,SSS";
+    TimestampParser parser = new TimestampParser(df);
+    SimpleDateFormat format = new SimpleDateFormat(df);
+    String[] timestamps = {"2015-04-24 09:42:55,473", "2015-04-24 09:42:55,474", "2015-04-24 09:42:55,001",
+        "2015-04-24 09:42:56,000", "2015-04-24 09:42:55,999", "2015-12-31 23:59:59,999", "2016-01-01 00:00:00,000"};
+    for (String timestamp : timestamps) {
+      assertEquals(timestamp, format.parse(timestamp).getTime(), parser.parse(timestamp));
+    }
+  }
+
+  @Test
+  public void threadsTest() throws Exception {
+    final String df = "yyyy-MM-dd HH:mm:ss,SSS";
+    final TimestampParser parser = new TimestampParser(df);
+    final AtomicInteger wrong = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      // each thread in a second of its own
+      final String second = "2015-04-24 09:42:5" + t + ",";
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            long expected = new SimpleDateFormat(df).parse(second + "000").getTime();
+            for (int i = 0; i < 10000; i++) {
+              int millis = i % 1000;
+              String timestamp = second + (millis < 10 ? "00" : millis < 100 ? "0" : "") + millis;
+              if (parser.parse(timestamp) != expected + millis) {
+                wrong.incrementAndGet();
+              }
+            }
+          } catch (ParseException e) {
+            wrong.incrementAndGet();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, wrong.get());
+  }
+
+  @Test
+  public void secondsAndBadInputTest() throws Exception {
+    assertEquals(2444, new TimestampParser("seconds").parse("2444"));
+    assertEquals(TimestampParser.NO_TIMESTAMP, new TimestampParser("seconds").parse("24a4"));
+    assertEquals(TimestampParser.NO_TIMESTAMP, new TimestampParser("yyyy-MM-dd HH:mm:ss.SSS").parse("not a date"));
+  }
+}